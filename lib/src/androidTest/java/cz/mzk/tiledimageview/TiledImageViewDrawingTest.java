@@ -0,0 +1,275 @@
+package cz.mzk.tiledimageview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.mzk.tiledimageview.images.ImageManager;
+import cz.mzk.tiledimageview.images.TilePositionInPyramid;
+import cz.mzk.tiledimageview.images.TiledImageProtocol;
+import cz.mzk.tiledimageview.images.cache.CacheKeyBuilder;
+import cz.mzk.tiledimageview.images.cache.CacheManager;
+import cz.mzk.tiledimageview.images.zoomify.ZoomifyImageManager;
+import cz.mzk.tiledimageview.images.zoomify.ZoomifyImageMetadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Metadata and tiles are put into memory caches up front, so no network is needed. Every test uses its own image (base url),
+ * so that caches filled by other tests don't matter.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TiledImageViewDrawingTest {
+
+    private static final String BASE_URL_ALL_TILES = "http://localhost/drawing-test/all-tiles/";
+    private static final String BASE_URL_MISSING_TILES = "http://localhost/drawing-test/missing-tiles/";
+    private static final String BASE_URL_COMPOSITION = "http://localhost/drawing-test/composition/";
+    private static final String BASE_URL_TEXTURE_VIEW = "http://localhost/drawing-test/texture-view/";
+    private static final int IMAGE_WIDTH = 2000;
+    private static final int IMAGE_HEIGHT = 1500;
+    private static final int TILE_SIZE = 256;
+    private static final int CANVAS_WIDTH = 480;
+    private static final int CANVAS_HEIGHT = 800;
+    private static final int WARM_UP_FRAMES = 5;
+    private static final int MEASURED_FRAMES = 20;
+    private static final int COMPOSITION_WAIT_ATTEMPTS = 50;
+    private static final long COMPOSITION_WAIT_MS = 50;
+    private static final int RENDER_WAIT_ATTEMPTS = 50;
+    private static final long RENDER_WAIT_MS = 50;
+
+    private Context mContext;
+
+    @Before
+    public void init() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        if (!CacheManager.isInitialized()) {
+            CacheManager.initialize(mContext, new TiledImageViewConfig.Builder()
+                    .setDiskCacheEnabled(false)
+                    .build());
+        }
+        //room for tiles of both test images, cache might have been initialized by other test with default size
+        CacheManager.getTileCache().increasMemoryCacheSize(200);
+    }
+
+    /**
+     * @param skipFirstTiles if true, tile [0,0] is not put into cache in any layer except for layer 0
+     */
+    private void fillCaches(String baseUrl, boolean skipFirstTiles) {
+        String metadataXml = String.format("<IMAGE_PROPERTIES WIDTH=\"%d\" HEIGHT=\"%d\" NUMTILES=\"0\" NUMIMAGES=\"1\" VERSION=\"1.8\" TILESIZE=\"%d\" />",
+                IMAGE_WIDTH, IMAGE_HEIGHT, TILE_SIZE);
+        CacheManager.getMetadataCache().storeItemToMemoryCache(CacheKeyBuilder.buildKeyFromUrl(baseUrl + "ImageProperties.xml"), metadataXml);
+        ImageManager imageManager = new ZoomifyImageManager(baseUrl, 0.5, new TiledImageViewConfig.Builder().build());
+        imageManager.init(new ZoomifyImageMetadata(IMAGE_WIDTH, IMAGE_HEIGHT, 0, TILE_SIZE));
+        int topLayer = imageManager.computeBestLayerId(new Rect(0, 0, Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2));
+        Rect wholeImage = new Rect(0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        Bitmap tile = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.RGB_565);
+        List<TilePositionInPyramid> tiles = new ArrayList<>();
+        for (int layer = 0; layer <= topLayer; layer++) {
+            imageManager.getVisibleTilesForLayer(layer, wholeImage, tiles);
+            for (TilePositionInPyramid position : tiles) {
+                if (skipFirstTiles && layer != 0 && position.getPositionInLayer().column == 0 && position.getPositionInLayer().row == 0) {
+                    continue;
+                }
+                String key = CacheKeyBuilder.buildKeyFromUrl(imageManager.buildTileUrl(position));
+                CacheManager.getTileCache().storeItemToMemoryCache(key, tile);
+            }
+        }
+    }
+
+    private TiledImageView createView(String baseUrl) {
+        TiledImageView view = new TiledImageView(mContext);
+        view.setMetadataInitializationListener(new NoopMetadataInitializationListener());
+        view.loadImage(TiledImageProtocol.ZOOMIFY, baseUrl);
+        view.onVisibilityChanged(view, View.VISIBLE);
+        view.measure(View.MeasureSpec.makeMeasureSpec(CANVAS_WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(CANVAS_HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, CANVAS_WIDTH, CANVAS_HEIGHT);
+        return view;
+    }
+
+    @Test
+    public void steadyStateFrameDoesNotAllocate() {
+        fillCaches(BASE_URL_ALL_TILES, false);
+        final int[] allocations = new int[1];
+        final PerformanceStats[] stats = new PerformanceStats[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TiledImageView view = createView(BASE_URL_ALL_TILES);
+                Canvas canvas = new Canvas(Bitmap.createBitmap(CANVAS_WIDTH, CANVAS_HEIGHT, Bitmap.Config.RGB_565));
+                //first frames create shared tile positions, cache keys and scratch lists
+                for (int i = 0; i < WARM_UP_FRAMES; i++) {
+                    view.onDraw(canvas);
+                }
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < MEASURED_FRAMES; i++) {
+                    view.onDraw(canvas);
+                }
+                Debug.stopAllocCounting();
+                allocations[0] = Debug.getThreadAllocCount();
+                stats[0] = view.getPerformanceStats();
+            }
+        });
+        assertEquals("allocations in " + MEASURED_FRAMES + " frames", 0, allocations[0]);
+        //recording stats is part of measured frames
+        assertEquals(WARM_UP_FRAMES + MEASURED_FRAMES, stats[0].getFrameTimeNanos().getCount());
+        assertEquals(0, stats[0].getGestureFrameTimeNanos().getCount());
+        assertEquals(0, stats[0].getTilesMissingPerFrame().getMax());
+        //tiles drawn from memory cache are not requested, so they are not deliveries
+        assertEquals(0, stats[0].getTileDeliveryTimeNanos(PerformanceStats.TileSource.MEMORY).getCount());
+    }
+
+    /**
+     * Tile [0,0] is missing in every layer but 0. Drawing whole lower layers under the best one would draw the image area
+     * several times, fallback per missing tile draws every pixel once.
+     */
+    @Test
+    public void missingTileIsDrawnFromAncestorWithoutOverdraw() {
+        fillCaches(BASE_URL_MISSING_TILES, true);
+        final double[] overdraw = new double[1];
+        final int[] fallbackTiles = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                TiledImageView view = createView(BASE_URL_MISSING_TILES);
+                Canvas canvas = new Canvas(Bitmap.createBitmap(CANVAS_WIDTH, CANVAS_HEIGHT, Bitmap.Config.RGB_565));
+                view.onDraw(canvas);
+                view.onDraw(canvas);
+                overdraw[0] = view.getLastFrameOverdraw();
+                fallbackTiles[0] = view.getLastFrameFallbackTiles();
+            }
+        });
+        assertTrue("fallback tiles: " + fallbackTiles[0], fallbackTiles[0] <= 1);
+        assertEquals(1.0, overdraw[0], 0.01);
+    }
+
+    /**
+     * All visible tiles are in memory cache, so they are composed in background after first frame. Frames after that draw
+     * single bitmap.
+     */
+    @Test
+    public void restingFrameIsDrawnFromTilesComposition() throws InterruptedException {
+        fillCaches(BASE_URL_COMPOSITION, false);
+        final TiledImageView[] view = new TiledImageView[1];
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(CANVAS_WIDTH, CANVAS_HEIGHT, Bitmap.Config.RGB_565));
+        final int[] bitmapDraws = new int[1];
+        final double[] overdraw = new double[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view[0] = createView(BASE_URL_COMPOSITION);
+                view[0].onDraw(canvas);
+                bitmapDraws[0] = view[0].getLastFrameBitmapDraws();
+            }
+        });
+        assertTrue("bitmap draws before composition: " + bitmapDraws[0], bitmapDraws[0] > 1);
+        for (int i = 0; i < COMPOSITION_WAIT_ATTEMPTS && bitmapDraws[0] != 1; i++) {
+            //composition is delivered on main thread
+            Thread.sleep(COMPOSITION_WAIT_MS);
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    view[0].onDraw(canvas);
+                    bitmapDraws[0] = view[0].getLastFrameBitmapDraws();
+                    overdraw[0] = view[0].getLastFrameOverdraw();
+                }
+            });
+        }
+        assertEquals(1, bitmapDraws[0]);
+        assertEquals(1.0, overdraw[0], 0.01);
+    }
+
+    /**
+     * Surface texture is not attached to any GL context, render thread draws into it through Surface as it would into
+     * window's one. Frame is requested by engine (as FrameHost) and recorded in Choreographer callback on main thread.
+     */
+    @Test
+    public void textureViewRendersFrameInRenderThread() throws InterruptedException {
+        assumeTrue(Build.VERSION.SDK_INT >= 16);
+        fillCaches(BASE_URL_TEXTURE_VIEW, false);
+        final TiledImageTextureView[] view = new TiledImageTextureView[1];
+        final SurfaceTexture surfaceTexture = new SurfaceTexture(0);
+        surfaceTexture.setDefaultBufferSize(CANVAS_WIDTH, CANVAS_HEIGHT);
+        final long[] renderNanos = new long[1];
+        final long[] recordNanos = new long[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                view[0] = new TiledImageTextureView(mContext);
+                view[0].setMetadataInitializationListener(new NoopMetadataInitializationListener());
+                view[0].loadImage(TiledImageProtocol.ZOOMIFY, BASE_URL_TEXTURE_VIEW);
+                view[0].onVisibilityChanged(view[0], View.VISIBLE);
+                view[0].measure(View.MeasureSpec.makeMeasureSpec(CANVAS_WIDTH, View.MeasureSpec.EXACTLY),
+                        View.MeasureSpec.makeMeasureSpec(CANVAS_HEIGHT, View.MeasureSpec.EXACTLY));
+                view[0].layout(0, 0, CANVAS_WIDTH, CANVAS_HEIGHT);
+                view[0].onSurfaceTextureAvailable(surfaceTexture, CANVAS_WIDTH, CANVAS_HEIGHT);
+            }
+        });
+        try {
+            for (int i = 0; i < RENDER_WAIT_ATTEMPTS && renderNanos[0] == 0; i++) {
+                Thread.sleep(RENDER_WAIT_MS);
+                InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                    @Override
+                    public void run() {
+                        renderNanos[0] = view[0].getLastFrameRenderThreadNanos();
+                        recordNanos[0] = view[0].getLastFrameUiThreadNanos();
+                    }
+                });
+            }
+        } finally {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    view[0].onSurfaceTextureDestroyed(surfaceTexture);
+                }
+            });
+            surfaceTexture.release();
+        }
+        assertTrue("frame not rendered", renderNanos[0] > 0);
+        assertTrue("frame not recorded", recordNanos[0] > 0);
+    }
+
+    private static class NoopMetadataInitializationListener implements TiledImageView.MetadataInitializationListener {
+
+        @Override
+        public void onMetadataInitialized() {
+        }
+
+        @Override
+        public void onMetadataUnhandableResponseCode(String imageMetadataUrl, int responseCode) {
+        }
+
+        @Override
+        public void onMetadataRedirectionLoop(String imageMetadataUrl, int redirections) {
+        }
+
+        @Override
+        public void onMetadataDataTransferError(String imageMetadataUrl, String errorMessage) {
+        }
+
+        @Override
+        public void onMetadataInvalidData(String imageMetadataUrl, String errorMessage) {
+        }
+
+        @Override
+        public void onCannotExecuteMetadataInitialization(String imageMetadataUrl) {
+        }
+    }
+}
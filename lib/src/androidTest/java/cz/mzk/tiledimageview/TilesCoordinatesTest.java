@@ -1,5 +1,6 @@
 package cz.mzk.tiledimageview;
 
+import android.graphics.Rect;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.AndroidTestCase;
 import android.test.mock.MockContext;
@@ -8,9 +9,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import cz.mzk.tiledimageview.images.cache.CacheManager;
 import cz.mzk.tiledimageview.images.ImageManager;
+import cz.mzk.tiledimageview.images.TilePositionInPyramid;
 import cz.mzk.tiledimageview.images.zoomify.ZoomifyImageManager;
+import cz.mzk.tiledimageview.images.zoomify.ZoomifyImageMetadata;
 import cz.mzk.tiledimageview.TiledImageView.MetadataInitializationSuccessListener;
 
 import static org.hamcrest.core.Is.is;
@@ -36,13 +42,13 @@ public class TilesCoordinatesTest extends AndroidTestCase {
 
         if (!CacheManager.isInitialized()) {
             LOGGER.d("initializing " + CacheManager.class.getSimpleName());
-            CacheManager.initialize(getContext(), false, false, 0);
+            CacheManager.initialize(getContext(), new TiledImageViewConfig.Builder().setDiskCacheEnabled(false).build());
         }
     }
 
     private ImageManager initTilesDownloader(String baseUrl) {
         double pxRatio = 0.5;
-        ImageManager imgManager = new ZoomifyImageManager(baseUrl, pxRatio);
+        ImageManager imgManager = new ZoomifyImageManager(baseUrl, pxRatio, new TiledImageViewConfig.Builder().build());
         final TilesDownloaderInitializationResult result = new TilesDownloaderInitializationResult();
        /* imgManager.initialize(
                 new TiledImageView.MetadataInitializationListener() {
@@ -157,6 +163,93 @@ public class TilesCoordinatesTest extends AndroidTestCase {
         }*/
     }
 
+    /**
+     * Tile groups and areas pinned for known ImageProperties (values of computation before per-layer tables were introduced).
+     */
+    @Test
+    public void testTileUrlsAndAreasOfKnownImages() {
+        String baseUrl = "http://localhost/pyramid/";
+        assertTile(initImageManager(baseUrl, 2000, 1500, 256), 3, 7, 5, baseUrl + "TileGroup0/3-7-5.jpg", new Rect(1792, 1280, 2000, 1500));
+        ImageManager big = initImageManager(baseUrl, 20000, 15000, 256);
+        assertTile(big, 7, 0, 0, baseUrl + "TileGroup6/7-0-0.jpg", new Rect(0, 0, 256, 256));
+        assertTile(big, 7, 78, 58, baseUrl + "TileGroup24/7-78-58.jpg", new Rect(19968, 14848, 20000, 15000));
+        assertTile(big, 6, 20, 10, baseUrl + "TileGroup3/6-20-10.jpg", new Rect(10240, 5120, 10752, 5632));
+        assertTile(big, 5, 19, 14, baseUrl + "TileGroup1/5-19-14.jpg", new Rect(19456, 14336, 20000, 15000));
+        ImageManager tileSize512 = initImageManager(baseUrl, 6000, 4500, 512);
+        assertTile(tileSize512, 4, 11, 8, baseUrl + "TileGroup0/4-11-8.jpg", new Rect(5632, 4096, 6000, 4500));
+        assertTile(tileSize512, 3, 5, 4, baseUrl + "TileGroup0/3-5-4.jpg", new Rect(5120, 4096, 6000, 4500));
+        ImageManager panorama = initImageManager(baseUrl, 100000, 300, 256);
+        assertTile(panorama, 9, 390, 1, baseUrl + "TileGroup4/9-390-1.jpg", new Rect(99840, 256, 100000, 300));
+        assertTile(initImageManager(baseUrl, 1, 1, 256), 0, 0, 0, baseUrl + "TileGroup0/0-0-0.jpg", new Rect(0, 0, 1, 1));
+    }
+
+    /**
+     * Every tile of several geometries is compared with previous computation (powers of two and loop over lower layers).
+     */
+    @Test
+    public void testAllTilesMatchPreviousComputation() {
+        int[][] geometries = {{1, 1, 256}, {256, 256, 256}, {257, 255, 256}, {2000, 1500, 256}, {6000, 4500, 512},
+                {20000, 15000, 256}, {100000, 300, 256}, {4097, 8193, 128}};
+        String baseUrl = "http://localhost/pyramid/";
+        Rect actualArea = new Rect();
+        List<TilePositionInPyramid> visibleTiles = new ArrayList<>();
+        for (int[] geometry : geometries) {
+            int width = geometry[0];
+            int height = geometry[1];
+            int tileSize = geometry[2];
+            ImageManager imageManager = initImageManager(baseUrl, width, height, tileSize);
+            int layers = imageManager.computeBestLayerId(new Rect(0, 0, Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2)) + 1;
+            for (int layer = 0; layer < layers; layer++) {
+                double powerOf2 = Math.pow(2, layers - layer - 1);
+                int tilesHorizontal = (int) Math.ceil(Math.floor(width / powerOf2) / tileSize);
+                int tilesVertical = (int) Math.ceil(Math.floor(height / powerOf2) / tileSize);
+                imageManager.getVisibleTilesForLayer(layer, new Rect(0, 0, width, height), visibleTiles);
+                assertEquals(tilesHorizontal * tilesVertical, visibleTiles.size());
+                int basicSize = tileSize * (int) powerOf2;
+                for (int row = 0; row < tilesVertical; row++) {
+                    for (int column = 0; column < tilesHorizontal; column++) {
+                        TilePositionInPyramid position = new TilePositionInPyramid(layer, new TilePositionInPyramid.TilePositionInLayer(column, row));
+                        String expectedUrl = baseUrl + "TileGroup" + previousTileGroup(width, height, tileSize, layers, layer, column, row)
+                                + "/" + layer + "-" + column + "-" + row + ".jpg";
+                        assertEquals(expectedUrl, imageManager.buildTileUrl(position));
+                        int tileWidth = column == tilesHorizontal - 1 ? width - basicSize * (tilesHorizontal - 1) : basicSize;
+                        int tileHeight = row == tilesVertical - 1 ? height - basicSize * (tilesVertical - 1) : basicSize;
+                        imageManager.getTileAreaInImageCoords(position, actualArea);
+                        assertEquals(position.toString(), new Rect(basicSize * column, basicSize * row,
+                                basicSize * column + tileWidth, basicSize * row + tileHeight), actualArea);
+                    }
+                }
+            }
+        }
+    }
+
+    private ImageManager initImageManager(String baseUrl, int width, int height, int tileSize) {
+        ImageManager imageManager = new ZoomifyImageManager(baseUrl, 0.5, new TiledImageViewConfig.Builder().build());
+        imageManager.init(new ZoomifyImageMetadata(width, height, 0, tileSize));
+        return imageManager;
+    }
+
+    private void assertTile(ImageManager imageManager, int layer, int column, int row, String expectedUrl, Rect expectedArea) {
+        TilePositionInPyramid position = new TilePositionInPyramid(layer, new TilePositionInPyramid.TilePositionInLayer(column, row));
+        assertEquals(expectedUrl, imageManager.buildTileUrl(position));
+        Rect area = new Rect();
+        imageManager.getTileAreaInImageCoords(position, area);
+        assertEquals(expectedArea, area);
+    }
+
+    /**
+     * Tile group as computed before per-layer tables, see http://www.staremapy.cz/zoomify-analyza/
+     */
+    private static int previousTileGroup(double width, double height, double tileSize, double depth, int level, int column, int row) {
+        double first = Math.ceil(Math.floor(width / Math.pow(2, depth - level - 1)) / tileSize);
+        double index = column + row * first;
+        for (int i = 1; i <= level; i++) {
+            index += Math.ceil(Math.floor(width / Math.pow(2, depth - i)) / tileSize)
+                    * Math.ceil(Math.floor(height / Math.pow(2, depth - i)) / tileSize);
+        }
+        return (int) (index / tileSize);
+    }
+
     //url no longer available
     /*@Test
     public void testCornerTilesCoordsTricedesigns3() {
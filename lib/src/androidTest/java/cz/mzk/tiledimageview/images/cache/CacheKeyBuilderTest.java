@@ -0,0 +1,177 @@
+package cz.mzk.tiledimageview.images.cache;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Keys must stay the same as keys built by former replace based encoder, otherwise entries already in disk cache wouldn't be
+ * found. Only keys longer than {@link CacheKeyBuilder#MAX_KEY_LENGTH} may differ.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CacheKeyBuilderTest {
+
+    //readable part of hashed key, followed by hash mark and md5
+    private static final int HASHED_KEY_PREFIX_LENGTH = CacheKeyBuilder.HASHED_KEY_LENGTH - 2 - 32;
+
+    private static final String[] BASE_URLS = {
+            "http://mzk-tiledimageview-demo.appspot.com/zoomify/",
+            "http://kramerius.mzk.cz/search/zoomify/uuid:a7ed9c10-4726-4b5b-a5c6-9449bb45c4b7/",
+            "https://docker.mzk.cz/search/zoomify/uuid:c254e63a-82da-11e0-bc9f-0050569d679d/",
+            "http://iris.mzk.cz/tiles/example-data-incorrect-tiles/",
+            "http://www.fookes.com/ezimager/zoomify/104_0486/",
+            "http://mapy.mzk.cz/AA22/0103/",
+            "http://10.0.0.2:8888/preview/07AED/",
+            "https://kramerius.zcm.cz/search/zoomify/uuid:981c2b8d-2042-11e3-88f5-001b63bd97ba/",
+            "http://www.britishpanoramics.com/ZoomifyImage02/",
+            "http://example.com/a(b)/c&d;e#f/g%20h/i*j|k\"l<m>n\\o?p=q/",
+            "https://kramerius.zcm.cz/search/zoomify/uuid:981c2b8d-2042-11e3-88f5-001b63bd97ba/uuid:a7ed9c10-4726-4b5b-a5c6-9449bb45c4b7/",
+    };
+
+    @Test
+    public void keysMatchFormerEncoder() {
+        int compared = 0;
+        List<String> urls = representativeUrls();
+        for (String url : urls) {
+            String key = CacheKeyBuilder.buildKeyFromUrl(url);
+            String formerKey = FormerEncoder.buildKeyFromUrl(url);
+            if (formerKey.length() <= CacheKeyBuilder.MAX_KEY_LENGTH) {
+                assertEquals(url, formerKey, key);
+                compared++;
+            } else {
+                assertEquals(url, CacheKeyBuilder.HASHED_KEY_LENGTH, key.length());
+                assertEquals(url, formerKey.substring(0, HASHED_KEY_PREFIX_LENGTH), key.substring(0, HASHED_KEY_PREFIX_LENGTH));
+            }
+        }
+        assertTrue(compared > 1000 && compared < urls.size());
+    }
+
+    @Test
+    public void hashedKeysAreDistinct() {
+        String prefix = "https://kramerius.zcm.cz/search/zoomify/uuid:981c2b8d-2042-11e3-88f5-001b63bd97ba/uuid:981c2b8d-2042-11e3-88f5-001b63bd97ba/";
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String key = CacheKeyBuilder.buildKeyFromUrl(prefix + "TileGroup0/12-" + i + "-0.jpg");
+            assertEquals(CacheKeyBuilder.HASHED_KEY_LENGTH, key.length());
+            keys.add(key);
+        }
+        assertEquals(1000, keys.size());
+    }
+
+    /**
+     * Url containing hash mark and looking like hashed key still can't produce key of hashed length.
+     */
+    @Test
+    public void encodedKeyLooksLikeHashedKey() {
+        String longUrl = "https://kramerius.zcm.cz/search/zoomify/uuid:981c2b8d-2042-11e3-88f5-001b63bd97ba/uuid:981c2b8d-2042-11e3-88f5-001b63bd97ba/TileGroup0/12-0-0.jpg";
+        String hashed = CacheKeyBuilder.buildKeyFromUrl(longUrl);
+        assertEquals(CacheKeyBuilder.HASHED_KEY_LENGTH, hashed.length());
+        //prefix and hash are escape free, so url equal to hashed key without its first character is encoded as it is
+        String lookalike = hashed.substring(1);
+        assertEquals(lookalike, CacheKeyBuilder.buildKeyFromUrl(lookalike));
+        assertEquals(CacheKeyBuilder.MAX_KEY_LENGTH, lookalike.length());
+    }
+
+    private static List<String> representativeUrls() {
+        List<String> urls = new ArrayList<>();
+        for (String base : BASE_URLS) {
+            urls.add(base + "ImageProperties.xml");
+            for (int group = 0; group < 3; group++) {
+                for (int layer = 0; layer < 14; layer += 3) {
+                    for (int x = 0; x < 20; x += 7) {
+                        for (int y = 0; y < 20; y += 9) {
+                            urls.add(base + "TileGroup" + group + "/" + layer + "-" + x + "-" + y + ".jpg");
+                        }
+                    }
+                }
+            }
+        }
+        //Kramerius handle and api urls
+        urls.add("http://kramerius.mzk.cz/search/handle/uuid:831e1f40-d297-42af-a06f-c1e04863f043");
+        urls.add("http://kramerius.mzk.cz/search/api/v5.0/item/uuid:95efa662-9110-11e0-af9b-0050569d679d/streams/IMG_FULL");
+        urls.add("http://kramerius.mzk.cz/search/img?pid=uuid:0b4d383c-3616-4116-ac07-d7f6bd98e7a6&stream=IMG_THUMB&action=GETRAW");
+        return urls;
+    }
+
+    /**
+     * Encoder of CacheKeyBuilder before single pass encoding, without key cache.
+     */
+    private static class FormerEncoder {
+
+        private static final char ESCAPE_CHAR = '_';
+        private static final Map<Character, Character> POSSIBLY_RESERVED_CHARS = initPossiblyReservedChars();
+        private static final Map<String, Character> ESCAPED_SUBSTRINGS = initEscapedStrings();
+
+        private static Map<String, Character> initEscapedStrings() {
+            Map<String, Character> map = new HashMap<>();
+            map.put("ImageProperties.xml", Character.valueOf('1'));
+            map.put("http://", Character.valueOf('2'));
+            map.put("https://", Character.valueOf('3'));
+            map.put(".jpg", Character.valueOf('4'));
+            map.put("TileGroup", Character.valueOf('5'));
+            return map;
+        }
+
+        private static Map<Character, Character> initPossiblyReservedChars() {
+            Map<Character, Character> map = new HashMap<>();
+            map.put(Character.valueOf('/'), Character.valueOf('a'));
+            map.put(Character.valueOf('\\'), Character.valueOf('b'));
+            map.put(Character.valueOf('?'), Character.valueOf('c'));
+            map.put(Character.valueOf('%'), Character.valueOf('d'));
+            map.put(Character.valueOf('*'), Character.valueOf('e'));
+            map.put(Character.valueOf(':'), Character.valueOf('f'));
+            map.put(Character.valueOf('|'), Character.valueOf('g'));
+            map.put(Character.valueOf('"'), Character.valueOf('h'));
+            map.put(Character.valueOf('<'), Character.valueOf('i'));
+            map.put(Character.valueOf('>'), Character.valueOf('j'));
+            map.put(Character.valueOf('.'), Character.valueOf('k'));
+            map.put(Character.valueOf(':'), Character.valueOf('l'));
+            map.put(Character.valueOf('('), Character.valueOf('m'));
+            map.put(Character.valueOf(')'), Character.valueOf('n'));
+            map.put(Character.valueOf('&'), Character.valueOf('o'));
+            map.put(Character.valueOf(';'), Character.valueOf('p'));
+            map.put(Character.valueOf('#'), Character.valueOf('q'));
+            return map;
+        }
+
+        static String buildKeyFromUrl(String url) {
+            return escapeSpecialChars(escapeSubstrings(url));
+        }
+
+        private static String escapeSubstrings(String url) {
+            Character escapCharacter = Character.valueOf(ESCAPE_CHAR);
+            for (String substring : ESCAPED_SUBSTRINGS.keySet()) {
+                String replacement = new StringBuilder().append(escapCharacter).append(ESCAPED_SUBSTRINGS.get(substring)).toString();
+                url = url.replace(substring, replacement);
+            }
+            return url;
+        }
+
+        private static String escapeSpecialChars(String url) {
+            StringBuilder builder = new StringBuilder();
+            Set<Character> keys = POSSIBLY_RESERVED_CHARS.keySet();
+            for (int i = 0; i < url.length(); i++) {
+                char original = url.charAt(i);
+                Character key = Character.valueOf(original);
+                if (keys.contains(key)) {
+                    builder.append(ESCAPE_CHAR).append(POSSIBLY_RESERVED_CHARS.get(key));
+                } else {
+                    builder.append(original);
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package cz.mzk.tiledimageview.images.cache;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Index checkpoint: cache opened from index and journal tail must contain the same entries as cache opened by replaying
+ * whole journal, unusable index must be ignored.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiskLruCacheTest {
+
+    private static final int APP_VERSION = 1;
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    @Test
+    public void editsAfterCheckpointAreReplayed() throws Exception {
+        File dir = createDir();
+        DiskLruCache cache = open(dir);
+        cache.storeString(0, "a", "alpha");
+        cache.storeString(0, "b", "beta");
+        cache.storeString(0, "c", "gamma");
+        assertValue(cache, "a", "alpha");
+        cache.checkpoint();
+        cache.storeString(0, "d", "delta");
+        cache.remove("b");
+        cache.storeString(0, "c", "gamma2");
+        cache.flush();
+
+        //not closed, as if process was killed, so only journal tail describes edits after checkpoint
+        DiskLruCache fromIndex = open(dir);
+        assertTrue(fromIndex.isOpenedFromIndex());
+        assertEntries(fromIndex);
+        long sizeFromIndex = fromIndex.size();
+        fromIndex.close();
+
+        assertTrue(new File(dir, DiskLruCache.INDEX_FILE).delete());
+        DiskLruCache fromJournal = open(dir);
+        assertFalse(fromJournal.isOpenedFromIndex());
+        assertEntries(fromJournal);
+        assertEquals(fromJournal.size(), sizeFromIndex);
+        fromJournal.close();
+        cache.close();
+    }
+
+    @Test
+    public void checkpointOnCloseIsUsed() throws Exception {
+        File dir = createDir();
+        DiskLruCache cache = open(dir);
+        cache.storeString(0, "a", "alpha");
+        cache.storeString(0, "b", "beta");
+        cache.close();
+
+        DiskLruCache reopened = open(dir);
+        assertTrue(reopened.isOpenedFromIndex());
+        assertValue(reopened, "a", "alpha");
+        assertValue(reopened, "b", "beta");
+        reopened.close();
+    }
+
+    @Test
+    public void corruptedIndexIsIgnored() throws Exception {
+        File dir = createClosedCache();
+        RandomAccessFile index = new RandomAccessFile(new File(dir, DiskLruCache.INDEX_FILE), "rw");
+        try {
+            index.seek(index.length() / 2);
+            int value = index.read();
+            index.seek(index.length() / 2);
+            index.write(value ^ 0xff);
+        } finally {
+            index.close();
+        }
+        assertClosedCacheReplayed(dir);
+    }
+
+    @Test
+    public void truncatedIndexIsIgnored() throws Exception {
+        File dir = createClosedCache();
+        RandomAccessFile index = new RandomAccessFile(new File(dir, DiskLruCache.INDEX_FILE), "rw");
+        try {
+            index.setLength(index.length() / 2);
+        } finally {
+            index.close();
+        }
+        assertClosedCacheReplayed(dir);
+    }
+
+    @Test
+    public void indexOffsetPastJournalEndIsIgnored() throws Exception {
+        File dir = createClosedCache();
+        File journal = new File(dir, DiskLruCache.JOURNAL_FILE);
+        byte[] shortJournal = DiskLruCache.readFully(new FileInputStream(journal));
+        DiskLruCache cache = open(dir);
+        cache.storeString(0, "c", "gamma");
+        cache.close();
+        //index now points behind end of older journal
+        FileOutputStream out = new FileOutputStream(journal);
+        try {
+            out.write(shortJournal);
+        } finally {
+            out.close();
+        }
+
+        DiskLruCache reopened = open(dir);
+        assertFalse(reopened.isOpenedFromIndex());
+        assertValue(reopened, "a", "alpha");
+        assertValue(reopened, "b", "beta");
+        assertNull(reopened.get("c"));
+        reopened.close();
+    }
+
+    @Test
+    public void dirtyEntryAtCheckpointIsDropped() throws Exception {
+        File dir = createDir();
+        DiskLruCache cache = open(dir);
+        cache.storeString(0, "a", "alpha");
+        DiskLruCache.Editor editor = cache.edit("x");
+        editor.set(0, "unfinished");
+        cache.checkpoint();
+        cache.flush();
+
+        DiskLruCache reopened = open(dir);
+        assertTrue(reopened.isOpenedFromIndex());
+        assertValue(reopened, "a", "alpha");
+        assertNull(reopened.get("x"));
+        assertFalse(new File(dir, "x.0.tmp").exists());
+        reopened.close();
+        cache.close();
+    }
+
+    @Test
+    public void dirtyEntryCommittedAfterCheckpointIsReadable() throws Exception {
+        File dir = createDir();
+        DiskLruCache cache = open(dir);
+        cache.storeString(0, "a", "alpha");
+        DiskLruCache.Editor editor = cache.edit("x");
+        editor.set(0, "finished");
+        cache.checkpoint();
+        editor.commit();
+        cache.flush();
+
+        DiskLruCache reopened = open(dir);
+        assertTrue(reopened.isOpenedFromIndex());
+        assertValue(reopened, "a", "alpha");
+        assertValue(reopened, "x", "finished");
+        reopened.close();
+        cache.close();
+    }
+
+    private static File createDir() throws IOException {
+        File dir = File.createTempFile("disklrucache", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        return dir;
+    }
+
+    private static DiskLruCache open(File dir) throws DiskLruCache.DiskLruCacheException {
+        return DiskLruCache.open(dir, APP_VERSION, 1, MAX_SIZE);
+    }
+
+    /**
+     * @return dir of closed cache with entries a and b, index written by close
+     */
+    private static File createClosedCache() throws Exception {
+        File dir = createDir();
+        DiskLruCache cache = open(dir);
+        cache.storeString(0, "a", "alpha");
+        cache.storeString(0, "b", "beta");
+        cache.close();
+        return dir;
+    }
+
+    private static void assertClosedCacheReplayed(File dir) throws Exception {
+        DiskLruCache reopened = open(dir);
+        assertFalse(reopened.isOpenedFromIndex());
+        assertValue(reopened, "a", "alpha");
+        assertValue(reopened, "b", "beta");
+        reopened.close();
+    }
+
+    /**
+     * Entries of {@link #editsAfterCheckpointAreReplayed()}.
+     */
+    private static void assertEntries(DiskLruCache cache) throws Exception {
+        assertValue(cache, "a", "alpha");
+        assertNull(cache.get("b"));
+        assertValue(cache, "c", "gamma2");
+        assertValue(cache, "d", "delta");
+        assertEquals(3, cache.getKeys().size());
+    }
+
+    private static void assertValue(DiskLruCache cache, String key, String expected) throws Exception {
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        assertTrue("missing " + key, snapshot != null);
+        try {
+            assertEquals(expected, snapshot.getString(0));
+        } finally {
+            snapshot.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package cz.mzk.tiledimageview.images.zoomify;
+
+import android.graphics.Rect;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.mzk.tiledimageview.TiledImageViewConfig;
+import cz.mzk.tiledimageview.images.TilePositionInPyramid;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Timing loop (JMH doesn't run on device with this build) comparing tile group and tile area computed from per-layer
+ * tables with previous computation by powers of two and loop over layers. Both are run over every tile of large image,
+ * results must match, nanoseconds per tile of the best round are logged with tag {@link #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LayerTablesBenchmark {
+
+    private static final String TAG = "LayerTablesBenchmark";
+    private static final int WIDTH = 60000;
+    private static final int HEIGHT = 45000;
+    private static final int TILE_SIZE = 256;
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private ZoomifyImageManager mImageManager;
+    private int mLayers;
+    //tile counts of layers, as previously kept in list of layers
+    private int[] mTilesHorizontal;
+    private int[] mTilesVertical;
+    private final Rect mArea = new Rect();
+
+    @Test
+    public void layerTablesAgainstPreviousComputation() {
+        mImageManager = new ZoomifyImageManager("http://localhost/benchmark/", 0.5, new TiledImageViewConfig.Builder().build());
+        mImageManager.init(new ZoomifyImageMetadata(WIDTH, HEIGHT, 0, TILE_SIZE));
+        mLayers = mImageManager.computeBestLayerId(new Rect(0, 0, Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2)) + 1;
+        mTilesHorizontal = new int[mLayers];
+        mTilesVertical = new int[mLayers];
+        List<TilePositionInPyramid> tiles = new ArrayList<>();
+        List<TilePositionInPyramid> layerTiles = new ArrayList<>();
+        for (int layer = 0; layer < mLayers; layer++) {
+            double powerOf2 = Math.pow(2, mLayers - layer - 1);
+            mTilesHorizontal[layer] = (int) Math.ceil(Math.floor(WIDTH / powerOf2) / TILE_SIZE);
+            mTilesVertical[layer] = (int) Math.ceil(Math.floor(HEIGHT / powerOf2) / TILE_SIZE);
+            mImageManager.getVisibleTilesForLayer(layer, new Rect(0, 0, WIDTH, HEIGHT), layerTiles);
+            tiles.addAll(layerTiles);
+        }
+        TilePositionInPyramid[] positions = tiles.toArray(new TilePositionInPyramid[tiles.size()]);
+
+        long bestPreviousNanos = Long.MAX_VALUE;
+        long bestTablesNanos = Long.MAX_VALUE;
+        for (int round = 0; round < WARM_UP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            long previousChecksum = runPrevious(positions);
+            long previousNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            long tablesChecksum = runTables(positions);
+            long tablesNanos = System.nanoTime() - start;
+            assertEquals(previousChecksum, tablesChecksum);
+            if (round >= WARM_UP_ROUNDS) {
+                bestPreviousNanos = Math.min(bestPreviousNanos, previousNanos);
+                bestTablesNanos = Math.min(bestTablesNanos, tablesNanos);
+            }
+        }
+        Log.i(TAG, String.format("%d tiles, tile group + area: previous %.1f ns/tile, layer tables %.1f ns/tile",
+                positions.length, bestPreviousNanos / (double) positions.length, bestTablesNanos / (double) positions.length));
+    }
+
+    private long runPrevious(TilePositionInPyramid[] positions) {
+        long checksum = 0;
+        for (TilePositionInPyramid position : positions) {
+            checksum += previousTileGroup(position);
+            previousTileArea(position, mArea);
+            checksum = checksum * 31 + mArea.right * 7 + mArea.bottom;
+        }
+        return checksum;
+    }
+
+    private long runTables(TilePositionInPyramid[] positions) {
+        long checksum = 0;
+        for (TilePositionInPyramid position : positions) {
+            checksum += mImageManager.computeTileGroup(position);
+            mImageManager.getTileAreaInImageCoords(position, mArea);
+            checksum = checksum * 31 + mArea.right * 7 + mArea.bottom;
+        }
+        return checksum;
+    }
+
+    /**
+     * Tile group as computed before per-layer tables, see http://www.staremapy.cz/zoomify-analyza/
+     */
+    private int previousTileGroup(TilePositionInPyramid position) {
+        int column = position.getPositionInLayer().column;
+        int row = position.getPositionInLayer().row;
+        int level = position.getLayer();
+        double tileSize = TILE_SIZE;
+        double width = WIDTH;
+        double height = HEIGHT;
+        double depth = mLayers;
+        double first = Math.ceil(Math.floor(width / Math.pow(2, depth - level - 1)) / tileSize);
+        double index = column + row * first;
+        for (int i = 1; i <= level; i++) {
+            index += Math.ceil(Math.floor(width / Math.pow(2, depth - i)) / tileSize)
+                    * Math.ceil(Math.floor(height / Math.pow(2, depth - i)) / tileSize);
+        }
+        return (int) (index / tileSize);
+    }
+
+    /**
+     * Tile area as computed before per-layer tables.
+     */
+    private void previousTileArea(TilePositionInPyramid position, Rect result) {
+        int layerId = position.getLayer();
+        int column = position.getPositionInLayer().column;
+        int row = position.getPositionInLayer().row;
+        int basicSize = TILE_SIZE * (int) (Math.pow(2, mLayers - layerId - 1));
+        int width = column == mTilesHorizontal[layerId] - 1 ? WIDTH - basicSize * (mTilesHorizontal[layerId] - 1) : basicSize;
+        int height = row == mTilesVertical[layerId] - 1 ? HEIGHT - basicSize * (mTilesVertical[layerId] - 1) : basicSize;
+        int left = basicSize * column;
+        int top = basicSize * row;
+        result.set(left, top, left + width, top + height);
+    }
+}
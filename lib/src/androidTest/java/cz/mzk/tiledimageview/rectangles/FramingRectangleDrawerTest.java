@@ -0,0 +1,131 @@
+package cz.mzk.tiledimageview.rectangles;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.mzk.tiledimageview.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class FramingRectangleDrawerTest {
+
+    private static final int CANVAS_SIZE = 400;
+    //100x100 grid of word boxes
+    private static final int GRID_SIZE = 100;
+    private static final int CELL_SIZE = 40;
+
+    private Context mContext;
+    private FramingRectangleDrawer mDrawer;
+    private Bitmap mBitmap;
+
+    @Before
+    public void init() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDrawer = new FramingRectangleDrawer(mContext);
+        mBitmap = Bitmap.createBitmap(CANVAS_SIZE, CANVAS_SIZE, Bitmap.Config.ARGB_8888);
+        mDrawer.setCanvas(new Canvas(mBitmap));
+    }
+
+    /**
+     * @param styles number of styles alternating in list
+     */
+    private static List<FramingRectangle> wordBoxes(int styles) {
+        int[] colors = {R.color.tiledimageview_blue, R.color.tiledimageview_red, R.color.tiledimageview_green};
+        List<FramingRectangle> result = new ArrayList<>(GRID_SIZE * GRID_SIZE);
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                int color = colors[(row * GRID_SIZE + column) % styles];
+                result.add(new FramingRectangle(column * CELL_SIZE, row * CELL_SIZE, column * CELL_SIZE + 30, row * CELL_SIZE + 20,
+                        new FramingRectangle.Border(color, 1), color));
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void tenThousandRectanglesOfSameStyleAreDrawnWithTwoCalls() {
+        mDrawer.setFrameRectangles(wordBoxes(1));
+        mDrawer.draw(0.1, 0, 0);
+        assertEquals(2, mDrawer.getLastDrawCalls());
+        //only part of them visible
+        mDrawer.draw(1.0, 0, 0, new Rect(0, 0, CANVAS_SIZE, CANVAS_SIZE));
+        assertEquals(2, mDrawer.getLastDrawCalls());
+    }
+
+    /**
+     * Borders don't reach neighbouring boxes at this scale.
+     */
+    @Test
+    public void interleavedStylesOfNonOverlappingRectanglesAreBatched() {
+        mDrawer.setFrameRectangles(wordBoxes(3));
+        mDrawer.draw(1.0, 0, 0);
+        assertEquals(6, mDrawer.getLastDrawCalls());
+    }
+
+    /**
+     * Zoomed out, borders of different styles reach neighbouring boxes, so batching them would change what is on top.
+     */
+    @Test
+    public void interleavedStylesOfNearRectanglesAreSplitWhenZoomedOut() {
+        mDrawer.setFrameRectangles(wordBoxes(3));
+        mDrawer.draw(0.1, 0, 0);
+        assertTrue(mDrawer.getLastDrawCalls() > 6);
+        mDrawer.draw(1.0, 0, 0);
+        assertEquals(6, mDrawer.getLastDrawCalls());
+    }
+
+    /**
+     * Border of earlier rectangle reaches into later touching one, whose filling must be drawn over it.
+     */
+    @Test
+    public void touchingRectangleIsDrawnOverBorder() {
+        List<FramingRectangle> rectangles = new ArrayList<>();
+        rectangles.add(new FramingRectangle(0, 200, 100, 300, null, R.color.tiledimageview_blue));
+        rectangles.add(new FramingRectangle(0, 0, 100, 100, new FramingRectangle.Border(R.color.tiledimageview_green, 4), R.color.tiledimageview_red));
+        //touches previous one, can't join first blue run
+        rectangles.add(new FramingRectangle(100, 0, 200, 100, null, R.color.tiledimageview_blue));
+        mDrawer.setFrameRectangles(rectangles);
+        mDrawer.draw(1.0, 0, 0);
+        assertEquals(4, mDrawer.getLastDrawCalls());
+        assertEquals(Color.GREEN, mBitmap.getPixel(99, 50));
+        assertEquals(Color.BLUE, mBitmap.getPixel(101, 50));
+        assertEquals(Color.RED, mBitmap.getPixel(50, 50));
+    }
+
+    /**
+     * Every rectangle overlaps previous one of other style, so each of them needs its own run.
+     */
+    @Test
+    public void overlappingRectanglesAreDrawnInListOrder() {
+        List<FramingRectangle> rectangles = new ArrayList<>();
+        rectangles.add(new FramingRectangle(0, 0, 100, 100, null, R.color.tiledimageview_blue));
+        rectangles.add(new FramingRectangle(50, 0, 150, 100, null, R.color.tiledimageview_red));
+        rectangles.add(new FramingRectangle(100, 0, 200, 100, null, R.color.tiledimageview_blue));
+        rectangles.add(new FramingRectangle(150, 0, 250, 100, null, R.color.tiledimageview_red));
+        //doesn't overlap any red one, joins last blue run
+        rectangles.add(new FramingRectangle(0, 200, 100, 300, null, R.color.tiledimageview_blue));
+        mDrawer.setFrameRectangles(rectangles);
+        mDrawer.draw(1.0, 0, 0);
+        assertEquals(4, mDrawer.getLastDrawCalls());
+        assertEquals(Color.BLUE, mBitmap.getPixel(25, 50));
+        assertEquals(Color.RED, mBitmap.getPixel(75, 50));
+        assertEquals(Color.BLUE, mBitmap.getPixel(125, 50));
+        assertEquals(Color.RED, mBitmap.getPixel(175, 50));
+        assertEquals(Color.RED, mBitmap.getPixel(225, 50));
+        assertEquals(Color.BLUE, mBitmap.getPixel(50, 250));
+    }
+}
@@ -0,0 +1,203 @@
+package cz.mzk.tiledimageview.rectangles;
+
+import android.graphics.Rect;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Results of index are compared with testing all rectangles.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FramingRectangleIndexTest {
+
+    private static final long SEED = 42;
+    private static final int QUERIES = 500;
+
+    @Test
+    public void queryMatchesBruteForce() {
+        Random random = new Random(SEED);
+        List<FramingRectangle> rectangles = randomRectangles(random, 2000, 10000, 200);
+        FramingRectangleIndex index = new FramingRectangleIndex(rectangles);
+        for (int i = 0; i < QUERIES; i++) {
+            int left = random.nextInt(12000) - 1000;
+            int top = random.nextInt(12000) - 1000;
+            assertQuery(rectangles, index, left, top, left + random.nextInt(3000), top + random.nextInt(3000));
+        }
+    }
+
+    @Test
+    public void queryOutsideOfGridIsClamped() {
+        Random random = new Random(SEED);
+        List<FramingRectangle> rectangles = randomRectangles(random, 500, 1000, 50);
+        FramingRectangleIndex index = new FramingRectangleIndex(rectangles);
+        assertQuery(rectangles, index, -5000, -5000, 5000, 5000);
+        assertQuery(rectangles, index, -5000, -5000, -1, -1);
+        assertQuery(rectangles, index, 2000, 2000, 3000, 3000);
+        assertQuery(rectangles, index, -100, 500, 100, 600);
+        assertQuery(rectangles, index, 900, -100, 5000, 100);
+        for (int i = 0; i < QUERIES; i++) {
+            int left = random.nextInt(4000) - 2000;
+            int top = random.nextInt(4000) - 2000;
+            assertQuery(rectangles, index, left, top, left + random.nextInt(3000), top + random.nextInt(3000));
+        }
+    }
+
+    /**
+     * Rectangles spanning more than 64 cells are kept out of grid, but they must be found as well.
+     */
+    @Test
+    public void largeRectanglesAreFound() {
+        Random random = new Random(SEED);
+        List<FramingRectangle> rectangles = randomRectangles(random, 1000, 10000, 100);
+        rectangles.add(300, new FramingRectangle(0, 0, 10000, 10000, null, null));
+        rectangles.add(new FramingRectangle(2000, 4000, 8000, 4500, null, null));
+        rectangles.add(new FramingRectangle(5000, 0, 5100, 10000, null, null));
+        FramingRectangleIndex index = new FramingRectangleIndex(rectangles);
+        for (int i = 0; i < QUERIES; i++) {
+            int left = random.nextInt(10000);
+            int top = random.nextInt(10000);
+            assertQuery(rectangles, index, left, top, left + random.nextInt(500), top + random.nextInt(500));
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            double x = random.nextDouble() * 10000;
+            double y = random.nextDouble() * 10000;
+            assertEquals(bruteForceFindAt(rectangles, x, y), index.findAt(x, y));
+        }
+    }
+
+    @Test
+    public void rectangleInSeveralCellsIsFoundOnce() {
+        List<FramingRectangle> rectangles = new ArrayList<>();
+        //about 10x10 cells
+        for (int row = 0; row < 10; row++) {
+            for (int column = 0; column < 10; column++) {
+                rectangles.add(new FramingRectangle(column * 100, row * 100, column * 100 + 10, row * 100 + 10, null, null));
+            }
+        }
+        //4x4 cells
+        rectangles.add(new FramingRectangle(150, 150, 450, 450, null, null));
+        FramingRectangleIndex index = new FramingRectangleIndex(rectangles);
+        int found = index.query(0, 0, 1000, 1000);
+        assertEquals(rectangles.size(), found);
+        int[] result = Arrays.copyOf(index.getResult(), found);
+        Arrays.sort(result);
+        for (int i = 0; i < found; i++) {
+            assertEquals(i, result[i]);
+        }
+    }
+
+    /**
+     * Rectangles visited by queries before overflow of stamp must not be skipped after it.
+     */
+    @Test
+    public void queryStampOverflow() {
+        Random random = new Random(SEED);
+        List<FramingRectangle> rectangles = randomRectangles(random, 1000, 5000, 100);
+        FramingRectangleIndex index = new FramingRectangleIndex(rectangles);
+        //stamps of first query are reused after overflow
+        assertQuery(rectangles, index, 0, 0, 5000, 5000);
+        index.setQueryStamp(-3);
+        assertQuery(rectangles, index, 0, 0, 1000, 1000);
+        assertQuery(rectangles, index, 3000, 3000, 4000, 4000);
+        for (int i = 0; i < 5; i++) {
+            assertQuery(rectangles, index, 0, 0, 5000, 5000);
+        }
+    }
+
+    @Test
+    public void findAtMatchesBruteForce() {
+        Random random = new Random(SEED);
+        List<FramingRectangle> rectangles = randomRectangles(random, 300, 1000, 80);
+        FramingRectangleIndex index = new FramingRectangleIndex(rectangles);
+        //every integer point lies on boundaries of cells and rectangles, half points are inside
+        for (int y = -10; y <= 1090; y += 5) {
+            for (int x = -10; x <= 1090; x++) {
+                assertEquals(bruteForceFindAt(rectangles, x, y), index.findAt(x, y));
+                assertEquals(bruteForceFindAt(rectangles, x + 0.5, y + 0.5), index.findAt(x + 0.5, y + 0.5));
+            }
+        }
+        for (int i = 0; i < rectangles.size(); i++) {
+            Rect rect = rectangles.get(i).getRect();
+            assertEquals(bruteForceFindAt(rectangles, rect.left, rect.top), index.findAt(rect.left, rect.top));
+            assertEquals(bruteForceFindAt(rectangles, rect.right, rect.bottom), index.findAt(rect.right, rect.bottom));
+            assertEquals(bruteForceFindAt(rectangles, rect.right - 0.01, rect.bottom - 0.01), index.findAt(rect.right - 0.01, rect.bottom - 0.01));
+        }
+    }
+
+    @Test
+    public void findAtReturnsTopmostRectangle() {
+        List<FramingRectangle> rectangles = new ArrayList<>();
+        //large, kept out of grid
+        rectangles.add(new FramingRectangle(0, 0, 100, 100, null, null));
+        rectangles.add(new FramingRectangle(10, 10, 20, 20, null, null));
+        rectangles.add(new FramingRectangle(15, 15, 50, 50, null, null));
+        rectangles.add(new FramingRectangle(40, 40, 100, 100, null, null));
+        rectangles.add(new FramingRectangle(90, 90, 95, 95, null, null));
+        for (int i = 0; i < 100; i++) {
+            rectangles.add(new FramingRectangle(i, 0, i + 1, 1, null, null));
+        }
+        FramingRectangleIndex index = new FramingRectangleIndex(rectangles);
+        assertEquals(0, index.findAt(5, 5));
+        assertEquals(1, index.findAt(12, 12));
+        assertEquals(2, index.findAt(17, 17));
+        assertEquals(2, index.findAt(20, 20));
+        assertEquals(3, index.findAt(45, 45));
+        assertEquals(4, index.findAt(92, 92));
+        assertEquals(3, index.findAt(95, 95));
+        assertEquals(5 + 7, index.findAt(7.5, 0.5));
+        assertEquals(0, index.findAt(7.5, 1));
+        assertEquals(-1, index.findAt(100, 100));
+        assertEquals(-1, index.findAt(-0.5, 50));
+    }
+
+    private static List<FramingRectangle> randomRectangles(Random random, int count, int areaSize, int maxRectSize) {
+        List<FramingRectangle> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int left = random.nextInt(areaSize);
+            int top = random.nextInt(areaSize);
+            //some empty ones too
+            result.add(new FramingRectangle(left, top, left + random.nextInt(maxRectSize), top + random.nextInt(maxRectSize), null, null));
+        }
+        return result;
+    }
+
+    private static void assertQuery(List<FramingRectangle> rectangles, FramingRectangleIndex index, int left, int top, int right, int bottom) {
+        int found = index.query(left, top, right, bottom);
+        int[] result = Arrays.copyOf(index.getResult(), found);
+        Arrays.sort(result);
+        assertArrayEquals("query " + left + "," + top + "," + right + "," + bottom,
+                bruteForceQuery(rectangles, left, top, right, bottom), result);
+    }
+
+    private static int[] bruteForceQuery(List<FramingRectangle> rectangles, int left, int top, int right, int bottom) {
+        int[] result = new int[rectangles.size()];
+        int found = 0;
+        for (int i = 0; i < rectangles.size(); i++) {
+            Rect rect = rectangles.get(i).getRect();
+            if (rect.left <= right && left <= rect.right && rect.top <= bottom && top <= rect.bottom) {
+                result[found++] = i;
+            }
+        }
+        return Arrays.copyOf(result, found);
+    }
+
+    private static int bruteForceFindAt(List<FramingRectangle> rectangles, double x, double y) {
+        for (int i = rectangles.size() - 1; i >= 0; i--) {
+            Rect rect = rectangles.get(i).getRect();
+            if (x >= rect.left && x < rect.right && y >= rect.top && y < rect.bottom) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
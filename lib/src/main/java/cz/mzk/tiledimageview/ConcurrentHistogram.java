@@ -0,0 +1,55 @@
+package cz.mzk.tiledimageview;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free variant of {@link Histogram} (same buckets) for values recorded by multiple threads, for example cache latencies.
+ * Recording is few atomic increments and never allocates nor blocks.
+ */
+public class ConcurrentHistogram {
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(Histogram.BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param value negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts.incrementAndGet(Histogram.bucketIndex(value));
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Values recorded during the reset may be partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Buckets are not copied atomically, so values recorded meanwhile might be reflected only partially (e.g. in count but not
+     * in sum).
+     */
+    public Histogram snapshot() {
+        long[] counts = new long[Histogram.BUCKETS];
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        Histogram result = new Histogram();
+        result.set(counts, mSum.get(), mMax.get());
+        return result;
+    }
+}
@@ -0,0 +1,192 @@
+package cz.mzk.tiledimageview;
+
+import android.annotation.TargetApi;
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.PorterDuff;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.view.Surface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders frames recorded on UI thread (as Pictures) into surface of {@link TiledImageTextureView}. So that scaling and
+ * compositing of tile bitmaps doesn't block UI thread. Surface is locked with hardware canvas on API 23+, software canvas is used
+ * on older devices.
+ * <p/>
+ * Three pictures circulate between UI thread and this thread: one being recorded, one pending and one being rendered.
+ * UI thread never waits, pending frame that has not been rendered yet is dropped when newer one is submitted.
+ */
+class FrameRenderThread extends Thread {
+
+    private static final Logger LOGGER = new Logger(FrameRenderThread.class);
+    private static final int PICTURES = 3;
+
+    private final Surface mSurface;
+    private final Object mLock = new Object();
+    private final List<Picture> mFreePictures = new ArrayList<>(PICTURES);
+    private Picture mPendingPicture = null;
+    private boolean mPendingGestureFrame = false;
+    private boolean mQuit = false;
+    private int mClearColor;
+
+    //read by UI thread
+    private volatile long mLastFrameNanos;
+    private volatile int mRenderedFrames;
+    private volatile int mDroppedFrames;
+    //guarded by mLock
+    private final Histogram mFrameTimes = new Histogram();
+    private final Histogram mGestureFrameTimes = new Histogram();
+
+    FrameRenderThread(SurfaceTexture surfaceTexture, int clearColor) {
+        super("TiledImageView render thread");
+        mSurface = new Surface(surfaceTexture);
+        mClearColor = clearColor;
+        for (int i = 0; i < PICTURES; i++) {
+            mFreePictures.add(new Picture());
+        }
+    }
+
+    void setClearColor(int clearColor) {
+        synchronized (mLock) {
+            mClearColor = clearColor;
+        }
+    }
+
+    /**
+     * Called from UI thread. Returned picture must be passed back with {@link #submitFrame(Picture)}.
+     */
+    Picture obtainPicture() {
+        synchronized (mLock) {
+            //at most one picture is pending and one rendered, so there is always free one
+            return mFreePictures.remove(mFreePictures.size() - 1);
+        }
+    }
+
+    /**
+     * Called from UI thread.
+     *
+     * @param gestureFrame whether frame was recorded in fast mode during gesture, for frame time stats
+     */
+    void submitFrame(Picture picture, boolean gestureFrame) {
+        synchronized (mLock) {
+            if (mPendingPicture != null) {
+                mFreePictures.add(mPendingPicture);
+                mDroppedFrames++;
+            }
+            mPendingPicture = picture;
+            mPendingGestureFrame = gestureFrame;
+            mLock.notify();
+        }
+    }
+
+    /**
+     * Called from UI thread. Blocks until frame being rendered (if any) is finished, so that surface can be released.
+     */
+    void quitAndWait() {
+        synchronized (mLock) {
+            mQuit = true;
+            mLock.notify();
+        }
+        boolean interrupted = false;
+        while (isAlive()) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getLastFrameNanos() {
+        return mLastFrameNanos;
+    }
+
+    int getRenderedFrames() {
+        return mRenderedFrames;
+    }
+
+    int getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    long getFrameTimePercentileNanos(boolean gestureFrames, int percentile) {
+        synchronized (mLock) {
+            return (gestureFrames ? mGestureFrameTimes : mFrameTimes).getPercentile(percentile);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Picture picture;
+                boolean gestureFrame;
+                int clearColor;
+                synchronized (mLock) {
+                    while (!mQuit && mPendingPicture == null) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            //only quit flag ends the loop
+                        }
+                    }
+                    if (mQuit) {
+                        return;
+                    }
+                    picture = mPendingPicture;
+                    mPendingPicture = null;
+                    gestureFrame = mPendingGestureFrame;
+                    clearColor = mClearColor;
+                }
+                boolean rendered = render(picture, clearColor);
+                synchronized (mLock) {
+                    mFreePictures.add(picture);
+                    if (rendered) {
+                        (gestureFrame ? mGestureFrameTimes : mFrameTimes).record(mLastFrameNanos);
+                    }
+                }
+            }
+        } finally {
+            mSurface.release();
+        }
+    }
+
+    private boolean render(Picture picture, int clearColor) {
+        long start = System.nanoTime();
+        Canvas canvas;
+        try {
+            canvas = Build.VERSION.SDK_INT >= 23 ? lockHardwareCanvas() : mSurface.lockCanvas(null);
+        } catch (Exception e) {
+            //surface being destroyed, quit follows
+            LOGGER.w("cannot lock canvas: " + e.getMessage());
+            return false;
+        }
+        if (canvas == null) {
+            return false;
+        }
+        try {
+            canvas.drawColor(clearColor, PorterDuff.Mode.SRC);
+            canvas.drawPicture(picture);
+        } finally {
+            mSurface.unlockCanvasAndPost(canvas);
+        }
+        mLastFrameNanos = System.nanoTime() - start;
+        mRenderedFrames++;
+        return true;
+    }
+
+    /**
+     * Picture is replayed by GPU instead of being rasterized by this thread.
+     */
+    @TargetApi(23)
+    private Canvas lockHardwareCanvas() {
+        return mSurface.lockHardwareCanvas();
+    }
+
+}
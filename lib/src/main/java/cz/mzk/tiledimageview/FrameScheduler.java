@@ -0,0 +1,93 @@
+package cz.mzk.tiledimageview;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.UiThread;
+import android.view.Choreographer;
+
+/**
+ * Schedules callback into next display frame on UI thread. Uses Choreographer on API 16+, frame is emulated with
+ * delayed post on older devices. Multiple requests before the frame are coalesced into one callback.
+ */
+@UiThread
+public class FrameScheduler {
+
+    private static final long FALLBACK_FRAME_DELAY_MS = 16;
+
+    private final Callback mCallback;
+    // VsyncCallback must not be even loaded on older devices, hence Object and explicit flag instead of instanceof
+    private final boolean mUseChoreographer;
+    private final Object mFrameCallback;
+    private Handler mFallbackHandler;
+    private boolean mScheduled = false;
+
+    public FrameScheduler(Callback callback) {
+        mCallback = callback;
+        mUseChoreographer = Build.VERSION.SDK_INT >= 16;
+        mFrameCallback = mUseChoreographer ? new VsyncCallback() : new FallbackCallback();
+    }
+
+    /**
+     * Callback may schedule next frame itself.
+     */
+    @SuppressLint("NewApi")
+    public void schedule() {
+        if (!mScheduled) {
+            mScheduled = true;
+            if (mUseChoreographer) {
+                Choreographer.getInstance().postFrameCallback((VsyncCallback) mFrameCallback);
+            } else {
+                if (mFallbackHandler == null) {
+                    mFallbackHandler = new Handler(Looper.getMainLooper());
+                }
+                mFallbackHandler.postDelayed((Runnable) mFrameCallback, FALLBACK_FRAME_DELAY_MS);
+            }
+        }
+    }
+
+    @SuppressLint("NewApi")
+    public void cancel() {
+        if (mScheduled) {
+            mScheduled = false;
+            if (mUseChoreographer) {
+                Choreographer.getInstance().removeFrameCallback((VsyncCallback) mFrameCallback);
+            } else {
+                mFallbackHandler.removeCallbacks((Runnable) mFrameCallback);
+            }
+        }
+    }
+
+    public boolean isScheduled() {
+        return mScheduled;
+    }
+
+    private void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        mCallback.doFrame(frameTimeNanos);
+    }
+
+    public interface Callback {
+        /**
+         * @param frameTimeNanos vsync time of frame (System.nanoTime() base), or current time on older devices
+         */
+        void doFrame(long frameTimeNanos);
+    }
+
+    @SuppressLint("NewApi")
+    private class VsyncCallback implements Choreographer.FrameCallback {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            FrameScheduler.this.doFrame(frameTimeNanos);
+        }
+    }
+
+    private class FallbackCallback implements Runnable {
+        @Override
+        public void run() {
+            doFrame(System.nanoTime());
+        }
+    }
+
+}
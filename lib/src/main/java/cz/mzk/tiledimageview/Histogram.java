@@ -0,0 +1,141 @@
+package cz.mzk.tiledimageview;
+
+/**
+ * Histogram with fixed exponential buckets, so that recording value is just increment of counter and never allocates.
+ * Every power of two is split into 4 buckets, values lower than 4 have bucket each. So percentiles are at most 25 %
+ * higher than actual values, which is plenty for telemetry.
+ * <p/>
+ * Not thread safe, values are recorded on UI thread. See {@link ConcurrentHistogram} for values recorded by multiple threads.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // exponents SUB_BUCKET_BITS - 62 (values up to Long.MAX_VALUE) plus exact buckets for values < SUB_BUCKETS
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount = 0;
+    private long mSum = 0;
+    private long mMax = 0;
+
+    Histogram() {
+    }
+
+    /**
+     * @param value negative values are recorded as 0
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[bucketIndex(value)]++;
+        mCount++;
+        mSum += value;
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+
+    void copyFrom(Histogram other) {
+        System.arraycopy(other.mCounts, 0, mCounts, 0, BUCKETS);
+        mCount = other.mCount;
+        mSum = other.mSum;
+        mMax = other.mMax;
+    }
+
+    /**
+     * @param counts counts of values in buckets, {@link #BUCKETS} items
+     */
+    void set(long[] counts, long sum, long max) {
+        System.arraycopy(counts, 0, mCounts, 0, BUCKETS);
+        mCount = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            mCount += counts[i];
+        }
+        mSum = sum;
+        mMax = max;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return highest value that falls into bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long nextBucketLowerBound = (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+        // overflows only for the last bucket, where it gives Long.MAX_VALUE
+        return nextBucketLowerBound - 1;
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return exact highest recorded value, 0 if there are no values
+     */
+    public long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @return exact mean of recorded values, 0 if there are no values
+     */
+    public double getMean() {
+        return mCount == 0 ? 0.0 : (double) mSum / mCount;
+    }
+
+    /**
+     * @param percentile 0 - 100
+     * @return value that given percentage of recorded values didn't exceed (upper bound of its bucket, but never more than
+     * {@link #getMax()}). 0 if there are no values.
+     */
+    public long getPercentile(int percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be within 0-100: " + percentile);
+        }
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * mCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, max=%d",
+                mCount, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), mMax);
+    }
+}
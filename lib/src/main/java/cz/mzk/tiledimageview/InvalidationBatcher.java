@@ -0,0 +1,65 @@
+package cz.mzk.tiledimageview;
+
+import android.graphics.Rect;
+import android.support.annotation.UiThread;
+import android.view.View;
+
+/**
+ * Coalesces invalidation requests (typically tiles delivered by background tasks) so that view is invalidated at most once
+ * per frame and only in union of areas that changed, see {@link FrameScheduler}.
+ */
+@UiThread
+class InvalidationBatcher implements FrameScheduler.Callback {
+
+    private final View mView;
+    private final Rect mDirtyArea = new Rect();
+    private boolean mWholeViewDirty = false;
+    private final FrameScheduler mFrameScheduler = new FrameScheduler(this);
+
+    InvalidationBatcher(View view) {
+        mView = view;
+    }
+
+    /**
+     * @param areaInView changed area in view coords, copied
+     */
+    void invalidate(Rect areaInView) {
+        if (!mWholeViewDirty) {
+            if (mDirtyArea.isEmpty()) {
+                mDirtyArea.set(areaInView);
+            } else {
+                mDirtyArea.union(areaInView);
+            }
+        }
+        mFrameScheduler.schedule();
+    }
+
+    void invalidateWholeView() {
+        mWholeViewDirty = true;
+        mFrameScheduler.schedule();
+    }
+
+    /**
+     * Drops pending invalidation.
+     */
+    void cancel() {
+        mFrameScheduler.cancel();
+        reset();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (mWholeViewDirty) {
+            mView.invalidate();
+        } else if (!mDirtyArea.isEmpty()) {
+            mView.invalidate(mDirtyArea);
+        }
+        reset();
+    }
+
+    private void reset() {
+        mWholeViewDirty = false;
+        mDirtyArea.setEmpty();
+    }
+
+}
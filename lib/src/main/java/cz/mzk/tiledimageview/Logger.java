@@ -7,6 +7,11 @@ import android.util.Log;
  *         <p/>
  *         Logger that creates log for given level only if {@link TiledImageView#DEV_LOGS} is true or
  *         {@link #PRODUCTION_LOG_LEVEL} is smaller or equal to given level.
+ *         <p/>
+ *         Message passed to plain methods is built by caller even if level is disabled. On hot paths use overloads with
+ *         format and arguments (formatted only if level is enabled), or guard whole call by one of compile-time constants
+ *         like {@link #DEBUG_ENABLED} - compiler drops such block completely. Guard is necessary if arguments are
+ *         primitives (boxing) or have to be computed.
  */
 @SuppressWarnings("unused")
 public class Logger {
@@ -24,6 +29,14 @@ public class Logger {
     public static final boolean PRODUCTION_DEBUG = PRODUCTION_LOG_LEVEL <= Log.DEBUG;
     public static final boolean PRODUCTION_VERBOSE = PRODUCTION_LOG_LEVEL <= Log.VERBOSE;
 
+    //whether level is enabled, constant expressions so that "if (Logger.DEBUG_ENABLED)" is resolved at compile time
+    public static final boolean ASSERT_ENABLED = PRODUCTION_ASSERT || TiledImageView.DEV_LOGS;
+    public static final boolean ERROR_ENABLED = PRODUCTION_ERROR || TiledImageView.DEV_LOGS;
+    public static final boolean WARN_ENABLED = PRODUCTION_WARN || TiledImageView.DEV_LOGS;
+    public static final boolean INFO_ENABLED = PRODUCTION_INFO || TiledImageView.DEV_LOGS;
+    public static final boolean DEBUG_ENABLED = PRODUCTION_DEBUG || TiledImageView.DEV_LOGS;
+    public static final boolean VERBOSE_ENABLED = PRODUCTION_VERBOSE || TiledImageView.DEV_LOGS;
+
     private final String mTag;
 
     public Logger(Class<?> loggerClass) {
@@ -35,73 +48,145 @@ public class Logger {
     }
 
     public void d(String msg) {
-        if (PRODUCTION_DEBUG || TiledImageView.DEV_LOGS) {
+        if (DEBUG_ENABLED) {
             Log.d(mTag, msg);
         }
     }
 
     public void d(String msg, Throwable e) {
-        if (PRODUCTION_DEBUG || TiledImageView.DEV_LOGS) {
+        if (DEBUG_ENABLED) {
             Log.d(mTag, msg, e);
         }
     }
 
+    public void d(String format, Object arg) {
+        if (DEBUG_ENABLED) {
+            Log.d(mTag, String.format(format, arg));
+        }
+    }
+
+    public void d(String format, Object arg1, Object arg2) {
+        if (DEBUG_ENABLED) {
+            Log.d(mTag, String.format(format, arg1, arg2));
+        }
+    }
+
+    public void d(String format, Object arg1, Object arg2, Object arg3) {
+        if (DEBUG_ENABLED) {
+            Log.d(mTag, String.format(format, arg1, arg2, arg3));
+        }
+    }
+
     public void e(String msg) {
-        if (PRODUCTION_ERROR || TiledImageView.DEV_LOGS) {
+        if (ERROR_ENABLED) {
             Log.e(mTag, msg);
         }
     }
 
     public void e(String msg, Throwable e) {
-        if (PRODUCTION_ERROR || TiledImageView.DEV_LOGS) {
+        if (ERROR_ENABLED) {
             Log.e(mTag, msg, e);
         }
     }
 
     public void i(String msg) {
-        if (PRODUCTION_INFO || TiledImageView.DEV_LOGS) {
+        if (INFO_ENABLED) {
             Log.i(mTag, msg);
         }
     }
 
     public void i(String msg, Throwable e) {
-        if (PRODUCTION_INFO || TiledImageView.DEV_LOGS) {
+        if (INFO_ENABLED) {
             Log.i(mTag, msg, e);
         }
     }
 
+    public void i(String format, Object arg) {
+        if (INFO_ENABLED) {
+            Log.i(mTag, String.format(format, arg));
+        }
+    }
+
+    public void i(String format, Object arg1, Object arg2) {
+        if (INFO_ENABLED) {
+            Log.i(mTag, String.format(format, arg1, arg2));
+        }
+    }
+
+    public void i(String format, Object arg1, Object arg2, Object arg3) {
+        if (INFO_ENABLED) {
+            Log.i(mTag, String.format(format, arg1, arg2, arg3));
+        }
+    }
+
     public void v(String msg) {
-        if (PRODUCTION_VERBOSE || TiledImageView.DEV_LOGS) {
+        if (VERBOSE_ENABLED) {
             Log.v(mTag, msg);
         }
     }
 
     public void v(String msg, Throwable e) {
-        if (PRODUCTION_VERBOSE || TiledImageView.DEV_LOGS) {
+        if (VERBOSE_ENABLED) {
             Log.v(mTag, msg, e);
         }
     }
 
+    public void v(String format, Object arg) {
+        if (VERBOSE_ENABLED) {
+            Log.v(mTag, String.format(format, arg));
+        }
+    }
+
+    public void v(String format, Object arg1, Object arg2) {
+        if (VERBOSE_ENABLED) {
+            Log.v(mTag, String.format(format, arg1, arg2));
+        }
+    }
+
+    public void v(String format, Object arg1, Object arg2, Object arg3) {
+        if (VERBOSE_ENABLED) {
+            Log.v(mTag, String.format(format, arg1, arg2, arg3));
+        }
+    }
+
     public void w(String msg) {
-        if (PRODUCTION_WARN || TiledImageView.DEV_LOGS) {
+        if (WARN_ENABLED) {
             Log.w(mTag, msg);
         }
     }
 
     public void w(String msg, Throwable e) {
-        if (PRODUCTION_WARN || TiledImageView.DEV_LOGS) {
+        if (WARN_ENABLED) {
             Log.w(mTag, msg, e);
         }
     }
 
+    public void w(String format, Object arg) {
+        if (WARN_ENABLED) {
+            Log.w(mTag, String.format(format, arg));
+        }
+    }
+
+    public void w(String format, Object arg1, Object arg2) {
+        if (WARN_ENABLED) {
+            Log.w(mTag, String.format(format, arg1, arg2));
+        }
+    }
+
+    public void w(String format, Object arg1, Object arg2, Object arg3) {
+        if (WARN_ENABLED) {
+            Log.w(mTag, String.format(format, arg1, arg2, arg3));
+        }
+    }
+
     public void wtf(String msg) {
-        if (PRODUCTION_ASSERT || TiledImageView.DEV_LOGS) {
+        if (ASSERT_ENABLED) {
             Log.wtf(mTag, msg);
         }
     }
 
     public void wtf(String msg, Throwable e) {
-        if (PRODUCTION_ASSERT || TiledImageView.DEV_LOGS) {
+        if (ASSERT_ENABLED) {
             Log.wtf(mTag, msg, e);
         }
     }
@@ -0,0 +1,152 @@
+package cz.mzk.tiledimageview;
+
+import android.support.annotation.UiThread;
+
+/**
+ * Per-frame and per-tile metrics of single view, see {@link TiledImageView#getPerformanceStats()}. Everything is recorded
+ * on UI thread into fixed-size histograms, so recording never allocates and costs few counter increments per frame and
+ * per tile.
+ * <p/>
+ * Instances returned by view are snapshots: they don't change afterwards and can be handed over to other thread, for
+ * example to send percentiles to telemetry.
+ */
+public class PerformanceStats {
+
+    private final Histogram mFrameTimeNanos = new Histogram();
+    private final Histogram mGestureFrameTimeNanos = new Histogram();
+    private final Histogram mTilesDrawnPerFrame = new Histogram();
+    private final Histogram mTilesMissingPerFrame = new Histogram();
+    private final Histogram mFallbackDepth = new Histogram();
+    private final Histogram mTileTasksPerFrame = new Histogram();
+    private final Histogram[] mDeliveryTimeNanos = new Histogram[TileSource.values().length];
+
+    PerformanceStats() {
+        for (int i = 0; i < mDeliveryTimeNanos.length; i++) {
+            mDeliveryTimeNanos[i] = new Histogram();
+        }
+    }
+
+    void recordFrame(long frameNanos, boolean gestureFrame, int tilesDrawn, int tilesMissing, int tileTasks) {
+        (gestureFrame ? mGestureFrameTimeNanos : mFrameTimeNanos).record(frameNanos);
+        mTilesDrawnPerFrame.record(tilesDrawn);
+        mTilesMissingPerFrame.record(tilesMissing);
+        mTileTasksPerFrame.record(tileTasks);
+    }
+
+    /**
+     * @param depth number of layers between missing tile and ancestor drawn instead
+     */
+    void recordFallback(int depth) {
+        mFallbackDepth.record(depth);
+    }
+
+    /**
+     * Called by image manager and its tasks.
+     *
+     * @param source        where tile was found
+     * @param deliveryNanos time from request of tile to its availability in memory cache
+     */
+    @UiThread
+    public void recordTileDelivery(TileSource source, long deliveryNanos) {
+        mDeliveryTimeNanos[source.ordinal()].record(deliveryNanos);
+    }
+
+    void reset() {
+        mFrameTimeNanos.reset();
+        mGestureFrameTimeNanos.reset();
+        mTilesDrawnPerFrame.reset();
+        mTilesMissingPerFrame.reset();
+        mFallbackDepth.reset();
+        mTileTasksPerFrame.reset();
+        for (Histogram histogram : mDeliveryTimeNanos) {
+            histogram.reset();
+        }
+    }
+
+    PerformanceStats snapshot() {
+        PerformanceStats snapshot = new PerformanceStats();
+        snapshot.mFrameTimeNanos.copyFrom(mFrameTimeNanos);
+        snapshot.mGestureFrameTimeNanos.copyFrom(mGestureFrameTimeNanos);
+        snapshot.mTilesDrawnPerFrame.copyFrom(mTilesDrawnPerFrame);
+        snapshot.mTilesMissingPerFrame.copyFrom(mTilesMissingPerFrame);
+        snapshot.mFallbackDepth.copyFrom(mFallbackDepth);
+        snapshot.mTileTasksPerFrame.copyFrom(mTileTasksPerFrame);
+        for (int i = 0; i < mDeliveryTimeNanos.length; i++) {
+            snapshot.mDeliveryTimeNanos[i].copyFrom(mDeliveryTimeNanos[i]);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return time spent in onDraw() on UI thread, one value per full quality frame
+     */
+    public Histogram getFrameTimeNanos() {
+        return mFrameTimeNanos;
+    }
+
+    /**
+     * @return time spent in onDraw() on UI thread, one value per frame drawn while gesture was in progress (fast mode: no
+     * bitmap filtering, no framing rectangles, layer from gesture start)
+     */
+    public Histogram getGestureFrameTimeNanos() {
+        return mGestureFrameTimeNanos;
+    }
+
+    /**
+     * @return visible tiles drawn in resolution of frame's layer (from tile bitmaps or their composition), one value per frame
+     */
+    public Histogram getTilesDrawnPerFrame() {
+        return mTilesDrawnPerFrame;
+    }
+
+    /**
+     * @return visible tiles not in memory cache (drawn from ancestor or not at all), one value per frame
+     */
+    public Histogram getTilesMissingPerFrame() {
+        return mTilesMissingPerFrame;
+    }
+
+    /**
+     * @return number of layers between missing tile and ancestor drawn instead, one value per tile drawn from ancestor
+     */
+    public Histogram getFallbackDepth() {
+        return mFallbackDepth;
+    }
+
+    /**
+     * @return tile delivery tasks running or waiting at the end of frame, one value per frame
+     */
+    public Histogram getTileTasksPerFrame() {
+        return mTileTasksPerFrame;
+    }
+
+    /**
+     * Includes prefetched tiles. {@link TileSource#MEMORY} are requests that found tile in memory cache when their task
+     * started (delivered meanwhile for other view or request), tiles already in memory cache are not requested at all.
+     *
+     * @return time from request of tile to its availability in memory cache, one value per delivered tile
+     */
+    public Histogram getTileDeliveryTimeNanos(TileSource source) {
+        return mDeliveryTimeNanos[source.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("frame time [ns]: ").append(mFrameTimeNanos).append('\n');
+        builder.append("gesture frame time [ns]: ").append(mGestureFrameTimeNanos).append('\n');
+        builder.append("tiles drawn per frame: ").append(mTilesDrawnPerFrame).append('\n');
+        builder.append("tiles missing per frame: ").append(mTilesMissingPerFrame).append('\n');
+        builder.append("fallback depth: ").append(mFallbackDepth).append('\n');
+        builder.append("tile tasks per frame: ").append(mTileTasksPerFrame);
+        for (TileSource source : TileSource.values()) {
+            builder.append('\n').append("delivery from ").append(source.name().toLowerCase()).append(" [ns]: ")
+                    .append(getTileDeliveryTimeNanos(source));
+        }
+        return builder.toString();
+    }
+
+    public enum TileSource {
+        MEMORY, DISK, NETWORK
+    }
+}
@@ -0,0 +1,370 @@
+package cz.mzk.tiledimageview;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.TextureView;
+import android.view.View;
+
+import java.util.List;
+
+import cz.mzk.tiledimageview.images.TiledImageProtocol;
+import cz.mzk.tiledimageview.rectangles.FramingRectangle;
+
+/**
+ * Alternative to {@link TiledImageView} that renders tiles in dedicated thread into TextureView. So that scaling and
+ * compositing of tiles doesn't compete with layouts and other views on UI thread.
+ * <p/>
+ * Viewport, gestures and tile fetching are handled by TiledImageView instance used as engine (never attached to window).
+ * Every frame is recorded on UI thread by engine's onDraw() into Picture, which is cheap, and the Picture is rendered
+ * into surface by {@link FrameRenderThread}. Frame times of both threads are available separately, see
+ * {@link #getLastFrameUiThreadNanos()} and {@link #getLastFrameRenderThreadNanos()}.
+ * <p/>
+ * Requires API 16 and hardware accelerated window (TextureView is not drawn otherwise). Constructors throw
+ * IllegalStateException on older API, use {@link TiledImageView} there. Background drawable is not supported by
+ * TextureView, use {@link #setClearColor(int)} instead.
+ */
+@TargetApi(16)
+public class TiledImageTextureView extends TextureView implements TiledImageViewApi, TextureView.SurfaceTextureListener, TiledImageView.FrameHost {
+
+    private static final Logger LOGGER = new Logger(TiledImageTextureView.class);
+
+    private final TiledImageView mEngine;
+    private FrameRenderThread mRenderThread = null;
+    private int mClearColor = Color.BLACK;
+    private long mLastFrameUiThreadNanos;
+    private final FrameScheduler mFrameScheduler = new FrameScheduler(new FrameScheduler.Callback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            recordFrame();
+        }
+    });
+
+    public TiledImageTextureView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        checkApiLevel();
+        mEngine = new TiledImageView(context, attrs);
+        init();
+    }
+
+    public TiledImageTextureView(Context context, boolean showDevVisualisations, TiledImageView.ViewMode viewMode) {
+        super(context);
+        checkApiLevel();
+        mEngine = new TiledImageView(context, showDevVisualisations, viewMode);
+        init();
+    }
+
+    public TiledImageTextureView(Context context, boolean showDevVisualisations) {
+        this(context, showDevVisualisations, TiledImageView.ViewMode.FIT_IN_VIEW);
+    }
+
+    public TiledImageTextureView(Context context, TiledImageView.ViewMode viewMode) {
+        this(context, false, viewMode);
+    }
+
+    public TiledImageTextureView(Context context) {
+        this(context, false, TiledImageView.ViewMode.FIT_IN_VIEW);
+    }
+
+    private static void checkApiLevel() {
+        if (Build.VERSION.SDK_INT < 16) {
+            throw new IllegalStateException("TiledImageTextureView requires API 16, use TiledImageView on API " + Build.VERSION.SDK_INT);
+        }
+    }
+
+    private void init() {
+        mEngine.setFrameHost(this);
+        setSurfaceTextureListener(this);
+        setOpaque(true);
+    }
+
+    /**
+     * Color that surface is cleared with before every frame, i.e. color of area not covered by image.
+     *
+     * @param color color, surface is transparent (not opaque) if alpha is not 255
+     */
+    public void setClearColor(int color) {
+        mClearColor = color;
+        setOpaque(Color.alpha(color) == 0xFF);
+        if (mRenderThread != null) {
+            mRenderThread.setClearColor(color);
+        }
+        requestFrame();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mEngine.onAttached();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        cancelScheduledFrame();
+        mEngine.onDetached();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        mEngine.onVisibilityChanged(changedView, visibility);
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        mEngine.onWindowVisibilityChanged(visibility);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        //gesture handlers read view size from engine
+        mEngine.measure(MeasureSpec.makeMeasureSpec(w, MeasureSpec.EXACTLY), MeasureSpec.makeMeasureSpec(h, MeasureSpec.EXACTLY));
+        mEngine.layout(0, 0, w, h);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return mEngine.onTouchEvent(event);
+    }
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+        LOGGER.d("surface available: " + width + "x" + height);
+        mRenderThread = new FrameRenderThread(surface, mClearColor);
+        mRenderThread.start();
+        requestFrame();
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+        requestFrame();
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+        LOGGER.d("surface destroyed");
+        cancelScheduledFrame();
+        if (mRenderThread != null) {
+            mRenderThread.quitAndWait();
+            mRenderThread = null;
+        }
+        return true;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+        // nothing to do, surface is updated only by render thread
+    }
+
+    /**
+     * Frame is recorded in next vsync, multiple requests within one frame are coalesced.
+     */
+    @Override
+    public void requestFrame() {
+        if (mRenderThread != null) {
+            mFrameScheduler.schedule();
+        }
+    }
+
+    private void cancelScheduledFrame() {
+        mFrameScheduler.cancel();
+    }
+
+    private void recordFrame() {
+        int width = getWidth();
+        int height = getHeight();
+        if (mRenderThread == null || width == 0 || height == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        Picture picture = mRenderThread.obtainPicture();
+        Canvas canvas = picture.beginRecording(width, height);
+        mEngine.onDraw(canvas);
+        picture.endRecording();
+        mRenderThread.submitFrame(picture, mEngine.isLastFrameGestureFrame());
+        mLastFrameUiThreadNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * @return time spent on UI thread with last frame, i.e. computing visible tiles and recording drawing operations
+     */
+    public long getLastFrameUiThreadNanos() {
+        return mLastFrameUiThreadNanos;
+    }
+
+    /**
+     * @return time spent by render thread with last frame, i.e. actual drawing of tiles into surface. 0 if no frame has
+     * been rendered yet.
+     */
+    public long getLastFrameRenderThreadNanos() {
+        return mRenderThread != null ? mRenderThread.getLastFrameNanos() : 0;
+    }
+
+    /**
+     * Frame times in these stats are times of frame recording on UI thread.
+     *
+     * @see TiledImageView#getPerformanceStats()
+     */
+    public PerformanceStats getPerformanceStats() {
+        return mEngine.getPerformanceStats();
+    }
+
+    public void resetPerformanceStats() {
+        mEngine.resetPerformanceStats();
+    }
+
+    /**
+     * @return given percentile of frame rendering times on render thread since surface was created, 0 if there were no
+     * such frames
+     */
+    public long getRenderThreadFrameTimePercentileNanos(boolean gestureFrames, int percentile) {
+        return mRenderThread != null ? mRenderThread.getFrameTimePercentileNanos(gestureFrames, percentile) : 0;
+    }
+
+    /**
+     * @return number of frames recorded but replaced by newer ones before render thread got to them, since surface was
+     * created
+     */
+    public int getDroppedFrames() {
+        return mRenderThread != null ? mRenderThread.getDroppedFrames() : 0;
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        requestFrame();
+    }
+
+    //API DELEGATED TO ENGINE
+
+    @Override
+    public double getInitialScaleFactor() {
+        return mEngine.getInitialScaleFactor();
+    }
+
+    @Override
+    public double getTotalScaleFactor() {
+        return mEngine.getTotalScaleFactor();
+    }
+
+    @Override
+    public double getMinScaleFactor() {
+        return mEngine.getMinScaleFactor();
+    }
+
+    @Override
+    public double getMaxScaleFactor() {
+        return mEngine.getMaxScaleFactor();
+    }
+
+    @Override
+    public VectorD getTotalShift() {
+        return mEngine.getTotalShift();
+    }
+
+    @Override
+    public void animateTo(Rect imageRegion, long durationMs) {
+        mEngine.animateTo(imageRegion, durationMs);
+    }
+
+    @Override
+    public void loadImage(TiledImageProtocol tiledImageProtocol, String baseUrl) {
+        mEngine.loadImage(tiledImageProtocol, baseUrl);
+    }
+
+    @Override
+    public void loadImage(TiledImageProtocol tiledImageProtocol, String baseUrl, Rect initialRegion) {
+        mEngine.loadImage(tiledImageProtocol, baseUrl, initialRegion);
+    }
+
+    @Override
+    public void setMetadataInitializationListener(TiledImageView.MetadataInitializationListener listener) {
+        mEngine.setMetadataInitializationListener(listener);
+    }
+
+    @Override
+    public void setTileDownloadErrorListener(TiledImageView.TileDownloadErrorListener errorListener) {
+        mEngine.setTileDownloadErrorListener(errorListener);
+    }
+
+    @Override
+    public void setLowerQuality(boolean lowQuality) {
+        mEngine.setLowerQuality(lowQuality);
+    }
+
+    @Override
+    public void setConfig(TiledImageViewConfig config) {
+        mEngine.setConfig(config);
+    }
+
+    @Override
+    public TiledImageViewConfig getConfig() {
+        return mEngine.getConfig();
+    }
+
+    @Override
+    public TiledImageView.SingleTapListener getSingleTapListener() {
+        return mEngine.getSingleTapListener();
+    }
+
+    @Override
+    public void setSingleTapListener(TiledImageView.SingleTapListener singleTapListener) {
+        mEngine.setSingleTapListener(singleTapListener);
+    }
+
+    @Override
+    public void setFramingRectangles(List<FramingRectangle> framingRectangles) {
+        mEngine.setFramingRectangles(framingRectangles);
+    }
+
+    @Override
+    public FramingRectangle getFramingRectangleAt(float x, float y) {
+        return mEngine.getFramingRectangleAt(x, y);
+    }
+
+    @Override
+    public TiledImageView.ViewMode getViewMode() {
+        return mEngine.getViewMode();
+    }
+
+    @Override
+    public void setViewMode(TiledImageView.ViewMode viewMode) {
+        mEngine.setViewMode(viewMode);
+    }
+
+    @Override
+    public Rect getVisibleImageAreaInCanvas() {
+        return mEngine.getVisibleImageAreaInCanvas();
+    }
+
+    @Override
+    public double getCanvasImagePaddingHorizontal() {
+        return mEngine.getCanvasImagePaddingHorizontal();
+    }
+
+    @Override
+    public double getCanvasImagePaddingVertical() {
+        return mEngine.getCanvasImagePaddingVertical();
+    }
+
+    @Override
+    public int getImageWidth() {
+        return mEngine.getImageWidth();
+    }
+
+    @Override
+    public int getImageHeight() {
+        return mEngine.getImageHeight();
+    }
+
+}
@@ -2,16 +2,17 @@ package cz.mzk.tiledimageview;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.os.Build;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import cz.mzk.tiledimageview.dev.DevLoggers;
@@ -35,6 +36,10 @@ public class TiledImageView extends View implements TiledImageViewApi {
 
     public static final boolean DEV_LOGS = false;
     private static final Logger LOGGER = new Logger(TiledImageView.class);
+    //composing fewer tiles wouldn't save much drawing
+    private static final int MIN_TILES_TO_COMPOSE = 4;
+    //composition bigger than this many canvases is not created
+    private static final int MAX_COMPOSITION_CANVAS_AREAS = 2;
 
     //STATE
     private boolean mAttachedToWindow = false;
@@ -42,12 +47,15 @@ public class TiledImageView extends View implements TiledImageViewApi {
     private boolean mLowerQuality = false;
     private boolean mMinZoomCanvasImagePaddingInitialized = false;
     private boolean mHelpersInitialized = false;
+    private TiledImageViewConfig mConfig = null; //null means process-wide config
+    //own or process-wide config, resolved when attached, loading image or setting config
+    private TiledImageViewConfig mResolvedConfig = null;
 
     //CANVAS
     private double mCanvasImagePaddingHorizontal = -1;
     private double mCanvasImagePaddingVertical = -1;
-    private Rect mWholeImageAreaInCanvasCoords = null; // whole image area in canvas coords, even from invisible canvas part (i.e. top and left can be negative)
-    private Rect mVisibleImageAreaInCanvas = null;     // only part of image (in canvas coords) that is in visible part of canvas
+    private final Rect mWholeImageAreaInCanvasCoords = new Rect(); // whole image area in canvas coords, even from invisible canvas part (i.e. top and left can be negative)
+    private final Rect mVisibleImageAreaInCanvas = new Rect();     // only part of image (in canvas coords) that is in visible part of canvas
     private boolean mViewmodeScaleFactorsInitialized = false;
     private double mPxRatio;
 
@@ -68,6 +76,8 @@ public class TiledImageView extends View implements TiledImageViewApi {
     // TODO: 14.12.15 mozna baseUrl a protocol zabalit do objektu
     private String mImageBaseUrl;
     private ImageManager mImageManager;
+    //region shown in first frame instead of view mode, null once applied
+    private Rect mInitialRegion;
 
     //EVENT LISTENERS
     private MetadataInitializationListener mMetadataInitializationListener;
@@ -77,9 +87,88 @@ public class TiledImageView extends View implements TiledImageViewApi {
     private MyGestureListener mGestureListener;
     private SingleTapListener mSingleTapListener;
 
+    //DRAWING
+    //everything onDraw() needs is computed into these, so that drawing frame doesn't allocate anything
+    private double mFrameScaleFactor;
+    private double mFrameShiftX;
+    private double mFrameShiftY;
+    private final Rect mVisibleAreaInImageCoords = new Rect();
+    private final Rect mTileAreaScratch = new Rect();
+    private final Rect mAncestorAreaScratch = new Rect();
+    private final Rect mAncestorSourceScratch = new Rect();
+    private final List<TilePositionInPyramid> mVisibleTiles = new ArrayList<>();
+    private final List<TilePositionInPyramid> mPrefetchTiles = new ArrayList<>();
+    private final List<TilePositionInPyramid> mTilesToKeep = new ArrayList<>();
+    //NAVIGATION (see animateTo())
+    //destination tiles requested at start of navigation. Frames of navigation draw only tiles in memory and request only these,
+    //so that tiles along the route are never requested.
+    private final List<TilePositionInPyramid> mNavigationTiles = new ArrayList<>();
+    private boolean mNavigationFrame = false;
+    private final Rect mDeliveredTileArea = new Rect();
+    private final InvalidationBatcher mInvalidationBatcher = new InvalidationBatcher(this);
+    //overdraw of last frame: sum of drawn tile areas within visible image area / visible image area
+    private long mFrameDrawnAreaPx;
+    private int mFrameFallbackTiles;
+    private double mLastFrameOverdraw;
+    private int mLastFrameFallbackTiles;
+    private int mFrameBitmapDraws;
+    private int mLastFrameBitmapDraws;
+    //fast mode while gesture is in progress: layer from gesture start, no bitmap filtering, no overlays
+    private final Paint mTilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mGestureTilePaint = new Paint();
+    private Paint mFrameTilePaint = mTilePaint;
+    private boolean mGestureFrame = false;
+    private int mGestureLayerId = -1;
+    private int mLastFrameLayerId = -1;
+    private final PerformanceStats mPerformanceStats = new PerformanceStats();
+    private int mFrameTilesDrawn;
+    private int mFrameTilesMissing;
+    private final TileDownloadSuccessListener mTileDeliveredListener = new TileDownloadSuccessListener() {
+        @Override
+        public void onTileDelivered(TilePositionInPyramid tilePositionInPyramid, PerformanceStats.TileSource source, long deliveryNanos) {
+            if (mDevTools != null) {
+                mDevTools.recordTileDelivery(tilePositionInPyramid, source, deliveryNanos);
+            }
+            // tile was missing in last frame, redraw only its area (together with other tiles delivered within same frame)
+            invalidateTileArea(tilePositionInPyramid);
+        }
+
+        @Override
+        public void onTileDeliverySlotAvailable() {
+            // missing tiles are requested again in next onDraw()
+            mInvalidationBatcher.invalidateWholeView();
+        }
+    };
+
+    //TILES COMPOSITION
+    //fully loaded visible tiles of best layer composed into single bitmap, drawn with single drawBitmap() while it covers viewport
+    private Bitmap mComposition = null;
+    private int mCompositionLayer = -1;
+    private final Rect mCompositionArea = new Rect(); //in image coords
+    private double mCompositionScale; //composition px per image coord
+    private boolean mCompositionInLayerResolution; //if true, composition is good for any zoom within its layer
+    private int mPendingCompositionLayer = -1;
+    private double mPendingCompositionMaxScale;
+    private final Rect mPendingCompositionArea = new Rect();
+    private final TilesCompositionListener mTilesComposedListener = new TilesCompositionListener() {
+        @Override
+        public void onTilesComposed(Bitmap composition) {
+            mComposition = composition;
+            mCompositionLayer = mPendingCompositionLayer;
+            mCompositionArea.set(mPendingCompositionArea);
+            mCompositionScale = composition.getWidth() / (double) mCompositionArea.width();
+            mCompositionInLayerResolution = mCompositionScale < mPendingCompositionMaxScale;
+            invalidate();
+        }
+    };
+
     //FRAMING RECTANGLES
     private FramingRectangleDrawer mFramingRectDrawer;
 
+    //RENDER THREAD BACKEND
+    private FrameHost mFrameHost = null; //not null if this instance is engine of TiledImageTextureView and never draws itself
+    private long mLastFrameUiThreadNanos;
+
     //DEV VISUALISATIONS
     private boolean mShowDevVisualisations = false;
     private DevTools mDevTools = null;
@@ -157,33 +246,34 @@ public class TiledImageView extends View implements TiledImageViewApi {
 
     /**
      * Must be called at least once so that cache can be initialized. Typically in Application.onCreate()
+     * Memory caches are created right away so that image can be loaded immediately, disk caches are attached in background.
      *
      * @param context
      */
     private void initCache(final Context context) {
         LOGGER.i(buildMethodLog("initCache"));
         if (!CacheManager.isInitialized()) {
-            Resources res = context.getResources();
-            boolean diskCacheEnabled = res.getBoolean(R.bool.tiledimageview_disk_cache_enabled);
-            boolean clearDiskCacheOnStart = res.getBoolean(R.bool.tiledimageview_disk_cache_clear_in_initialization);
-            long tileDiskCacheBytes = res.getInteger(R.integer.tiledimageview_tile_disk_cache_size_kb) * 1024;
-            TaskManager.enqueueCacheManagerInitialization(context, diskCacheEnabled, clearDiskCacheOnStart, tileDiskCacheBytes, new TaskManager.TaskListener() {
+            //caches are shared, so always process-wide config (installed or from resources)
+            CacheManager.initialize(context, TiledImageViewConfig.getInstalledOrDefault(context.getResources()));
+        }
+        attachDiskCaches();
+        init(context);
+    }
+
+    private void attachDiskCaches() {
+        if (CacheManager.startDiskCachesAttachment()) {
+            TaskManager.enqueueDiskCachesAttachment(new TaskManager.TaskListener() {
                 @Override
                 public void onFinished(Object... data) {
-                    if (mAttachedToWindow) {
-                        init(context);
-                    }
+                    LOGGER.d(buildMethodLog("disk caches attached"));
                 }
 
                 @Override
                 public void onCanceled() {
-                    if (mAttachedToWindow) {
-                        initCache(context);//retrying
-                    }
+                    //retried when some view is attached again, retrying right away would most likely fail again
+                    CacheManager.cancelDiskCachesAttachment();
                 }
             });
-        } else {
-            init(context);
         }
     }
 
@@ -230,19 +320,147 @@ public class TiledImageView extends View implements TiledImageViewApi {
         mTileDownloadErrorListener = errorListener;
     }
 
+    @Override
+    public void animateTo(Rect imageRegion, long durationMs) {
+        if (mImageManager == null || !mImageManager.isInitialized() || mGestureListener == null
+                || !mViewmodeScaleFactorsInitialized || !mViewmodeShiftInitialized) {
+            LOGGER.w("ignoring animateTo(): image not initialized yet");
+            return;
+        }
+        if (imageRegion.isEmpty() || getWidth() == 0 || getHeight() == 0) {
+            LOGGER.w("ignoring animateTo(): empty region or view");
+            return;
+        }
+        double scaleFactor = computeRegionScaleFactor(imageRegion);
+        PointD centerInImage = new PointD(imageRegion.exactCenterX(), imageRegion.exactCenterY());
+        requestNavigationTiles(centerInImage, scaleFactor);
+        mGestureListener.animateTo(centerInImage, scaleFactor, durationMs);
+    }
+
+    /**
+     * @return scale factor so that region fits into view, limited by min and max scale factor
+     */
+    private double computeRegionScaleFactor(Rect imageRegion) {
+        double scaleFactor = Math.min((double) getWidth() / imageRegion.width(), (double) getHeight() / imageRegion.height());
+        return Math.max(mMinScaleFactor, Math.min(mMaxScaleFactor, scaleFactor));
+    }
+
+    /**
+     * Requests tiles visible at the end of navigation before anything else, tasks for all other tiles are canceled.
+     */
+    private void requestNavigationTiles(PointD centerInImage, double scaleFactor) {
+        int imageWidth = mImageManager.getImageWidth();
+        int imageHeight = mImageManager.getImageHeight();
+        // visible area at destination, moved inside image same way as shift is limited
+        double areaWidth = getWidth() / scaleFactor;
+        double areaHeight = getHeight() / scaleFactor;
+        double left = limitAreaStart(centerInImage.x - areaWidth / 2, areaWidth, imageWidth);
+        double top = limitAreaStart(centerInImage.y - areaHeight / 2, areaHeight, imageHeight);
+        Rect area = new Rect((int) Math.floor(left), (int) Math.floor(top),
+                (int) Math.ceil(left + areaWidth), (int) Math.ceil(top + areaHeight));
+        if (!area.intersect(0, 0, imageWidth, imageHeight)) {
+            return;
+        }
+        Rect wholeImageInCanvas = new Rect(0, 0, (int) (imageWidth * scaleFactor), (int) (imageHeight * scaleFactor));
+        int layer = mImageManager.computeBestLayerId(wholeImageInCanvas);
+        if (mLowerQuality && layer > 1) {
+            layer -= 1;
+        }
+        mImageManager.getVisibleTilesForLayer(layer, area, mNavigationTiles);
+        if (Logger.DEBUG_ENABLED) {
+            LOGGER.d(String.format("navigation destination: layer %d, %d tiles", layer, mNavigationTiles.size()));
+        }
+        mImageManager.cancelFetchingAllTilesForLayersBiggerThan(layer);
+        mImageManager.cancelFetchingAllTilesForLayersSmallerThan(layer);
+        mImageManager.cancelFetchingTilesForLayerExeptForThese(layer, mNavigationTiles);
+        requestNavigationTiles();
+    }
+
+    private void requestNavigationTiles() {
+        for (int i = 0; i < mNavigationTiles.size(); i++) {
+            TilePositionInPyramid tile = mNavigationTiles.get(i);
+            if (!mImageManager.tileIsAvailableNow(tile)) {
+                mImageManager.getTile(tile, mTileDeliveredListener, mTileDownloadErrorListener);
+            }
+        }
+    }
+
+    private static double limitAreaStart(double start, double areaSize, int imageSize) {
+        if (areaSize >= imageSize) {
+            return (imageSize - areaSize) / 2;
+        } else {
+            return Math.max(0, Math.min(imageSize - areaSize, start));
+        }
+    }
+
     @Override
     public void setLowerQuality(boolean lowerQuality) {
         mLowerQuality = lowerQuality;
     }
 
+    @Override
+    public void setConfig(TiledImageViewConfig config) {
+        mConfig = config;
+        resolveConfig();
+        invalidate();
+    }
+
+    @Override
+    public TiledImageViewConfig getConfig() {
+        return mResolvedConfig != null ? mResolvedConfig : TiledImageViewConfig.getInstalledOrDefault(getResources());
+    }
+
+    private void resolveConfig() {
+        mResolvedConfig = mConfig != null ? mConfig : TiledImageViewConfig.getInstalledOrDefault(getResources());
+        if (mImageManager != null) {
+            mImageManager.setConfig(mResolvedConfig);
+        }
+    }
+
+
+    /**
+     * Used by {@link TiledImageTextureView} that owns this instance as engine. Frames are then requested from host instead
+     * of invalidating this view and host records them by calling {@link #onDraw(Canvas)}.
+     */
+    void setFrameHost(FrameHost frameHost) {
+        mFrameHost = frameHost;
+    }
+
+    @Override
+    public void invalidate() {
+        if (mFrameHost != null) {
+            mFrameHost.requestFrame();
+        } else {
+            super.invalidate();
+        }
+    }
+
+    @Override
+    public void invalidate(Rect dirty) {
+        if (mFrameHost != null) {
+            //whole frame is recorded anyway
+            mFrameHost.requestFrame();
+        } else {
+            super.invalidate(dirty);
+        }
+    }
 
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        onAttached();
+    }
+
+    /**
+     * Body of {@link #onAttachedToWindow()} without View's bookkeeping, so that it can be called for engine of
+     * {@link TiledImageTextureView}, that is never attached to window.
+     */
+    void onAttached() {
         initHelpers();
         mAttachedToWindow = true;
         LOGGER.i(buildMethodLog("onAttachedToWindow"));
         mVisible = getVisibility() == VISIBLE;
+        resolveConfig();
         if (mImageBaseUrl != null) {
             mImageManager = constructImageManager();
         }
@@ -274,19 +492,27 @@ public class TiledImageView extends View implements TiledImageViewApi {
 
     @Override
     protected void onDetachedFromWindow() {
+        onDetached();
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Body of {@link #onDetachedFromWindow()} without View's bookkeeping, see {@link #onAttached()}.
+     */
+    void onDetached() {
         LOGGER.i(buildMethodLog("ondDetachedFromWindow"));
         mAttachedToWindow = false;
+        mInvalidationBatcher.cancel();
         if (mImageManager != null) {
             mImageManager.cancelAllTasks();
             mImageManager = null;
         }
+        clearTilesComposition();
         clearHelpers();
         //clear client listeners
         mSingleTapListener = null;
         mMetadataInitializationListener = null;
         mTileDownloadErrorListener = null;
-
-        super.onDetachedFromWindow();
     }
 
     @Override
@@ -318,16 +544,27 @@ public class TiledImageView extends View implements TiledImageViewApi {
 
     @Override
     public void loadImage(TiledImageProtocol tiledImageProtocol, String baseUrl) {
+        loadImage(tiledImageProtocol, baseUrl, null);
+    }
+
+    @Override
+    public void loadImage(TiledImageProtocol tiledImageProtocol, String baseUrl, Rect initialRegion) {
         //LOGGER.d("loading new image, base url: " + baseUrl);
         LOGGER.d(buildMethodLog("loadImage: " + baseUrl));
+        mInitialRegion = initialRegion == null ? null : new Rect(initialRegion);
         mViewmodeScaleFactorsInitialized = false;
         mViewmodeShiftInitialized = false;
         mMinZoomCanvasImagePaddingInitialized = false;
         mImageBaseUrl = baseUrl;
         mtiledImageProtocol = tiledImageProtocol;
+        resolveConfig();
         if (mGestureListener != null) {
             mGestureListener.reset();
         }
+        clearTilesComposition();
+        if (mDevTools != null) {
+            mDevTools.clearTileDeliveries();
+        }
         if (CacheManager.isInitialized()) {
             if (mImageManager != null) {
                 mImageManager.cancelAllTasks();
@@ -341,7 +578,9 @@ public class TiledImageView extends View implements TiledImageViewApi {
         // TODO: 8.12.15 use tiledImageProtocol when other implementation is available
         switch (mtiledImageProtocol) {
             case ZOOMIFY:
-                return new ZoomifyImageManager(mImageBaseUrl, mPxRatio);
+                ImageManager imageManager = new ZoomifyImageManager(mImageBaseUrl, mPxRatio, mResolvedConfig);
+                imageManager.setPerformanceStats(mPerformanceStats);
+                return imageManager;
             default:
                 throw new RuntimeException("unknown protocol " + mtiledImageProtocol.name());
         }
@@ -377,6 +616,7 @@ public class TiledImageView extends View implements TiledImageViewApi {
         if (mShowDevVisualisations) {
             mTestPoints = new DevPoints(mImageManager.getImageWidth(), mImageManager.getImageHeight());
         }
+        invalidate();
     }
 
     @Override
@@ -385,9 +625,20 @@ public class TiledImageView extends View implements TiledImageViewApi {
         invalidate();
     }
 
+    @Override
+    public FramingRectangle getFramingRectangleAt(float x, float y) {
+        if (mFramingRectDrawer == null || !mViewmodeScaleFactorsInitialized || !mViewmodeShiftInitialized) {
+            return null;
+        }
+        double scaleFactor = getTotalScaleFactor();
+        VectorD shift = getTotalShift();
+        return mFramingRectDrawer.findRectangleAt((x - shift.x) / scaleFactor, (y - shift.y) / scaleFactor);
+    }
+
     @Override
     public void onDraw(final Canvas canv) {
         //LOGGER.i("onDraw");
+        long frameStart = System.nanoTime();
         if (mDevTools != null) {
             mDevTools.setCanvas(canv);
             //distracting in production, reenable for testing only
@@ -410,15 +661,42 @@ public class TiledImageView extends View implements TiledImageViewApi {
                 initMinZoomPadding(canv);
                 mMinZoomCanvasImagePaddingInitialized = true;
             }
+            if (mInitialRegion != null) {
+                //first frame shows the region right away, so that tiles of whole image in view mode are never requested
+                if (!mInitialRegion.isEmpty() && canv.getWidth() != 0 && canv.getHeight() != 0) {
+                    mGestureListener.jumpTo(new PointD(mInitialRegion.exactCenterX(), mInitialRegion.exactCenterY()),
+                            computeRegionScaleFactor(mInitialRegion));
+                }
+                mInitialRegion = null;
+            }
+
+            //lower quality, but faster drawing while gesture is in progress
+            boolean gestureStarted = !mGestureFrame;
+            mGestureFrame = mGestureListener.isGestureInProgress();
+            mNavigationFrame = mGestureListener.isNavigationInProgress();
+            if (!mNavigationFrame && !mNavigationTiles.isEmpty()) {
+                mNavigationTiles.clear();
+            }
+            mFrameTilePaint = mGestureFrame ? mGestureTilePaint : mTilePaint;
+            if (!mGestureFrame) {
+                mGestureLayerId = -1;
+            } else if (gestureStarted) {
+                mGestureLayerId = mLastFrameLayerId;
+            }
+
+            //scale and shift are same for whole frame
+            mFrameScaleFactor = getTotalScaleFactor();
+            mFrameShiftX = mViewmodeShift.x + mGestureListener.getTotalShiftX();
+            mFrameShiftY = mViewmodeShift.y + mGestureListener.getTotalShiftY();
 
             // whole image area
-            mWholeImageAreaInCanvasCoords = computeWholeImageAreaInCanvasCoords(getTotalScaleFactor(), getTotalShift());
-            if (mDevTools != null) {
+            computeWholeImageAreaInCanvasCoords();
+            if (showDevOverlays()) {
                 mDevTools.fillRectAreaWithColor(mWholeImageAreaInCanvasCoords, mDevTools.getPaintRedTrans());
             }
             //visible image area
-            mVisibleImageAreaInCanvas = computeVisibleImageAreaInCanvas(canv);
-            if (mDevTools != null) {
+            computeVisibleImageAreaInCanvas(canv);
+            if (showDevOverlays()) {
                 mDevTools.fillRectAreaWithColor(mVisibleImageAreaInCanvas, mDevTools.getPaintGreenTrans());
             }
 
@@ -431,31 +709,56 @@ public class TiledImageView extends View implements TiledImageViewApi {
                 if (mLowerQuality && bestLayerId > 1) {
                     bestLayerId -= 1;
                 }
+                //layer from gesture start is most likely loaded, only lower layer (zooming out) is better - less tiles
+                if (mGestureFrame && mGestureLayerId != -1 && mGestureLayerId < bestLayerId) {
+                    bestLayerId = mGestureLayerId;
+                }
+            }
+            mLastFrameLayerId = bestLayerId;
+            //cancel fetchnig data for layers no longer needed to be drawn now (but not destination of navigation)
+            if (!mNavigationFrame) {
+                mImageManager.cancelFetchingAllTilesForLayersBiggerThan(bestLayerId);
             }
-            //cancel fetchnig data for layers no longer needed to be drawn now
-            mImageManager.cancelFetchingAllTilesForLayersBiggerThan(bestLayerId);
 
             //draw tiles
-            drawTiles(canv, bestLayerId, true, calculateVisibleAreaInImageCoords());
+            calculateVisibleAreaInImageCoords();
+            mFrameDrawnAreaPx = 0;
+            mFrameFallbackTiles = 0;
+            mFrameBitmapDraws = 0;
+            mFrameTilesDrawn = 0;
+            mFrameTilesMissing = 0;
+            drawTiles(canv, bestLayerId, mVisibleAreaInImageCoords);
+            long visibleAreaPx = (long) mVisibleImageAreaInCanvas.width() * mVisibleImageAreaInCanvas.height();
+            mLastFrameOverdraw = visibleAreaPx == 0 ? 0.0 : (double) mFrameDrawnAreaPx / visibleAreaPx;
+            mLastFrameFallbackTiles = mFrameFallbackTiles;
+            mLastFrameBitmapDraws = mFrameBitmapDraws;
 
             //draw framing rectangles
-            if (mFramingRectDrawer != null) {
+            if (mFramingRectDrawer != null && !mGestureFrame) {
                 mFramingRectDrawer.setCanvas(canv);
-                mFramingRectDrawer.draw(getTotalScaleFactor(), getTotalShift());
+                mFramingRectDrawer.draw(mFrameScaleFactor, mFrameShiftX, mFrameShiftY, mVisibleAreaInImageCoords);
             }
 
             //draw dev rectangles, points
-            if (mDevTools != null) {
-                double totalScaleFactor = getTotalScaleFactor();
-                VectorD totalShift = getTotalShift();
+            if (showDevOverlays()) {
                 // test points
-                mDevTools.drawImageCoordPoints(mTestPoints, totalScaleFactor, totalShift);
+                mDevTools.drawImageCoordPoints(mTestPoints, mFrameScaleFactor, new VectorD(mFrameShiftX, mFrameShiftY));
                 mDevTools.drawTileRectStack();
                 // zoom centers
                 //mDevTools.drawDoubletapZoomCenters(getTotalScaleFactor(), getTotalShift());
                 //mDevTools.drawPinchZoomCenters(getTotalScaleFactor(), getTotalShift());
             }
         }
+        mLastFrameUiThreadNanos = System.nanoTime() - frameStart;
+        if (mImageManager != null && mImageManager.isInitialized()) {
+            mPerformanceStats.recordFrame(mLastFrameUiThreadNanos, mGestureFrame, mFrameTilesDrawn, mFrameTilesMissing,
+                    mImageManager.getTileDeliveryTasksCount());
+            //drawn even during gestures, not included in frame time
+            if (mDevTools != null) {
+                mDevTools.drawHud(mLastFrameUiThreadNanos, mImageManager.getTileDeliveryTasksCount(),
+                        mFramingRectDrawer == null ? 0 : mFramingRectDrawer.getLastDrawCalls());
+            }
+        }
         // Debug.stopMethodTracing();
     }
 
@@ -542,74 +845,249 @@ public class TiledImageView extends View implements TiledImageViewApi {
     }
 
 
-    private void drawTiles(Canvas canv, int layer, boolean isIdealLayer, Rect visibleAreaInImageCoords) {
+    private void drawTiles(Canvas canv, int layer, Rect visibleAreaInImageCoords) {
         //LOGGER.i("drawTiles " + layer);
-        List<TilePositionInPyramid> visibleTilesInThisLayer = mImageManager.getVisibleTilesForLayer(layer, visibleAreaInImageCoords);
-        // cancel fetching of not-visible-now tiles within layer
-        mImageManager.cancelFetchingTilesForLayerExeptForThese(layer, visibleTilesInThisLayer);
-        if (isIdealLayer) {
-            // possibly increase memory cache
-            mImageManager.inflateTilesMemoryCache(visibleTilesInThisLayer.size() * 2);
-        }
-        // check if all visible tiles within layer are available
-        boolean allTilesAvailable = true;
-        for (TilePositionInPyramid visibleTile : visibleTilesInThisLayer) {
-            if (!mImageManager.tileIsAvailableNow(visibleTile)) {
-                allTilesAvailable = false;
-                break;
+        //all loops here are indexed, for-each would allocate iterator
+        List<TilePositionInPyramid> visibleTilesInThisLayer = mVisibleTiles;
+        mImageManager.getVisibleTilesForLayer(layer, visibleAreaInImageCoords, visibleTilesInThisLayer);
+        List<TilePositionInPyramid> prefetchTilesInThisLayer = mPrefetchTiles;
+        mImageManager.getPrefetchTilesForLayer(layer, visibleAreaInImageCoords, mResolvedConfig.getPrefetchRadiusTiles(), prefetchTilesInThisLayer);
+        // cancel fetching of not-visible-now (and not prefetched) tiles within layer
+        if (mNavigationFrame) {
+            // destination tiles of navigation are being fetched
+        } else if (prefetchTilesInThisLayer.isEmpty()) {
+            mImageManager.cancelFetchingTilesForLayerExeptForThese(layer, visibleTilesInThisLayer);
+        } else {
+            List<TilePositionInPyramid> tilesToKeep = mTilesToKeep;
+            tilesToKeep.clear();
+            for (int i = 0; i < visibleTilesInThisLayer.size(); i++) {
+                tilesToKeep.add(visibleTilesInThisLayer.get(i));
             }
+            for (int i = 0; i < prefetchTilesInThisLayer.size(); i++) {
+                tilesToKeep.add(prefetchTilesInThisLayer.get(i));
+            }
+            mImageManager.cancelFetchingTilesForLayerExeptForThese(layer, tilesToKeep);
         }
-        // if not all visible tiles available, draw lower layer with worse resolution first
-        if (!allTilesAvailable && layer != 0) {
-            drawTiles(canv, layer - 1, false, visibleAreaInImageCoords);
-        }
-        //actually draw this layer
+        // possibly increase memory cache
+        mImageManager.inflateTilesMemoryCache(visibleTilesInThisLayer.size() * 2);
         //LOGGER.i("actually drawing layer " + layer);
         boolean allTilesDrawn = true;
-        for (TilePositionInPyramid visibleTile : visibleTilesInThisLayer) {
-            Bitmap bitmap = mImageManager.getTile(visibleTile, new TileDownloadSuccessListener() {
-                @Override
-                public void onTileDelivered() {
-                    // tile not available yet, but when it's fetched it should be drawn probably
-                    invalidate();
+        if (compositionCoversVisibleArea(layer)) {
+            drawTilesComposition(canv);
+            mFrameTilesDrawn = visibleTilesInThisLayer.size();
+        } else {
+            for (int i = 0; i < visibleTilesInThisLayer.size(); i++) {
+                TilePositionInPyramid visibleTile = visibleTilesInThisLayer.get(i);
+                Bitmap bitmap = mNavigationFrame
+                        ? mImageManager.getTileFromMemoryCache(visibleTile)
+                        : mImageManager.getTile(visibleTile, mTileDeliveredListener, mTileDownloadErrorListener);
+                if (bitmap != null) {
+                    drawTile(canv, visibleTile, bitmap);
+                    mFrameTilesDrawn++;
+                } else {
+                    allTilesDrawn = false;
+                    mFrameTilesMissing++;
+                    // meanwhile draw only this tile's area with worse resolution
+                    drawTileFromAncestor(canv, visibleTile);
                 }
-            }, mTileDownloadErrorListener);
-            if (bitmap != null) {
-                drawTile(canv, visibleTile, bitmap);
-            } else {
-                allTilesDrawn = false;
+            }
+            if (allTilesDrawn && !mGestureFrame && visibleTilesInThisLayer.size() >= MIN_TILES_TO_COMPOSE) {
+                // next frames will draw single bitmap instead, as long as viewport stays within these tiles
+                requestTilesComposition(canv, layer, visibleTilesInThisLayer);
             }
         }
-        if (allTilesDrawn) {
+        if (allTilesDrawn && !mNavigationFrame) {
             if (layer != 0) {
                 mImageManager.cancelFetchingAllTilesForLayersSmallerThan(layer);
             }
-        } else { //make sure it will be redrawn
-            invalidate();
         }
-
+        //missing tiles are redrawn when delivered (see mTileDeliveredListener), no need to keep redrawing until then
+        if (mNavigationFrame) {
+            // destination tiles that didn't fit into queue at start of navigation get free task slots
+            requestNavigationTiles();
+            return;
+        }
+        // prefetch after visible tiles so that these get free task slots first, no redraw needed when delivered
+        for (int i = 0; i < prefetchTilesInThisLayer.size(); i++) {
+            TilePositionInPyramid prefetchTile = prefetchTilesInThisLayer.get(i);
+            if (!mImageManager.tileIsAvailableNow(prefetchTile)) {
+                mImageManager.getTile(prefetchTile, null, null);
+            }
+        }
     }
 
     private void drawTile(Canvas canv, TilePositionInPyramid tileId, Bitmap tileBmp) {
-        Rect tileInCanvas = toTileAreaInCanvas(tileId, tileBmp);
+        Rect tileInCanvas = mTileAreaScratch;
+        mImageManager.getTileAreaInImageCoords(tileId, tileInCanvas);
+        Utils.toCanvasCoords(tileInCanvas, mFrameScaleFactor, mFrameShiftX, mFrameShiftY, tileInCanvas);
         // Log.d(TestTags.TEST, "drawing tile: " + tileId + " to: " + tileInCanvas.toShortString());
-        canv.drawBitmap(tileBmp, null, tileInCanvas, null);
-        if (mDevTools != null) {
+        canv.drawBitmap(tileBmp, null, tileInCanvas, mFrameTilePaint);
+        mFrameBitmapDraws++;
+        mFrameDrawnAreaPx += visibleAreaOf(tileInCanvas);
+        if (showDevOverlays()) {
             // mDevTools.highlightTile(tileInCanvas, mDevTools.getPaintBlack());
             // mDevTools.highlightTile(tileInCanvas, mDevTools.getPaintWhiteTrans());
+            mDevTools.tintTileBySource(tileInCanvas, tileId);
             mDevTools.highlightTile(tileInCanvas, mDevTools.getPaintRed());
         }
     }
 
-    private Rect calculateVisibleAreaInImageCoords() {
-        double resizeFactor = getTotalScaleFactor();
-        VectorD totalShift = getTotalShift();
-        return Utils.toImageCoords(mVisibleImageAreaInCanvas, resizeFactor, totalShift);
+    /**
+     * Finds deepest ancestor of missing tile in memory cache and draws the part of it, that covers the missing tile. If there is no
+     * such ancestor, whole-image tile (layer 0) is requested.
+     */
+    private void drawTileFromAncestor(Canvas canv, TilePositionInPyramid tileId) {
+        for (int ancestorLayer = tileId.getLayer() - 1; ancestorLayer >= 0; ancestorLayer--) {
+            TilePositionInPyramid ancestor = mImageManager.getAncestorTile(tileId, ancestorLayer);
+            Bitmap ancestorBmp = mImageManager.getTileFromMemoryCache(ancestor);
+            if (ancestorBmp != null) {
+                drawTilePartFromAncestor(canv, tileId, ancestor, ancestorBmp);
+                mPerformanceStats.recordFallback(tileId.getLayer() - ancestorLayer);
+                return;
+            }
+        }
+        if (tileId.getLayer() != 0 && !mNavigationFrame) {
+            mImageManager.getTile(mImageManager.getAncestorTile(tileId, 0), mTileDeliveredListener, mTileDownloadErrorListener);
+        }
+    }
+
+    private void drawTilePartFromAncestor(Canvas canv, TilePositionInPyramid tileId, TilePositionInPyramid ancestor, Bitmap ancestorBmp) {
+        Rect tileArea = mTileAreaScratch;
+        Rect ancestorArea = mAncestorAreaScratch;
+        mImageManager.getTileAreaInImageCoords(tileId, tileArea);
+        mImageManager.getTileAreaInImageCoords(ancestor, ancestorArea);
+        //tile's area within ancestor's bitmap
+        double bmpScaleX = ancestorBmp.getWidth() / (double) ancestorArea.width();
+        double bmpScaleY = ancestorBmp.getHeight() / (double) ancestorArea.height();
+        Rect source = mAncestorSourceScratch;
+        source.set((int) Math.floor((tileArea.left - ancestorArea.left) * bmpScaleX),
+                (int) Math.floor((tileArea.top - ancestorArea.top) * bmpScaleY),
+                Math.min(ancestorBmp.getWidth(), (int) Math.ceil((tileArea.right - ancestorArea.left) * bmpScaleX)),
+                Math.min(ancestorBmp.getHeight(), (int) Math.ceil((tileArea.bottom - ancestorArea.top) * bmpScaleY)));
+        Rect tileInCanvas = tileArea;
+        Utils.toCanvasCoords(tileArea, mFrameScaleFactor, mFrameShiftX, mFrameShiftY, tileInCanvas);
+        canv.drawBitmap(ancestorBmp, source, tileInCanvas, mFrameTilePaint);
+        mFrameBitmapDraws++;
+        mFrameDrawnAreaPx += visibleAreaOf(tileInCanvas);
+        mFrameFallbackTiles++;
+        if (showDevOverlays()) {
+            mDevTools.highlightTile(tileInCanvas, mDevTools.getPaintBlue());
+        }
+    }
+
+    /**
+     * Composition can be used if it is from same layer, covers visible area and has at least resolution of canvas (unless
+     * it has full resolution of the layer).
+     */
+    private boolean compositionCoversVisibleArea(int layer) {
+        return mComposition != null
+                && mCompositionLayer == layer
+                && (mCompositionInLayerResolution || mCompositionScale >= mFrameScaleFactor)
+                && mCompositionArea.contains(mVisibleAreaInImageCoords);
+    }
+
+    private void drawTilesComposition(Canvas canv) {
+        Rect compositionInCanvas = mTileAreaScratch;
+        Utils.toCanvasCoords(mCompositionArea, mFrameScaleFactor, mFrameShiftX, mFrameShiftY, compositionInCanvas);
+        canv.drawBitmap(mComposition, null, compositionInCanvas, mFrameTilePaint);
+        mFrameBitmapDraws++;
+        mFrameDrawnAreaPx += visibleAreaOf(compositionInCanvas);
+        if (showDevOverlays()) {
+            mDevTools.highlightTile(compositionInCanvas, mDevTools.getPaintYellow());
+        }
+    }
+
+    private void requestTilesComposition(Canvas canv, int layer, List<TilePositionInPyramid> tiles) {
+        int maxPixels = MAX_COMPOSITION_CANVAS_AREAS * canv.getWidth() * canv.getHeight();
+        //ignored if composition is already running
+        if (mImageManager.enqueueTilesComposition(layer, tiles, mFrameScaleFactor, maxPixels, mPendingCompositionArea, mTilesComposedListener)) {
+            mPendingCompositionLayer = layer;
+            mPendingCompositionMaxScale = mFrameScaleFactor;
+        }
+    }
+
+    private void clearTilesComposition() {
+        mComposition = null;
+        mCompositionLayer = -1;
+    }
+
+    private boolean showDevOverlays() {
+        return mDevTools != null && !mGestureFrame;
+    }
+
+    private long visibleAreaOf(Rect rectInCanvas) {
+        int width = Math.min(rectInCanvas.right, mVisibleImageAreaInCanvas.right) - Math.max(rectInCanvas.left, mVisibleImageAreaInCanvas.left);
+        int height = Math.min(rectInCanvas.bottom, mVisibleImageAreaInCanvas.bottom) - Math.max(rectInCanvas.top, mVisibleImageAreaInCanvas.top);
+        return width > 0 && height > 0 ? (long) width * height : 0;
+    }
+
+    /**
+     * @return sum of tile areas drawn in last frame (within visible image area) divided by visible image area. 1.0 means no overdraw.
+     */
+    double getLastFrameOverdraw() {
+        return mLastFrameOverdraw;
+    }
+
+    /**
+     * @return number of missing tiles drawn from their ancestors in last frame
+     */
+    int getLastFrameFallbackTiles() {
+        return mLastFrameFallbackTiles;
     }
 
-    private Rect toTileAreaInCanvas(TilePositionInPyramid tilePositionInPyramid, Bitmap tile) {
-        Rect tileAreaInImageCoords = mImageManager.getTileAreaInImageCoords(tilePositionInPyramid);
-        return Utils.toCanvasCoords(tileAreaInImageCoords, getTotalScaleFactor(), getTotalShift());
+    /**
+     * @return number of drawBitmap() calls (tiles, ancestor parts or tiles composition) in last frame
+     */
+    int getLastFrameBitmapDraws() {
+        return mLastFrameBitmapDraws;
+    }
+
+    /**
+     * @return time spent in last {@link #onDraw(Canvas)} on UI thread. With hardware acceleration this is only recording of
+     * drawing operations, these are executed later by system's render thread. With {@link TiledImageTextureView} this is
+     * recording of frame, rendering is measured separately.
+     */
+    public long getLastFrameUiThreadNanos() {
+        return mLastFrameUiThreadNanos;
+    }
+
+    /**
+     * Metrics are collected since view creation (or {@link #resetPerformanceStats()}), across all images loaded. Frame times
+     * are collected separately for frames drawn while gesture was in progress and for full quality frames.
+     *
+     * @return snapshot of frame and tile delivery metrics, it doesn't change afterwards
+     */
+    public PerformanceStats getPerformanceStats() {
+        return mPerformanceStats.snapshot();
+    }
+
+    public void resetPerformanceStats() {
+        mPerformanceStats.reset();
+    }
+
+    /**
+     * @return true if last frame was drawn in fast mode, because gesture was in progress
+     */
+    boolean isLastFrameGestureFrame() {
+        return mGestureFrame;
+    }
+
+    private void invalidateTileArea(TilePositionInPyramid tilePositionInPyramid) {
+        if (mImageManager == null || !mImageManager.isInitialized() || tilePositionInPyramid == null) {
+            mInvalidationBatcher.invalidateWholeView();
+        } else {
+            //shift and scale of last frame, if they changed since, whole view is being redrawn anyway
+            Rect area = mDeliveredTileArea;
+            mImageManager.getTileAreaInImageCoords(tilePositionInPyramid, area);
+            Utils.toCanvasCoords(area, mFrameScaleFactor, mFrameShiftX, mFrameShiftY, area);
+            //rounding in coords conversion
+            area.inset(-1, -1);
+            mInvalidationBatcher.invalidate(area);
+        }
+    }
+
+    private void calculateVisibleAreaInImageCoords() {
+        Utils.toImageCoords(mVisibleImageAreaInCanvas, mFrameScaleFactor, mFrameShiftX, mFrameShiftY, mVisibleAreaInImageCoords);
     }
 
     private double computeScaleFactorFitToScreen(double canvasWidth, double canvasHeight, double imgOriginalWidth,
@@ -717,17 +1195,18 @@ public class TiledImageView extends View implements TiledImageViewApi {
         // + mCanvasImagePaddingVertical);
     }
 
-    private Rect computeWholeImageAreaInCanvasCoords(double scaleFactor, VectorD shift) {
-        Rect imgArea = new Rect(0, 0, mImageManager.getImageWidth(), mImageManager.getImageHeight());
-        return Utils.toCanvasCoords(imgArea, scaleFactor, shift);
+    private void computeWholeImageAreaInCanvasCoords() {
+        Rect imgArea = mWholeImageAreaInCanvasCoords;
+        imgArea.set(0, 0, mImageManager.getImageWidth(), mImageManager.getImageHeight());
+        Utils.toCanvasCoords(imgArea, mFrameScaleFactor, mFrameShiftX, mFrameShiftY, imgArea);
     }
 
-    private Rect computeVisibleImageAreaInCanvas(Canvas canv) {
+    private void computeVisibleImageAreaInCanvas(Canvas canv) {
         int left = mapNumberToInterval(mWholeImageAreaInCanvasCoords.left, 0, canv.getWidth());
         int right = mapNumberToInterval(mWholeImageAreaInCanvasCoords.right, 0, canv.getWidth());
         int top = mapNumberToInterval(mWholeImageAreaInCanvasCoords.top, 0, canv.getHeight());
         int bottom = mapNumberToInterval(mWholeImageAreaInCanvasCoords.bottom, 0, canv.getHeight());
-        return new Rect(left, top, right, bottom);
+        mVisibleImageAreaInCanvas.set(left, top, right, bottom);
     }
 
     private int mapNumberToInterval(int number, int min, int max) {
@@ -757,7 +1236,8 @@ public class TiledImageView extends View implements TiledImageViewApi {
 
     @Override
     public Rect getVisibleImageAreaInCanvas() {
-        return mVisibleImageAreaInCanvas;
+        //copy, instance is reused by every frame
+        return new Rect(mVisibleImageAreaInCanvas);
     }
 
     @Override
@@ -904,7 +1384,31 @@ public class TiledImageView extends View implements TiledImageViewApi {
     }
 
     public static interface TileDownloadSuccessListener {
-        public void onTileDelivered();
+        /**
+         * @param tilePositionInPyramid tile that is now in memory cache
+         * @param source                where tile was found (disk cache or network)
+         * @param deliveryNanos         time from request of tile to its availability in memory cache
+         */
+        public void onTileDelivered(TilePositionInPyramid tilePositionInPyramid, PerformanceStats.TileSource source, long deliveryNanos);
+
+        /**
+         * Some tile requests were ignored because all task slots were taken. Now one of the slots is free again.
+         */
+        public void onTileDeliverySlotAvailable();
+    }
+
+    /**
+     * Receives frame requests of engine of {@link TiledImageTextureView}.
+     */
+    interface FrameHost {
+        void requestFrame();
+    }
+
+    public interface TilesCompositionListener {
+        /**
+         * @param composition tiles drawn into single bitmap
+         */
+        public void onTilesComposed(Bitmap composition);
     }
 
     public interface MetadataInitializationSuccessListener {
@@ -28,9 +28,28 @@ public interface TiledImageViewApi {
 
     public VectorD getTotalShift();
 
+    /**
+     * Moves and zooms view in animation so that given image region is visible and centered. Tiles of destination are
+     * requested right away, tiles of intermediate frames are not requested at all (only tiles already in memory cache are
+     * drawn during animation). Any gesture stops the animation. Ignored until image metadata are initialized and view is laid out.
+     *
+     * @param imageRegion region in image coordinates, scale is limited by min and max scale factor
+     * @param durationMs  duration of animation, 0 to move in next frame
+     */
+    public void animateTo(Rect imageRegion, long durationMs);
+
     //LOADING IMAGE
     public void loadImage(TiledImageProtocol tiledImageProtocol, String baseUrl);
 
+    /**
+     * Loads image and shows given region of it right from the first frame, instead of whole image in view mode first.
+     * Only tiles covering the region (in layer for its scale) are requested, in the first frame after metadata are available.
+     * Tile urls depend on metadata, so tiles can't be requested sooner.
+     *
+     * @param initialRegion region in image coordinates, null to start in view mode. Scale is limited by min and max scale factor.
+     */
+    public void loadImage(TiledImageProtocol tiledImageProtocol, String baseUrl, Rect initialRegion);
+
     //LISTENERS
 
     public void setMetadataInitializationListener(MetadataInitializationListener listener);
@@ -41,6 +60,19 @@ public interface TiledImageViewApi {
 
     public void setLowerQuality(boolean lowQuality);
 
+    /**
+     * Overrides process-wide config (see {@link TiledImageViewConfig#install(TiledImageViewConfig)}) for this view. Only
+     * per-view values (task limit, timeouts, prefetch radius) are used, caches are shared by all views.
+     *
+     * @param config null to use process-wide config
+     */
+    public void setConfig(TiledImageViewConfig config);
+
+    /**
+     * @return config used by this view
+     */
+    public TiledImageViewConfig getConfig();
+
 
     //GESTURES
 
@@ -53,6 +85,16 @@ public interface TiledImageViewApi {
 
     public void setFramingRectangles(List<FramingRectangle> framingRectangles);
 
+    /**
+     * Hit-testing of framing rectangles, e.g. for coordinates from {@link TiledImageView.SingleTapListener}.
+     *
+     * @param x x coordinate within view
+     * @param y y coordinate within view
+     * @return framing rectangle containing the point that is last in list (rectangles are drawn in list order, so it is
+     * the one on top), or null
+     */
+    public FramingRectangle getFramingRectangleAt(float x, float y);
+
 
     //VIEW MODE
 
@@ -0,0 +1,362 @@
+package cz.mzk.tiledimageview;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+
+import cz.mzk.tiledimageview.images.Downloader;
+import cz.mzk.tiledimageview.images.cache.AbstractCache;
+import cz.mzk.tiledimageview.images.cache.MetadataCache;
+import cz.mzk.tiledimageview.images.cache.TileCache;
+import cz.mzk.tiledimageview.images.cache.TileEncodingPolicy;
+import cz.mzk.tiledimageview.images.tasks.TaskManager;
+
+/**
+ * Tunable parameters of caches, task scheduling and networking. Immutable, create with {@link Builder}.
+ * <p/>
+ * Config can be installed for whole process with {@link #install(TiledImageViewConfig)} (before first TiledImageView is attached
+ * to window, otherwise it's built from resources) and/or set for single view (or group of views) with
+ * {@link TiledImageView#setConfig(TiledImageViewConfig)}.
+ * <p/>
+ * Cache values (memory and disk budgets, disk cache settings, decode config) are process-wide and are taken from process config
+ * when caches are initialized. Later changes of them apply only where safe: tile disk cache encoding, memory caches can be
+ * only inflated. Per-view values (task limit, timeouts, prefetch radius) are read whenever used (timeouts when task is
+ * enqueued, running tasks keep theirs), so they can be changed at any time.
+ */
+public class TiledImageViewConfig {
+
+    private static volatile TiledImageViewConfig installed;
+    private static volatile TiledImageViewConfig fromResources;
+
+    //per view
+    private final int mMaxTileTasks;
+    private final int mPrefetchRadiusTiles;
+    private final int mTileConnectTimeoutMs;
+    private final int mTileReadTimeoutMs;
+    private final int mMetadataConnectTimeoutMs;
+    private final int mMetadataReadTimeoutMs;
+
+    //process wide (caches)
+    private final int mTileMemoryCacheSizeItems;
+    private final int mMetadataMemoryCacheSizeItems;
+    private final boolean mDiskCacheEnabled;
+    private final boolean mClearDiskCacheOnStart;
+    private final long mTileDiskCacheSizeBytes;
+    private final int mTileDiskCacheShards;
+    private final long mMetadataDiskCacheSizeBytes;
+    private final int mDiskWriteQueueSizeItems;
+    private final TileEncodingPolicy mTileEncodingPolicy;
+    private final Bitmap.Config mTileDecodeConfig;
+
+    private TiledImageViewConfig(Builder builder) {
+        mMaxTileTasks = builder.mMaxTileTasks;
+        mPrefetchRadiusTiles = builder.mPrefetchRadiusTiles;
+        mTileConnectTimeoutMs = builder.mTileConnectTimeoutMs;
+        mTileReadTimeoutMs = builder.mTileReadTimeoutMs;
+        mMetadataConnectTimeoutMs = builder.mMetadataConnectTimeoutMs;
+        mMetadataReadTimeoutMs = builder.mMetadataReadTimeoutMs;
+        mTileMemoryCacheSizeItems = builder.mTileMemoryCacheSizeItems;
+        mMetadataMemoryCacheSizeItems = builder.mMetadataMemoryCacheSizeItems;
+        mDiskCacheEnabled = builder.mDiskCacheEnabled;
+        mClearDiskCacheOnStart = builder.mClearDiskCacheOnStart;
+        mTileDiskCacheSizeBytes = builder.mTileDiskCacheSizeBytes;
+        mTileDiskCacheShards = builder.mTileDiskCacheShards;
+        mMetadataDiskCacheSizeBytes = builder.mMetadataDiskCacheSizeBytes;
+        mDiskWriteQueueSizeItems = builder.mDiskWriteQueueSizeItems;
+        mTileEncodingPolicy = builder.mTileEncodingPolicy;
+        mTileDecodeConfig = builder.mTileDecodeConfig;
+    }
+
+    /**
+     * Installs process-wide config. Values for caches are used only if caches haven't been initialized yet, other values apply
+     * to all views without their own config right away.
+     */
+    public static void install(TiledImageViewConfig config) {
+        if (config == null) {
+            throw new NullPointerException("config");
+        }
+        installed = config;
+    }
+
+    /**
+     * @return installed process-wide config or null
+     */
+    public static TiledImageViewConfig getInstalled() {
+        return installed;
+    }
+
+    /**
+     * @return installed process-wide config, or config built from library resources if none is installed. Nothing gets
+     * installed here, so config installed later is still used by views resolving their config afterwards.
+     */
+    public static TiledImageViewConfig getInstalledOrDefault(Resources res) {
+        TiledImageViewConfig result = installed;
+        if (result == null) {
+            result = fromResources;
+            if (result == null) {
+                result = new Builder(res).build();
+                fromResources = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return new builder initialized with values of this config
+     */
+    public Builder buildUpon() {
+        return new Builder(this);
+    }
+
+    public int getMaxTileTasks() {
+        return mMaxTileTasks;
+    }
+
+    public int getPrefetchRadiusTiles() {
+        return mPrefetchRadiusTiles;
+    }
+
+    public int getTileConnectTimeoutMs() {
+        return mTileConnectTimeoutMs;
+    }
+
+    public int getTileReadTimeoutMs() {
+        return mTileReadTimeoutMs;
+    }
+
+    public int getMetadataConnectTimeoutMs() {
+        return mMetadataConnectTimeoutMs;
+    }
+
+    public int getMetadataReadTimeoutMs() {
+        return mMetadataReadTimeoutMs;
+    }
+
+    /**
+     * @return 0 if computed from screen size
+     */
+    public int getTileMemoryCacheSizeItems() {
+        return mTileMemoryCacheSizeItems;
+    }
+
+    public int getMetadataMemoryCacheSizeItems() {
+        return mMetadataMemoryCacheSizeItems;
+    }
+
+    public boolean isDiskCacheEnabled() {
+        return mDiskCacheEnabled;
+    }
+
+    public boolean isClearDiskCacheOnStart() {
+        return mClearDiskCacheOnStart;
+    }
+
+    public long getTileDiskCacheSizeBytes() {
+        return mTileDiskCacheSizeBytes;
+    }
+
+    public int getTileDiskCacheShards() {
+        return mTileDiskCacheShards;
+    }
+
+    public long getMetadataDiskCacheSizeBytes() {
+        return mMetadataDiskCacheSizeBytes;
+    }
+
+    public int getDiskWriteQueueSizeItems() {
+        return mDiskWriteQueueSizeItems;
+    }
+
+    public TileEncodingPolicy getTileEncodingPolicy() {
+        return mTileEncodingPolicy;
+    }
+
+    /**
+     * @return null for decoder's default
+     */
+    public Bitmap.Config getTileDecodeConfig() {
+        return mTileDecodeConfig;
+    }
+
+
+    public static class Builder {
+
+        private int mMaxTileTasks = TaskManager.MAX_TASKS_IN_POOL;
+        private int mPrefetchRadiusTiles = 0;
+        private int mTileConnectTimeoutMs = Downloader.TILES_CONNECTION_TIMEOUT;
+        private int mTileReadTimeoutMs = Downloader.TILES_READ_TIMEOUT;
+        private int mMetadataConnectTimeoutMs = Downloader.METADATA_CONNECTION_TIMEOUT;
+        private int mMetadataReadTimeoutMs = Downloader.METADATA_READ_TIMEOUT;
+        private int mTileMemoryCacheSizeItems = 0;
+        private int mMetadataMemoryCacheSizeItems = MetadataCache.MEMORY_CACHE_SIZE_ITEMS;
+        private boolean mDiskCacheEnabled = true;
+        private boolean mClearDiskCacheOnStart = false;
+        private long mTileDiskCacheSizeBytes = TileCache.DISK_CACHE_SIZE_BYTES;
+        private int mTileDiskCacheShards = TileCache.DISK_CACHE_SHARDS;
+        private long mMetadataDiskCacheSizeBytes = MetadataCache.DISK_CACHE_SIZE_BYTES;
+        private int mDiskWriteQueueSizeItems = AbstractCache.DISK_WRITE_QUEUE_SIZE_ITEMS;
+        private TileEncodingPolicy mTileEncodingPolicy = TileEncodingPolicy.ORIGINAL;
+        private Bitmap.Config mTileDecodeConfig = null;
+
+        /**
+         * Library defaults.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Library defaults overridden by cache values from resources (see cache.xml).
+         */
+        public Builder(Resources res) {
+            mDiskCacheEnabled = res.getBoolean(R.bool.tiledimageview_disk_cache_enabled);
+            mClearDiskCacheOnStart = res.getBoolean(R.bool.tiledimageview_disk_cache_clear_in_initialization);
+            mTileDiskCacheSizeBytes = res.getInteger(R.integer.tiledimageview_tile_disk_cache_size_kb) * 1024L;
+            mTileDiskCacheShards = res.getInteger(R.integer.tiledimageview_tile_disk_cache_shards);
+            mTileEncodingPolicy = TileEncodingPolicy.fromConfig(
+                    res.getString(R.string.tiledimageview_tile_disk_cache_encoding),
+                    res.getInteger(R.integer.tiledimageview_tile_disk_cache_encoding_quality));
+        }
+
+        private Builder(TiledImageViewConfig config) {
+            mMaxTileTasks = config.mMaxTileTasks;
+            mPrefetchRadiusTiles = config.mPrefetchRadiusTiles;
+            mTileConnectTimeoutMs = config.mTileConnectTimeoutMs;
+            mTileReadTimeoutMs = config.mTileReadTimeoutMs;
+            mMetadataConnectTimeoutMs = config.mMetadataConnectTimeoutMs;
+            mMetadataReadTimeoutMs = config.mMetadataReadTimeoutMs;
+            mTileMemoryCacheSizeItems = config.mTileMemoryCacheSizeItems;
+            mMetadataMemoryCacheSizeItems = config.mMetadataMemoryCacheSizeItems;
+            mDiskCacheEnabled = config.mDiskCacheEnabled;
+            mClearDiskCacheOnStart = config.mClearDiskCacheOnStart;
+            mTileDiskCacheSizeBytes = config.mTileDiskCacheSizeBytes;
+            mTileDiskCacheShards = config.mTileDiskCacheShards;
+            mMetadataDiskCacheSizeBytes = config.mMetadataDiskCacheSizeBytes;
+            mDiskWriteQueueSizeItems = config.mDiskWriteQueueSizeItems;
+            mTileEncodingPolicy = config.mTileEncodingPolicy;
+            mTileDecodeConfig = config.mTileDecodeConfig;
+        }
+
+        /**
+         * Maximal number of tiles being fetched at once for single view. Other tile requests are ignored until some task finishes.
+         */
+        public Builder setMaxTileTasks(int maxTileTasks) {
+            checkPositive(maxTileTasks, "maxTileTasks");
+            mMaxTileTasks = maxTileTasks;
+            return this;
+        }
+
+        /**
+         * Number of tiles around visible area (in best layer) that are fetched in advance. 0 disables prefetching.
+         */
+        public Builder setPrefetchRadiusTiles(int prefetchRadiusTiles) {
+            if (prefetchRadiusTiles < 0) {
+                throw new IllegalArgumentException("prefetchRadiusTiles < 0");
+            }
+            mPrefetchRadiusTiles = prefetchRadiusTiles;
+            return this;
+        }
+
+        public Builder setTileTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+            checkPositive(connectTimeoutMs, "connectTimeoutMs");
+            checkPositive(readTimeoutMs, "readTimeoutMs");
+            mTileConnectTimeoutMs = connectTimeoutMs;
+            mTileReadTimeoutMs = readTimeoutMs;
+            return this;
+        }
+
+        public Builder setMetadataTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+            checkPositive(connectTimeoutMs, "connectTimeoutMs");
+            checkPositive(readTimeoutMs, "readTimeoutMs");
+            mMetadataConnectTimeoutMs = connectTimeoutMs;
+            mMetadataReadTimeoutMs = readTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Initial size of tile memory cache. It is still inflated when more tiles are visible at once.
+         *
+         * @param tileMemoryCacheSizeItems 0 to compute from screen size
+         */
+        public Builder setTileMemoryCacheSizeItems(int tileMemoryCacheSizeItems) {
+            if (tileMemoryCacheSizeItems < 0) {
+                throw new IllegalArgumentException("tileMemoryCacheSizeItems < 0");
+            }
+            mTileMemoryCacheSizeItems = tileMemoryCacheSizeItems;
+            return this;
+        }
+
+        public Builder setMetadataMemoryCacheSizeItems(int metadataMemoryCacheSizeItems) {
+            checkPositive(metadataMemoryCacheSizeItems, "metadataMemoryCacheSizeItems");
+            mMetadataMemoryCacheSizeItems = metadataMemoryCacheSizeItems;
+            return this;
+        }
+
+        public Builder setDiskCacheEnabled(boolean diskCacheEnabled) {
+            mDiskCacheEnabled = diskCacheEnabled;
+            return this;
+        }
+
+        public Builder setClearDiskCacheOnStart(boolean clearDiskCacheOnStart) {
+            mClearDiskCacheOnStart = clearDiskCacheOnStart;
+            return this;
+        }
+
+        public Builder setTileDiskCacheSizeBytes(long tileDiskCacheSizeBytes) {
+            checkPositive(tileDiskCacheSizeBytes, "tileDiskCacheSizeBytes");
+            mTileDiskCacheSizeBytes = tileDiskCacheSizeBytes;
+            return this;
+        }
+
+        /**
+         * Number of independent disk caches the tile disk cache is split into, so that delivery threads don't wait for single
+         * cache's lock. Size is split evenly between them. Entries are moved when the number changes.
+         */
+        public Builder setTileDiskCacheShards(int tileDiskCacheShards) {
+            checkPositive(tileDiskCacheShards, "tileDiskCacheShards");
+            mTileDiskCacheShards = tileDiskCacheShards;
+            return this;
+        }
+
+        public Builder setMetadataDiskCacheSizeBytes(long metadataDiskCacheSizeBytes) {
+            checkPositive(metadataDiskCacheSizeBytes, "metadataDiskCacheSizeBytes");
+            mMetadataDiskCacheSizeBytes = metadataDiskCacheSizeBytes;
+            return this;
+        }
+
+        /**
+         * Items waiting to be written into disk cache (per cache). When full, further items are not stored into disk cache.
+         */
+        public Builder setDiskWriteQueueSizeItems(int diskWriteQueueSizeItems) {
+            checkPositive(diskWriteQueueSizeItems, "diskWriteQueueSizeItems");
+            mDiskWriteQueueSizeItems = diskWriteQueueSizeItems;
+            return this;
+        }
+
+        public Builder setTileEncodingPolicy(TileEncodingPolicy tileEncodingPolicy) {
+            if (tileEncodingPolicy == null) {
+                throw new NullPointerException("tileEncodingPolicy");
+            }
+            mTileEncodingPolicy = tileEncodingPolicy;
+            return this;
+        }
+
+        /**
+         * E.g. RGB_565 halves memory needed for tiles without alpha channel.
+         *
+         * @param tileDecodeConfig null for decoder's default
+         */
+        public Builder setTileDecodeConfig(Bitmap.Config tileDecodeConfig) {
+            mTileDecodeConfig = tileDecodeConfig;
+            return this;
+        }
+
+        public TiledImageViewConfig build() {
+            return new TiledImageViewConfig(this);
+        }
+
+        private static void checkPositive(long value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " <= 0");
+            }
+        }
+    }
+}
@@ -80,19 +80,41 @@ public class Utils {
     //rectangle
 
     public static Rect toImageCoords(Rect rectInCanvasCoords, double imageToCanvasScaleFactor, VectorD imageShiftInCanvas) {
-        double left = (rectInCanvasCoords.left - imageShiftInCanvas.x) / imageToCanvasScaleFactor;
-        double top = (rectInCanvasCoords.top - imageShiftInCanvas.y) / imageToCanvasScaleFactor;
-        double right = (rectInCanvasCoords.right - imageShiftInCanvas.x) / imageToCanvasScaleFactor;
-        double bottom = (rectInCanvasCoords.bottom - imageShiftInCanvas.y) / imageToCanvasScaleFactor;
-        return new Rect((int) left, (int) top, (int) right, (int) bottom);
+        Rect result = new Rect();
+        toImageCoords(rectInCanvasCoords, imageToCanvasScaleFactor, imageShiftInCanvas.x, imageShiftInCanvas.y, result);
+        return result;
+    }
+
+    /**
+     * Same as {@link #toImageCoords(Rect, double, VectorD)}, but writes into given rectangle instead of allocating new one.
+     * Rectangles can be same instance.
+     */
+    public static void toImageCoords(Rect rectInCanvasCoords, double imageToCanvasScaleFactor, double imageShiftInCanvasX,
+                                     double imageShiftInCanvasY, Rect result) {
+        double left = (rectInCanvasCoords.left - imageShiftInCanvasX) / imageToCanvasScaleFactor;
+        double top = (rectInCanvasCoords.top - imageShiftInCanvasY) / imageToCanvasScaleFactor;
+        double right = (rectInCanvasCoords.right - imageShiftInCanvasX) / imageToCanvasScaleFactor;
+        double bottom = (rectInCanvasCoords.bottom - imageShiftInCanvasY) / imageToCanvasScaleFactor;
+        result.set((int) left, (int) top, (int) right, (int) bottom);
     }
 
     public static Rect toCanvasCoords(Rect rectInImageCoords, double imageToCanvasScaleFactor, VectorD imageShiftInCanvas) {
-        double left = rectInImageCoords.left * imageToCanvasScaleFactor + imageShiftInCanvas.x;
-        double top = rectInImageCoords.top * imageToCanvasScaleFactor + imageShiftInCanvas.y;
-        double right = rectInImageCoords.right * imageToCanvasScaleFactor + imageShiftInCanvas.x;
-        double bottom = rectInImageCoords.bottom * imageToCanvasScaleFactor + imageShiftInCanvas.y;
-        return new Rect((int) left, (int) top, (int) right, (int) bottom);
+        Rect result = new Rect();
+        toCanvasCoords(rectInImageCoords, imageToCanvasScaleFactor, imageShiftInCanvas.x, imageShiftInCanvas.y, result);
+        return result;
+    }
+
+    /**
+     * Same as {@link #toCanvasCoords(Rect, double, VectorD)}, but writes into given rectangle instead of allocating new one.
+     * Rectangles can be same instance.
+     */
+    public static void toCanvasCoords(Rect rectInImageCoords, double imageToCanvasScaleFactor, double imageShiftInCanvasX,
+                                      double imageShiftInCanvasY, Rect result) {
+        double left = rectInImageCoords.left * imageToCanvasScaleFactor + imageShiftInCanvasX;
+        double top = rectInImageCoords.top * imageToCanvasScaleFactor + imageShiftInCanvasY;
+        double right = rectInImageCoords.right * imageToCanvasScaleFactor + imageShiftInCanvasX;
+        double bottom = rectInImageCoords.bottom * imageToCanvasScaleFactor + imageShiftInCanvasY;
+        result.set((int) left, (int) top, (int) right, (int) bottom);
     }
 
     //DP <-> PX CONVERSIONS
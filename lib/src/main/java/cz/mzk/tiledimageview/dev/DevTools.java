@@ -6,14 +6,20 @@ import android.graphics.Paint;
 import android.graphics.Rect;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import cz.mzk.tiledimageview.Logger;
+import cz.mzk.tiledimageview.PerformanceStats;
 import cz.mzk.tiledimageview.Point;
 import cz.mzk.tiledimageview.PointD;
 import cz.mzk.tiledimageview.R;
 import cz.mzk.tiledimageview.Utils;
 import cz.mzk.tiledimageview.VectorD;
+import cz.mzk.tiledimageview.images.Downloader;
+import cz.mzk.tiledimageview.images.TilePositionInPyramid;
+import cz.mzk.tiledimageview.images.cache.CacheManager;
 
 /**
  * @author Martin Řehánek
@@ -21,6 +27,12 @@ import cz.mzk.tiledimageview.VectorD;
 public class DevTools {
 
     private static final Logger LOGGER = new Logger(DevTools.class);
+    // HUD values are aggregated over this window, so that they are readable and texts are not built every frame
+    private static final long HUD_REFRESH_NANOS = 500 * 1000 * 1000L;
+    // tint of tile is most opaque for this and longer delivery times
+    private static final long HEATMAP_MAX_LATENCY_NANOS = 2000 * 1000 * 1000L;
+    private static final int HEATMAP_MIN_ALPHA = 0x20;
+    private static final int HEATMAP_MAX_ALPHA = 0xA0;
 
     // colors
     private final Paint paintBlue = new Paint();
@@ -42,6 +54,18 @@ public class DevTools {
     private PointD pinchZoomCenterInImage;
     private PointD doubletapZoomCenterInCanvas;
     private PointD doubletapZoomCenterInImage;
+    // heatmap: tiles delivered by tasks since image was loaded, tiles without record were in memory cache already
+    private final Map<TilePositionInPyramid, TileDelivery> mTileDeliveries = new HashMap<>();
+    private final int[] mHeatmapColors = new int[PerformanceStats.TileSource.values().length];
+    private final Paint mHeatmapPaint = new Paint();
+    // HUD
+    private final Paint mHudTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mHudBackgroundPaint = new Paint();
+    private final String[] mHudLines = new String[]{"", "", "", "tint: memory green, disk yellow, network red; opacity ~ latency"};
+    private long mHudWindowStartNanos = 0;
+    private int mHudWindowFrames = 0;
+    private long mHudWindowDrawNanos = 0;
+    private long mHudWindowMaxDrawNanos = 0;
 
     public DevTools(Context context) {
         // initImageMetadata paints
@@ -58,6 +82,14 @@ public class DevTools {
         paintBlackTrans.setColor(context.getResources().getColor(R.color.tiledimageview_black_trans));
         paintGreenTrans.setColor(context.getResources().getColor(R.color.tiledimageview_green_trans));
         paintBlueTrans.setColor(context.getResources().getColor(R.color.tiledimageview_blue_trans));
+        // heatmap, alpha is set by latency
+        mHeatmapColors[PerformanceStats.TileSource.MEMORY.ordinal()] = paintGreen.getColor();
+        mHeatmapColors[PerformanceStats.TileSource.DISK.ordinal()] = paintYellow.getColor();
+        mHeatmapColors[PerformanceStats.TileSource.NETWORK.ordinal()] = paintRed.getColor();
+        // HUD
+        mHudTextPaint.setColor(paintWhite.getColor());
+        mHudTextPaint.setTextSize((float) Utils.dpToPx(12.0));
+        mHudBackgroundPaint.setColor(paintBlackTrans.getColor());
     }
 
     public void setCanvas(Canvas canv) {
@@ -141,6 +173,76 @@ public class DevTools {
         mCanv.drawCircle((float) centerX, (float) centerY, 7.0f, paint);
     }
 
+    public void recordTileDelivery(TilePositionInPyramid tile, PerformanceStats.TileSource source, long deliveryNanos) {
+        mTileDeliveries.put(tile, new TileDelivery(source, deliveryNanos));
+    }
+
+    /**
+     * Should be called when new image is loaded.
+     */
+    public void clearTileDeliveries() {
+        mTileDeliveries.clear();
+    }
+
+    /**
+     * Tints tile by color of source it was delivered from, the longer delivery took the more opaque.
+     */
+    public void tintTileBySource(Rect rect, TilePositionInPyramid tile) {
+        TileDelivery delivery = mTileDeliveries.get(tile);
+        PerformanceStats.TileSource source = delivery != null ? delivery.source : PerformanceStats.TileSource.MEMORY;
+        long latencyNanos = delivery != null ? Math.min(delivery.deliveryNanos, HEATMAP_MAX_LATENCY_NANOS) : 0;
+        int alpha = HEATMAP_MIN_ALPHA + (int) ((HEATMAP_MAX_ALPHA - HEATMAP_MIN_ALPHA) * latencyNanos / HEATMAP_MAX_LATENCY_NANOS);
+        mHeatmapPaint.setColor((alpha << 24) | (mHeatmapColors[source.ordinal()] & 0x00FFFFFF));
+        mCanv.drawRect(rect, mHeatmapPaint);
+    }
+
+    /**
+     * Draws overlay with FPS, onDraw() time, tile tasks, bytes in flight, framing rectangle draw calls and hit ratios of
+     * caches into top left corner.
+     * Must be called once per frame, values are aggregated and texts rebuilt every {@link #HUD_REFRESH_NANOS}.
+     *
+     * @param drawNanos     time spent in onDraw() in this frame
+     * @param tileTasks     tile delivery tasks running or waiting
+     * @param rectDrawCalls canvas draw calls of framing rectangles in last frame they were drawn
+     */
+    public void drawHud(long drawNanos, int tileTasks, int rectDrawCalls) {
+        long now = System.nanoTime();
+        mHudWindowFrames++;
+        mHudWindowDrawNanos += drawNanos;
+        mHudWindowMaxDrawNanos = Math.max(mHudWindowMaxDrawNanos, drawNanos);
+        long windowNanos = now - mHudWindowStartNanos;
+        if (windowNanos >= HUD_REFRESH_NANOS) {
+            if (mHudWindowStartNanos != 0) {
+                refreshHudLines(windowNanos, tileTasks, rectDrawCalls);
+            }
+            mHudWindowStartNanos = now;
+            mHudWindowFrames = 0;
+            mHudWindowDrawNanos = 0;
+            mHudWindowMaxDrawNanos = 0;
+        }
+        float lineHeight = mHudTextPaint.getTextSize() * 1.25f;
+        float padding = lineHeight / 4;
+        float width = 0;
+        for (String line : mHudLines) {
+            width = Math.max(width, mHudTextPaint.measureText(line));
+        }
+        mCanv.drawRect(0, 0, width + 2 * padding, lineHeight * mHudLines.length + 2 * padding, mHudBackgroundPaint);
+        for (int i = 0; i < mHudLines.length; i++) {
+            mCanv.drawText(mHudLines[i], padding, padding + lineHeight * (i + 1) - lineHeight / 4, mHudTextPaint);
+        }
+    }
+
+    private void refreshHudLines(long windowNanos, int tileTasks, int rectDrawCalls) {
+        double fps = mHudWindowFrames * 1000000000.0 / windowNanos;
+        double avgDrawMs = mHudWindowFrames == 0 ? 0.0 : mHudWindowDrawNanos / 1000000.0 / mHudWindowFrames;
+        mHudLines[0] = String.format("fps: %.1f, onDraw: avg %.2f ms, max %.2f ms", fps, avgDrawMs, mHudWindowMaxDrawNanos / 1000000.0);
+        mHudLines[1] = String.format("tile tasks: %d, bytes in flight: %d kB, rectangle draw calls: %d",
+                tileTasks, Downloader.getTileBytesInFlight() / 1024, rectDrawCalls);
+        mHudLines[2] = String.format("hit ratio: memory %.0f %%, disk %.0f %%",
+                CacheManager.getTileMemoryCacheStatistics().getHitRatio() * 100,
+                CacheManager.getTileDiskCacheStatistics().getHitRatio() * 100);
+    }
+
     public Paint getPaintBlue() {
         return paintBlue;
     }
@@ -203,6 +305,16 @@ public class DevTools {
         }
     }
 
+    private static class TileDelivery {
+        private final PerformanceStats.TileSource source;
+        private final long deliveryNanos;
+
+        private TileDelivery(PerformanceStats.TileSource source, long deliveryNanos) {
+            this.source = source;
+            this.deliveryNanos = deliveryNanos;
+        }
+    }
+
     public static class RectWithPaint {
         private final Rect rect;
         private final Paint paint;
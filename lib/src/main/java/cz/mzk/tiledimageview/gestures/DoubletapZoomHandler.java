@@ -1,8 +1,5 @@
 package cz.mzk.tiledimageview.gestures;
 
-import android.os.Handler;
-import android.os.Message;
-
 import cz.mzk.tiledimageview.Logger;
 import cz.mzk.tiledimageview.PointD;
 import cz.mzk.tiledimageview.TiledImageViewApi;
@@ -11,26 +8,30 @@ import cz.mzk.tiledimageview.VectorD;
 import cz.mzk.tiledimageview.dev.DevTools;
 
 /**
+ * Zoom animation is driven by {@link FrameAnimator}, scale factor grows linearly with time since start of animation.
+ *
  * @author Martin Řehánek
  */
-public class DoubletapZoomHandler extends Handler {
+public class DoubletapZoomHandler {
 
     public static final long ANIM_LENGTH_MS = 300;
     public static final double MIN_ANIMATION_SCALE_FACTOR = 1.0;
     public static final double MAX_ANIMATION_SCALE_FACTOR = 3.0;
-    public static final int ANIM_STEPS = 10;
-    public static final long ANIM_STEP_MS = ANIM_LENGTH_MS / ANIM_STEPS;
     // private static final Logger LOGGER = new Logger("GST: double tap zoom");
     private static final Logger LOGGER = new Logger(DoubletapZoomHandler.class);
     private static final double SCALE_DIFF = MAX_ANIMATION_SCALE_FACTOR - MIN_ANIMATION_SCALE_FACTOR;
-    private static final double SCALE_STEP = SCALE_DIFF / ANIM_STEPS;
+    private static final long ANIM_LENGTH_NANOS = ANIM_LENGTH_MS * 1000000L;
     private final TiledImageViewApi mImageViewApi;
     private final DevTools mDevTools;
 
     private final GestureHandler mAbstractGestureHandler; // since no multiple inheritance in java
     private State mState = State.IDLE;
-    private Thread mWorkerThread;
-    private int mCorrectWorkerId = 0;
+    private final FrameAnimator mAnimator = new FrameAnimator(new FrameAnimator.Animation() {
+        @Override
+        public boolean onFrame(long elapsedNanos, long sinceLastFrameNanos) {
+            return onAnimationFrame(elapsedNanos);
+        }
+    });
     // centers
     private PointD mInitialFocusInImageCoords;
     private PointD mCurrentFocusInCanvas;
@@ -53,8 +54,7 @@ public class DoubletapZoomHandler extends Handler {
         mCurrentFocusInCanvas = doubleTapCenterInCanvasCoords;
         mInitialFocusInImageCoords = Utils.toImageCoords(mCurrentFocusInCanvas, mImageViewApi.getTotalScaleFactor(),
                 mImageViewApi.getTotalShift());
-        mWorkerThread = new Thread(new AnimationRunnable(this, mCorrectWorkerId));
-        mWorkerThread.start();
+        mAnimator.start();
         devUpdateZoomCenters();
     }
 
@@ -64,39 +64,26 @@ public class DoubletapZoomHandler extends Handler {
         }
     }
 
-    @Override
-    public void handleMessage(Message msg) {
-        switch (mState) {
-            case ZOOMING:
-                int workerId = msg.arg1;
-                if (workerId == mCorrectWorkerId) {
-                    int i = msg.arg2;
-                    if (i <= ANIM_STEPS) {
-                        double ratio = MIN_ANIMATION_SCALE_FACTOR + i * SCALE_STEP;
-                        // LOGGER.v(String.format("ui thread: message from thread %d: %d - processing", workerId, i));
-                        boolean maxZoomLevelReached = zoomIn(ratio);
-                        if (maxZoomLevelReached) {
-                            stopAnimation();
-                        }
-                    } else {
-                        LOGGER.v(String.format("ui thead: message from thread %d: %d - ignoring (last step reached)",
-                                workerId, i));
-                        stopAnimation();
-                    }
-                } else {
-                    LOGGER.v(String.format("ui thead: message from thread %d: %d - ignoring (old thread)", workerId,
-                            msg.arg2));
-                }
-                break;
-            case IDLE:
-                LOGGER.v(String.format("ui thead: message from thread %d: %d - ignoring (mState IDLE)", msg.arg1, msg.arg2));
-                break;
+    private boolean onAnimationFrame(long elapsedNanos) {
+        if (mState != State.ZOOMING) {
+            return false;
+        }
+        boolean lastFrame = elapsedNanos >= ANIM_LENGTH_NANOS;
+        double progress = lastFrame ? 1.0 : (double) elapsedNanos / ANIM_LENGTH_NANOS;
+        double ratio = MIN_ANIMATION_SCALE_FACTOR + progress * SCALE_DIFF;
+        boolean maxZoomLevelReached = zoomIn(ratio);
+        if (maxZoomLevelReached || lastFrame) {
+            stopAnimation();
+            return false;
         }
+        return true;
     }
 
     private boolean zoomIn(double currentScaleFactor) {
         // scale factor
-        LOGGER.d("scale factor: " + currentScaleFactor);
+        if (Logger.DEBUG_ENABLED) {
+            LOGGER.d("scale factor: " + currentScaleFactor);
+        }
         mActiveScaleFactor = 1.0;
         double maxTotalScaleFactor = mImageViewApi.getMaxScaleFactor();
         double totalScaleFactorWithoutActive = mImageViewApi.getTotalScaleFactor();
@@ -136,6 +123,14 @@ public class DoubletapZoomHandler extends Handler {
         return VectorD.sum(mAccumulatedShift, mActiveShift);
     }
 
+    public double getCurrentZoomShiftX() {
+        return mAccumulatedShift.x + mActiveShift.x;
+    }
+
+    public double getCurrentZoomShiftY() {
+        return mAccumulatedShift.y + mActiveShift.y;
+    }
+
     public void reset() {
         LOGGER.d("resetting");
         if (mState != State.IDLE) {
@@ -151,18 +146,15 @@ public class DoubletapZoomHandler extends Handler {
         if (mState == State.IDLE) {
             LOGGER.w("already stopped");
         } else {
-            if (mWorkerThread != null && mWorkerThread.isAlive()) {
-                mWorkerThread.interrupt();
-            }
-            mWorkerThread = null;
-            mCorrectWorkerId++;
-            LOGGER.v("correct worker id: " + mCorrectWorkerId);
+            mAnimator.stop();
             mAccumulatedScaleFactor *= mActiveScaleFactor;
             mActiveScaleFactor = 1.0;
             mAccumulatedShift = VectorD.sum(mAccumulatedShift, mActiveShift);
             mActiveShift = VectorD.ZERO_VECTOR;
-            mState = State.ZOOMING;
+            mState = State.IDLE;
             LOGGER.i(mState.name());
+            // redraw in full quality
+            mImageViewApi.invalidate();
         }
     }
 
@@ -170,36 +162,4 @@ public class DoubletapZoomHandler extends Handler {
         IDLE, ZOOMING;
     }
 
-    private class AnimationRunnable implements Runnable {
-        private final Handler handler;
-        private final int workerId;
-
-        public AnimationRunnable(Handler handler, int workerId) {
-            this.handler = handler;
-            this.workerId = workerId;
-        }
-
-        @Override
-        public void run() {
-            // ThreadGroup group = Thread.currentThread().getThreadGroup();
-            // int threadPriority = Thread.currentThread().getPriority();
-            // DevLoggers.THREADS.d(String.format(
-            // "double-tap worker: priority: %d, TG: name: %s, active: %d, max priority: %d, ", threadPriority,
-            // group.getName(), group.activeCount(), group.getMaxPriority()));
-            for (int i = 0; true; i++) {
-                Message msg = Message.obtain();
-                msg.arg1 = workerId;
-                msg.arg2 = i;
-                handler.sendMessage(msg);
-                // LOGGER.v(String.format("worker thread %d:  sending message: %d", workerId, i));
-                try {
-                    Thread.sleep(ANIM_STEP_MS);
-                } catch (InterruptedException e) {
-                    // LOGGER.v(String.format("worker thread %d:  killed in sleep", workerId));
-                    return;
-                }
-            }
-        }
-    }
-
 }
@@ -1,8 +1,5 @@
 package cz.mzk.tiledimageview.gestures;
 
-import android.os.Handler;
-import android.os.Message;
-
 import cz.mzk.tiledimageview.Logger;
 import cz.mzk.tiledimageview.PointD;
 import cz.mzk.tiledimageview.TiledImageViewApi;
@@ -10,9 +7,16 @@ import cz.mzk.tiledimageview.Utils;
 import cz.mzk.tiledimageview.VectorD;
 import cz.mzk.tiledimageview.dev.DevTools;
 
-public class FlingShiftHandler extends Handler {
+/**
+ * Fling animation is driven by {@link FrameAnimator}, i.e. image is shifted in every frame by distance given by velocity
+ * and time since previous frame.
+ */
+public class FlingShiftHandler {
 
-    public static final long ANIM_STEP_MS = 30;
+    /**
+     * Velocity decreases by {@link #VELOCITY_PRESERVATION_FACTOR} every this period.
+     */
+    public static final long VELOCITY_PRESERVATION_PERIOD_MS = 30;
     public static final float MIN_VELOCITY_PX_P_S = 10f;
     public static final float VELOCITY_PRESERVATION_FACTOR = 0.9f;
     // private static final Logger LOGGER = new Logger("GST: fling shift");
@@ -22,8 +26,12 @@ public class FlingShiftHandler extends Handler {
     private final GestureHandler mAbstractGestureHandler; // since no multiple inheritance in java
     private State mState = State.IDLE;
     private VectorD mAccumulatedShift = VectorD.ZERO_VECTOR;
-    private Thread mWorkerThread;
-    private int mCorrectWorkerId = 0;
+    private final FrameAnimator mAnimator = new FrameAnimator(new FrameAnimator.Animation() {
+        @Override
+        public boolean onFrame(long elapsedNanos, long sinceLastFrameNanos) {
+            return onAnimationFrame(sinceLastFrameNanos);
+        }
+    });
     // data of running animation
     private PointD mInitialFocusInImg;
     private float mVelocityX;
@@ -44,40 +52,29 @@ public class FlingShiftHandler extends Handler {
         this.mVelocityX = velocityX;
         this.mVelocityY = velocityY;
         this.mInitialFocusInImg = Utils.toImageCoords(new PointD(downX, downY), mImageViewApi.getTotalScaleFactor(), mImageViewApi.getTotalShift());
-        mWorkerThread = new Thread(new AnimationRunnable(this, mCorrectWorkerId));
-        mWorkerThread.start();
+        mAnimator.start();
     }
 
-    @Override
-    public void handleMessage(Message msg) {
-        switch (mState) {
-            case SHIFTING:
-                int workerId = msg.arg1;
-                if (workerId == mCorrectWorkerId) {
-                    boolean keepMoving = shift();
-                    if (keepMoving) {
-                        // LOGGER.v(String.format("ui thread: message from thread %d - processing", workerId));
-                        updateVelocities();
-                    } else {
-                        LOGGER.v(String
-                                .format("ui thread: message from thread %d - ignoring (velocities to low)", workerId));
-                        stopAnimation();
-                    }
-                } else {
-                    LOGGER.v(String.format("ui thread: message from thread %d - ignoring (old threadead)", workerId));
-                }
-                break;
-            case IDLE:
-                LOGGER.v(String.format("ui thread: message from thread %d - ignoring (mState IDLE)", msg.arg1));
-                break;
+    private boolean onAnimationFrame(long sinceLastFrameNanos) {
+        if (mState != State.SHIFTING) {
+            return false;
+        }
+        boolean keepMoving = shift(sinceLastFrameNanos);
+        if (keepMoving) {
+            updateVelocities(sinceLastFrameNanos);
+            return true;
+        } else {
+            LOGGER.v("velocities too low or zero shift");
+            stopAnimation();
+            return false;
         }
     }
 
-    private boolean shift() {
+    private boolean shift(long stepNanos) {
         double totalScaleFactor = mImageViewApi.getTotalScaleFactor();
         VectorD totalShift = mImageViewApi.getTotalShift();
         // pixels for animation step
-        float stepSecondFraction = ANIM_STEP_MS / 1000.0f;
+        float stepSecondFraction = stepNanos / 1000000000.0f;
         float pixelsPerStepX = mVelocityX * stepSecondFraction;
         float pixelsPerStepY = mVelocityY * stepSecondFraction;
         double pixelsPerStepCanvasX = pixelsPerStepX * totalScaleFactor;
@@ -87,11 +84,11 @@ public class FlingShiftHandler extends Handler {
         PointD nextInCanvas = currentInCanvas.plus(new VectorD(pixelsPerStepCanvasX, pixelsPerStepCanvasY));
         PointD nextInImg = Utils.toImageCoords(nextInCanvas, totalScaleFactor, totalShift);
         VectorD newShift = mAbstractGestureHandler.limitNewShift(mInitialFocusInImg.minus(nextInImg));
-        LOGGER.v("shift: " + newShift.toString());
-        // optimization for zero shift
-        if (newShift.x == 0.0 && newShift.y == 0.0) {
+        LOGGER.v("shift: %s", newShift);
+        // optimization for zero shift (image reached its border), first frame can have zero step though
+        if (newShift.x == 0.0 && newShift.y == 0.0 && stepNanos > 0) {
             LOGGER.d("zero shift");
-            stopAnimation();
+            return false;
         }
         newShift = mAbstractGestureHandler.limitNewShift(newShift);
         mAccumulatedShift = mAccumulatedShift.plus(newShift);
@@ -99,10 +96,14 @@ public class FlingShiftHandler extends Handler {
         return (Math.abs(mVelocityX) > MIN_VELOCITY_PX_P_S || Math.abs(mVelocityY) > MIN_VELOCITY_PX_P_S);
     }
 
-    private void updateVelocities() {
-        mVelocityX = mVelocityX * VELOCITY_PRESERVATION_FACTOR;
-        mVelocityY = mVelocityY * VELOCITY_PRESERVATION_FACTOR;
-        LOGGER.v(String.format("velocities: x: %.2f, y: %.2f px/s", mVelocityX, mVelocityY));
+    private void updateVelocities(long stepNanos) {
+        // same deceleration as VELOCITY_PRESERVATION_FACTOR per VELOCITY_PRESERVATION_PERIOD_MS, whatever the frame rate
+        float preservation = (float) Math.pow(VELOCITY_PRESERVATION_FACTOR, stepNanos / (VELOCITY_PRESERVATION_PERIOD_MS * 1000000.0));
+        mVelocityX = mVelocityX * preservation;
+        mVelocityY = mVelocityY * preservation;
+        if (Logger.VERBOSE_ENABLED) {
+            LOGGER.v(String.format("velocities: x: %.2f, y: %.2f px/s", mVelocityX, mVelocityY));
+        }
     }
 
     public void reset() {
@@ -123,45 +124,15 @@ public class FlingShiftHandler extends Handler {
         if (mState == State.IDLE) {
             LOGGER.w("already stopped");
         } else {
-            if (mWorkerThread != null && mWorkerThread.isAlive()) {
-                mWorkerThread.interrupt();
-            }
-            mWorkerThread = null;
-            mCorrectWorkerId++;
-            LOGGER.v("correct worker id: " + mCorrectWorkerId);
+            mAnimator.stop();
             this.mState = State.IDLE;
             LOGGER.i(mState.name());
+            // redraw in full quality
+            mImageViewApi.invalidate();
         }
     }
 
     public enum State {
         IDLE, SHIFTING;
     }
-
-    private class AnimationRunnable implements Runnable {
-        private final Handler handler;
-        private final int workerId;
-
-        public AnimationRunnable(Handler handler, int workerId) {
-            this.handler = handler;
-            this.workerId = workerId;
-        }
-
-        @Override
-        public void run() {
-            // DevLoggers.THREADS.d("fling worker: " + Thread.currentThread().getPriority());
-            while (true) {
-                Message msg = Message.obtain();
-                msg.arg1 = workerId;
-                handler.sendMessage(msg);
-                // LOGGER.v(String.format("worker thread %d:  sending message", workerId));
-                try {
-                    Thread.sleep(ANIM_STEP_MS);
-                } catch (InterruptedException e) {
-                    // LOGGER.v(String.format("worker thread %d:  killed in sleep", workerId));
-                    return;
-                }
-            }
-        }
-    }
 }
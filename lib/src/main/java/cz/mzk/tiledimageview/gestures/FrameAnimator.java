@@ -0,0 +1,84 @@
+package cz.mzk.tiledimageview.gestures;
+
+import android.support.annotation.UiThread;
+
+import cz.mzk.tiledimageview.FrameScheduler;
+
+/**
+ * Drives animation on UI thread in sync with display frames, see {@link FrameScheduler}. Animation gets time elapsed since start, so its speed doesn't depend on frame rate.
+ */
+@UiThread
+class FrameAnimator implements FrameScheduler.Callback {
+
+    private final Animation mAnimation;
+    private final FrameScheduler mFrameScheduler = new FrameScheduler(this);
+    private boolean mRunning = false;
+    // incremented with every start, so that animation restarted from its own frame is not scheduled twice
+    private int mGeneration = 0;
+    private long mStartNanos;
+    private long mLastFrameNanos;
+
+    FrameAnimator(Animation animation) {
+        mAnimation = animation;
+    }
+
+    /**
+     * Starts animation from beginning, first step is in next frame. Running animation is restarted.
+     */
+    void start() {
+        stop();
+        mRunning = true;
+        mGeneration++;
+        mStartNanos = System.nanoTime();
+        mLastFrameNanos = mStartNanos;
+        mFrameScheduler.schedule();
+    }
+
+    /**
+     * Animation is not notified.
+     */
+    void stop() {
+        if (mRunning) {
+            mRunning = false;
+            mFrameScheduler.cancel();
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void doFrame(long frameNanos) {
+        if (!mRunning) {
+            return;
+        }
+        // vsync time of first frame can precede start
+        frameNanos = Math.max(frameNanos, mLastFrameNanos);
+        long elapsedNanos = frameNanos - mStartNanos;
+        long sinceLastFrameNanos = frameNanos - mLastFrameNanos;
+        mLastFrameNanos = frameNanos;
+        int generation = mGeneration;
+        boolean keepRunning = mAnimation.onFrame(elapsedNanos, sinceLastFrameNanos);
+        // animation may have stopped or restarted itself
+        if (mRunning && mGeneration == generation) {
+            if (keepRunning) {
+                mFrameScheduler.schedule();
+            } else {
+                mRunning = false;
+            }
+        }
+    }
+
+    interface Animation {
+        /**
+         * Called in every frame while animation is running.
+         *
+         * @param elapsedNanos        time since start of animation
+         * @param sinceLastFrameNanos time since previous frame (or since start for the first one)
+         * @return false if this was the last frame
+         */
+        boolean onFrame(long elapsedNanos, long sinceLastFrameNanos);
+    }
+
+}
@@ -28,6 +28,8 @@ public class MyGestureListener implements OnGestureListener, OnDoubleTapListener
     private final DoubletapZoomHandler mDoubletapZoomHandler;
     private final DragShiftHandler mDragShiftHandler;
     private final FlingShiftHandler mFlingShiftHandler;
+    private final NavigationAnimationHandler mNavigationAnimationHandler;
+    private boolean mDragging = false;
 
     public MyGestureListener(Context context, TiledImageViewApi imageViewApi, DevTools devTools) {
         mImageViewApi = imageViewApi;
@@ -39,25 +41,65 @@ public class MyGestureListener implements OnGestureListener, OnDoubleTapListener
         mDoubletapZoomHandler = new DoubletapZoomHandler(imageViewApi, devTools);
         mDragShiftHandler = new DragShiftHandler(imageViewApi, devTools);
         mFlingShiftHandler = new FlingShiftHandler(imageViewApi, devTools);
+        mNavigationAnimationHandler = new NavigationAnimationHandler(imageViewApi, devTools);
     }
 
     public boolean onTouchEvent(MotionEvent event) {
         mScaleGestureDetector.onTouchEvent(event);
         mGestureDetector.onTouchEvent(event);
+        int action = event.getActionMasked();
+        if (mDragging && (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL)) {
+            mDragging = false;
+            // redraw in full quality (unless fling continues)
+            mImageViewApi.invalidate();
+        }
         return true;
     }
 
+    /**
+     * @return true while image is being dragged or pinched or fling/double-tap animation is running. View draws faster and
+     * in lower quality meanwhile.
+     */
+    public boolean isGestureInProgress() {
+        return mDragging
+                || mPinchZoomHandler.getmState() == State.PINCHING
+                || mDoubletapZoomHandler.getState() == DoubletapZoomHandler.State.ZOOMING
+                || mFlingShiftHandler.getmState() == FlingShiftHandler.State.SHIFTING
+                || isNavigationInProgress();
+    }
+
+    /**
+     * @return true while animation started by {@link #animateTo(PointD, double, long)} is running
+     */
+    public boolean isNavigationInProgress() {
+        return mNavigationAnimationHandler.getState() == NavigationAnimationHandler.State.ANIMATING;
+    }
+
+    /**
+     * Stops running animations and starts animated move so that given image point is in center of view.
+     *
+     * @see NavigationAnimationHandler#animateTo(PointD, double, long)
+     */
+    public void animateTo(PointD targetCenterInImg, double targetTotalScaleFactor, long durationMs) {
+        stopAllAnimations();
+        mNavigationAnimationHandler.animateTo(targetCenterInImg, targetTotalScaleFactor, durationMs);
+    }
+
+    /**
+     * Stops running animations and moves view right away so that given image point is in center of view.
+     *
+     * @see NavigationAnimationHandler#jumpTo(PointD, double)
+     */
+    public void jumpTo(PointD targetCenterInImg, double targetTotalScaleFactor) {
+        stopAllAnimations();
+        mNavigationAnimationHandler.jumpTo(targetCenterInImg, targetTotalScaleFactor);
+    }
+
     @Override
     public boolean onSingleTapConfirmed(MotionEvent e) {
         // LOGGER.d("onSingleTapConfirmed");
-        // stop possibly running DOUBLE-TAP ZOOM animation
-        if (mDoubletapZoomHandler.getState() == DoubletapZoomHandler.State.ZOOMING) {
-            mDoubletapZoomHandler.stopAnimation();
-        }
-        // stop possibly running FLING SHIFT animation
-        if (mFlingShiftHandler.getmState() == FlingShiftHandler.State.SHIFTING) {
-            mFlingShiftHandler.stopAnimation();
-        }
+        // stop possibly running DOUBLE-TAP ZOOM, FLING SHIFT or NAVIGATION animation
+        stopAllAnimations();
         if (mImageViewApi.getSingleTapListener() != null) {
             mImageViewApi.getSingleTapListener().onSingleTap(e.getX(), e.getY(), mImageViewApi.getVisibleImageAreaInCanvas());
         }
@@ -68,14 +110,8 @@ public class MyGestureListener implements OnGestureListener, OnDoubleTapListener
     public boolean onDoubleTap(MotionEvent e) {
         // LOGGER.d("onDoubleTap");
         if (mPinchZoomHandler.getmState() != State.PINCHING) {
-            // stop possibly running DOUBLE-TAP ZOOM animation
-            if (mDoubletapZoomHandler.getState() == DoubletapZoomHandler.State.ZOOMING) {
-                mDoubletapZoomHandler.stopAnimation();
-            }
-            // stop possibly running FLING SHIFT animation
-            if (mFlingShiftHandler.getmState() == FlingShiftHandler.State.SHIFTING) {
-                mFlingShiftHandler.stopAnimation();
-            }
+            // stop possibly running DOUBLE-TAP ZOOM, FLING SHIFT or NAVIGATION animation
+            stopAllAnimations();
             mDoubletapZoomHandler.startZooming(new PointD(e.getX(), e.getY()));
         }
         return false;
@@ -85,14 +121,9 @@ public class MyGestureListener implements OnGestureListener, OnDoubleTapListener
     public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
         // LOGGER.d("onScroll");
         if (mPinchZoomHandler.getmState() != State.PINCHING) {
-            // stop possibly running DOUBLE-TAP ZOOM animation
-            if (mDoubletapZoomHandler.getState() == DoubletapZoomHandler.State.ZOOMING) {
-                mDoubletapZoomHandler.stopAnimation();
-            }
-            // stop possibly running FLING SHIFT animation
-            if (mFlingShiftHandler.getmState() == FlingShiftHandler.State.SHIFTING) {
-                mFlingShiftHandler.stopAnimation();
-            }
+            // stop possibly running DOUBLE-TAP ZOOM, FLING SHIFT or NAVIGATION animation
+            stopAllAnimations();
+            mDragging = true;
             mDragShiftHandler.drag(-distanceX, -distanceY);
         }
         return false;
@@ -102,14 +133,8 @@ public class MyGestureListener implements OnGestureListener, OnDoubleTapListener
     public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
         // LOGGER.d("onFling");
         if (mPinchZoomHandler.getmState() != State.PINCHING) {
-            // stop possibly running DOUBLE-TAP ZOOM animation
-            if (mDoubletapZoomHandler.getState() == DoubletapZoomHandler.State.ZOOMING) {
-                mDoubletapZoomHandler.stopAnimation();
-            }
-            // stop possibly running FLING SHIFT animation
-            if (mFlingShiftHandler.getmState() == FlingShiftHandler.State.SHIFTING) {
-                mFlingShiftHandler.stopAnimation();
-            }
+            // stop possibly running DOUBLE-TAP ZOOM, FLING SHIFT or NAVIGATION animation
+            stopAllAnimations();
             mFlingShiftHandler.fling(e2.getX(), e2.getY(), -velocityX, -velocityY);
         }
         return false;
@@ -127,14 +152,8 @@ public class MyGestureListener implements OnGestureListener, OnDoubleTapListener
     @Override
     public boolean onScaleBegin(PinchGestureDetector detector) {
         // LOGGER.d("onScaleBegin");
-        // stop possibly running DOUBLE-TAP ZOOM animation
-        if (mDoubletapZoomHandler.getState() == DoubletapZoomHandler.State.ZOOMING) {
-            mDoubletapZoomHandler.stopAnimation();
-        }
-        // stop possibly running FLING SHIFT animation
-        if (mFlingShiftHandler.getmState() == FlingShiftHandler.State.SHIFTING) {
-            mFlingShiftHandler.stopAnimation();
-        }
+        // stop possibly running DOUBLE-TAP ZOOM, FLING SHIFT or NAVIGATION animation
+        stopAllAnimations();
         mPinchZoomHandler
                 .startZooming(detector.getCurrentSpan(), new PointD(detector.getmFocusX(), detector.getmFocusY()));
         return false;
@@ -153,6 +172,9 @@ public class MyGestureListener implements OnGestureListener, OnDoubleTapListener
         if (mFlingShiftHandler.getmState() == FlingShiftHandler.State.SHIFTING) {
             mFlingShiftHandler.stopAnimation();
         }
+        if (isNavigationInProgress()) {
+            mNavigationAnimationHandler.stopAnimation();
+        }
     }
 
     public void reset() {
@@ -160,6 +182,7 @@ public class MyGestureListener implements OnGestureListener, OnDoubleTapListener
         mFlingShiftHandler.reset();
         mPinchZoomHandler.reset();
         mDoubletapZoomHandler.reset();
+        mNavigationAnimationHandler.reset();
     }
 
     /**
@@ -170,14 +193,34 @@ public class MyGestureListener implements OnGestureListener, OnDoubleTapListener
         VectorD pinchZoomShift = mPinchZoomHandler.getCurrentShift();
         VectorD doubleTapZoomShift = mDoubletapZoomHandler.getCurrentZoomShift();
         VectorD flingShift = mFlingShiftHandler.getShift();
-        return VectorD.sum(swipeShift, pinchZoomShift, doubleTapZoomShift, flingShift);
+        VectorD navigationShift = mNavigationAnimationHandler.getCurrentShift();
+        return VectorD.sum(swipeShift, pinchZoomShift, doubleTapZoomShift, flingShift, navigationShift);
+    }
+
+    /**
+     * Same as x of {@link #getTotalShift()}, without allocation. For drawing.
+     */
+    public double getTotalShiftX() {
+        return mDragShiftHandler.getShift().x + mPinchZoomHandler.getCurrentShiftX()
+                + mDoubletapZoomHandler.getCurrentZoomShiftX() + mFlingShiftHandler.getShift().x
+                + mNavigationAnimationHandler.getCurrentShiftX();
+    }
+
+    /**
+     * Same as y of {@link #getTotalShift()}, without allocation. For drawing.
+     */
+    public double getTotalShiftY() {
+        return mDragShiftHandler.getShift().y + mPinchZoomHandler.getCurrentShiftY()
+                + mDoubletapZoomHandler.getCurrentZoomShiftY() + mFlingShiftHandler.getShift().y
+                + mNavigationAnimationHandler.getCurrentShiftY();
     }
 
     /**
      * @return Scale factorecaused by all gestures. Accumulated shift and also active one from gesture currently in progress.
      */
     public double getTotalScaleFactor() {
-        return mPinchZoomHandler.getCurrentScaleFactor() * mDoubletapZoomHandler.getCurrentScaleFactor();
+        return mPinchZoomHandler.getCurrentScaleFactor() * mDoubletapZoomHandler.getCurrentScaleFactor()
+                * mNavigationAnimationHandler.getCurrentScaleFactor();
     }
 
     @Override
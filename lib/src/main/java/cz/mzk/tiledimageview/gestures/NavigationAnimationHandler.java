@@ -0,0 +1,171 @@
+package cz.mzk.tiledimageview.gestures;
+
+import cz.mzk.tiledimageview.Logger;
+import cz.mzk.tiledimageview.PointD;
+import cz.mzk.tiledimageview.TiledImageViewApi;
+import cz.mzk.tiledimageview.Utils;
+import cz.mzk.tiledimageview.VectorD;
+import cz.mzk.tiledimageview.dev.DevTools;
+
+/**
+ * Programmatic animated move to given point and scale, see {@link TiledImageViewApi#animateTo(android.graphics.Rect, long)}.
+ * Driven by {@link FrameAnimator}. Image point in center of view moves linearly and scale factor changes exponentially
+ * (i.e. zooming looks uniform), both eased in and out.
+ */
+public class NavigationAnimationHandler {
+
+    private static final Logger LOGGER = new Logger(NavigationAnimationHandler.class);
+
+    private final TiledImageViewApi mImageViewApi;
+    private final GestureHandler mAbstractGestureHandler; // since no multiple inheritance in java
+    private State mState = State.IDLE;
+    private final FrameAnimator mAnimator = new FrameAnimator(new FrameAnimator.Animation() {
+        @Override
+        public boolean onFrame(long elapsedNanos, long sinceLastFrameNanos) {
+            return onAnimationFrame(elapsedNanos);
+        }
+    });
+    // data of running animation
+    private long mDurationNanos;
+    private double mStartScaleFactor;
+    private double mTargetScaleFactor;
+    private PointD mStartCenterInImg;
+    private PointD mTargetCenterInImg;
+    // shift
+    private VectorD mAccumulatedShift = VectorD.ZERO_VECTOR;
+    private VectorD mActiveShift = VectorD.ZERO_VECTOR;
+    // scale
+    private double mAccumulatedScaleFactor = 1.0;
+    private double mActiveScaleFactor = 1.0;
+
+    public NavigationAnimationHandler(TiledImageViewApi imageViewApi, DevTools devTools) {
+        mImageViewApi = imageViewApi;
+        mAbstractGestureHandler = new GestureHandler(imageViewApi, devTools);
+    }
+
+    /**
+     * @param targetCenterInImg      image point that will be in center of view
+     * @param targetTotalScaleFactor total scale factor at the end of animation, must be within min and max scale factor
+     * @param durationMs             duration of animation, 0 to move in next frame
+     */
+    public void animateTo(PointD targetCenterInImg, double targetTotalScaleFactor, long durationMs) {
+        mState = State.ANIMATING;
+        LOGGER.i(mState.name());
+        mDurationNanos = Math.max(0, durationMs) * 1000000L;
+        mStartScaleFactor = mImageViewApi.getTotalScaleFactor();
+        mTargetScaleFactor = targetTotalScaleFactor;
+        PointD viewCenter = new PointD(mImageViewApi.getWidth() / 2.0, mImageViewApi.getHeight() / 2.0);
+        mStartCenterInImg = Utils.toImageCoords(viewCenter, mStartScaleFactor, mImageViewApi.getTotalShift());
+        mTargetCenterInImg = targetCenterInImg;
+        mAnimator.start();
+    }
+
+    /**
+     * Moves view right away, without animation. Running animation is stopped.
+     *
+     * @param targetCenterInImg      image point that will be in center of view
+     * @param targetTotalScaleFactor total scale factor, must be within min and max scale factor
+     */
+    public void jumpTo(PointD targetCenterInImg, double targetTotalScaleFactor) {
+        if (mState != State.IDLE) {
+            stopAnimation();
+        }
+        mStartScaleFactor = mImageViewApi.getTotalScaleFactor();
+        mTargetScaleFactor = targetTotalScaleFactor;
+        mStartCenterInImg = targetCenterInImg;
+        mTargetCenterInImg = targetCenterInImg;
+        move(1.0);
+        accumulateActive();
+    }
+
+    private boolean onAnimationFrame(long elapsedNanos) {
+        if (mState != State.ANIMATING) {
+            return false;
+        }
+        boolean lastFrame = elapsedNanos >= mDurationNanos;
+        double progress = lastFrame ? 1.0 : (double) elapsedNanos / mDurationNanos;
+        // accelerate and decelerate
+        double eased = (1.0 - Math.cos(progress * Math.PI)) / 2.0;
+        move(eased);
+        if (lastFrame) {
+            stopAnimation();
+            return false;
+        }
+        return true;
+    }
+
+    private void move(double eased) {
+        double scaleFactor = mStartScaleFactor * Math.pow(mTargetScaleFactor / mStartScaleFactor, eased);
+        double centerX = mStartCenterInImg.x + (mTargetCenterInImg.x - mStartCenterInImg.x) * eased;
+        double centerY = mStartCenterInImg.y + (mTargetCenterInImg.y - mStartCenterInImg.y) * eased;
+        // scale, accumulated scale is already part of start scale
+        mActiveScaleFactor = scaleFactor / mStartScaleFactor;
+        // shift, so that center point is in center of view
+        mActiveShift = VectorD.ZERO_VECTOR;
+        VectorD totalShift = mImageViewApi.getTotalShift();
+        VectorD newShift = new VectorD(
+                mImageViewApi.getWidth() / 2.0 - centerX * scaleFactor - totalShift.x,
+                mImageViewApi.getHeight() / 2.0 - centerY * scaleFactor - totalShift.y);
+        mActiveShift = mAbstractGestureHandler.limitNewShift(newShift);
+        mImageViewApi.invalidate();
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    public double getCurrentScaleFactor() {
+        return mAccumulatedScaleFactor * mActiveScaleFactor;
+    }
+
+    public VectorD getCurrentShift() {
+        return VectorD.sum(mAccumulatedShift, mActiveShift);
+    }
+
+    public double getCurrentShiftX() {
+        return mAccumulatedShift.x + mActiveShift.x;
+    }
+
+    public double getCurrentShiftY() {
+        return mAccumulatedShift.y + mActiveShift.y;
+    }
+
+    public void reset() {
+        LOGGER.d("resetting");
+        if (mState != State.IDLE) {
+            LOGGER.w("animation still running");
+            stopAnimation();
+        }
+        mAccumulatedShift = VectorD.ZERO_VECTOR;
+        mAccumulatedScaleFactor = 1.0;
+    }
+
+    /**
+     * View stays where animation got so far.
+     */
+    public void stopAnimation() {
+        LOGGER.d("stopping animation");
+        if (mState == State.IDLE) {
+            LOGGER.w("already stopped");
+        } else {
+            mAnimator.stop();
+            accumulateActive();
+            mState = State.IDLE;
+            LOGGER.i(mState.name());
+            // redraw in full quality
+            mImageViewApi.invalidate();
+        }
+    }
+
+    private void accumulateActive() {
+        mAccumulatedScaleFactor *= mActiveScaleFactor;
+        mActiveScaleFactor = 1.0;
+        mAccumulatedShift = VectorD.sum(mAccumulatedShift, mActiveShift);
+        mActiveShift = VectorD.ZERO_VECTOR;
+    }
+
+    public enum State {
+        IDLE, ANIMATING;
+    }
+
+}
@@ -41,6 +41,14 @@ public class PinchZoomHandler extends GestureHandler {
         return VectorD.sum(mAccumalatedShift, mActiveShift);
     }
 
+    public double getCurrentShiftX() {
+        return mAccumalatedShift.x + mActiveShift.x;
+    }
+
+    public double getCurrentShiftY() {
+        return mAccumalatedShift.y + mActiveShift.y;
+    }
+
     public void startZooming(double span, PointD focus) {
         mInitialSpan = span;
         mInitialFocusInImageCoords = Utils.toImageCoords(focus, mImageViewApi.getTotalScaleFactor(),
@@ -56,7 +64,9 @@ public class PinchZoomHandler extends GestureHandler {
         // scale
         mActiveScaleFactor = 1.0;
         double currentScaleFactor = currentSpan / mInitialSpan;
-        LOGGER.d("scale factor: " + currentScaleFactor);
+        if (Logger.DEBUG_ENABLED) {
+            LOGGER.d("scale factor: " + currentScaleFactor);
+        }
         double totalScaleFactorWithoutActive = mImageViewApi.getTotalScaleFactor();
         double maxTotalScaleFactor = mImageViewApi.getMaxScaleFactor();
         double maxActiveScaleFactor = maxTotalScaleFactor / totalScaleFactorWithoutActive;
@@ -100,6 +110,8 @@ public class PinchZoomHandler extends GestureHandler {
         mInitialFocusInImageCoords = null;
         mState = State.IDLE;
         LOGGER.i(mState.name());
+        // redraw in full quality
+        mImageViewApi.invalidate();
     }
 
     public void reset() {
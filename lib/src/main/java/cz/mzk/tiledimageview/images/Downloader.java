@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cz.mzk.tiledimageview.Logger;
 import cz.mzk.tiledimageview.images.exceptions.ImageServerResponseException;
@@ -27,13 +28,42 @@ public class Downloader {
     public static final int TILES_READ_TIMEOUT = 10000;
 
     private static final Logger LOGGER = new Logger(Downloader.class);
+    private static final AtomicLong sTileBytesInFlight = new AtomicLong();
+
+    /**
+     * @return sum of content lengths of tile responses being transferred and decoded right now (responses without
+     * Content-Length header are not included)
+     */
+    public static long getTileBytesInFlight() {
+        return sTileBytesInFlight.get();
+    }
 
     public static Bitmap downloadTile(String tileUrl) throws TooManyRedirectionsException, ImageServerResponseException, OtherIOException {
-        return downloadTile(tileUrl, MAX_REDIRECTIONS);
+        return downloadTile(tileUrl, TILES_CONNECTION_TIMEOUT, TILES_READ_TIMEOUT, null);
+    }
+
+    /**
+     * @param decodeOptions null for defaults
+     */
+    public static Bitmap downloadTile(String tileUrl, int connectTimeoutMs, int readTimeoutMs, BitmapFactory.Options decodeOptions) throws TooManyRedirectionsException, ImageServerResponseException, OtherIOException {
+        DownloadedTile tile = downloadTileWithBytes(tileUrl, connectTimeoutMs, readTimeoutMs, decodeOptions, null);
+        return tile != null ? tile.getBitmap() : null;
+    }
+
+    /**
+     * @param decodeOptions null for defaults
+     * @param traceKey      cache key of tile to record network events into {@link TileTrace}, null to not record them
+     * @return decoded tile together with bytes it was decoded from, null if response couldn't be decoded
+     */
+    public static DownloadedTile downloadTileWithBytes(String tileUrl, int connectTimeoutMs, int readTimeoutMs, BitmapFactory.Options decodeOptions, String traceKey) throws TooManyRedirectionsException, ImageServerResponseException, OtherIOException {
+        if (traceKey != null) {
+            TileTrace.record(traceKey, TileTrace.Event.NETWORK_START);
+        }
+        return downloadTile(tileUrl, MAX_REDIRECTIONS, connectTimeoutMs, readTimeoutMs, decodeOptions, traceKey);
     }
 
-    private static Bitmap downloadTile(String tileUrl, int remainingRedirections) throws TooManyRedirectionsException, ImageServerResponseException, OtherIOException {
-        LOGGER.d("downloading tile from " + tileUrl);
+    private static DownloadedTile downloadTile(String tileUrl, int remainingRedirections, int connectTimeoutMs, int readTimeoutMs, BitmapFactory.Options decodeOptions, String traceKey) throws TooManyRedirectionsException, ImageServerResponseException, OtherIOException {
+        LOGGER.d("downloading tile from %s", tileUrl);
         if (remainingRedirections == 0) {
             throw new TooManyRedirectionsException(tileUrl, MAX_REDIRECTIONS);
         }
@@ -43,13 +73,42 @@ public class Downloader {
         try {
             URL url = new URL(tileUrl);
             urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setConnectTimeout(TILES_CONNECTION_TIMEOUT);
-            urlConnection.setReadTimeout(TILES_READ_TIMEOUT);
+            urlConnection.setConnectTimeout(connectTimeoutMs);
+            urlConnection.setReadTimeout(readTimeoutMs);
             urlConnection.setInstanceFollowRedirects(false); //because I handle following redirects manually to avoid redirection loop
-            int responseCode = urlConnection.getResponseCode();
+            int responseCode;
+            TileTrace.beginSection("tile http request");
+            try {
+                responseCode = urlConnection.getResponseCode();
+            } finally {
+                TileTrace.endSection();
+            }
             switch (responseCode) {
                 case 200:
-                    return bitmapFromUrlConnection(urlConnection);
+                    long contentLength = Math.max(0, urlConnection.getContentLength());
+                    byte[] bytes;
+                    sTileBytesInFlight.addAndGet(contentLength);
+                    TileTrace.beginSection("tile transfer");
+                    try {
+                        bytes = bytesFromUrlConnection(urlConnection);
+                    } finally {
+                        TileTrace.endSection();
+                        sTileBytesInFlight.addAndGet(-contentLength);
+                    }
+                    if (traceKey != null) {
+                        TileTrace.record(traceKey, TileTrace.Event.NETWORK_END);
+                    }
+                    Bitmap bitmap;
+                    TileTrace.beginSection("tile decode");
+                    try {
+                        bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, decodeOptions);
+                    } finally {
+                        TileTrace.endSection();
+                    }
+                    if (traceKey != null) {
+                        TileTrace.record(traceKey, TileTrace.Event.DECODED);
+                    }
+                    return bitmap != null ? new DownloadedTile(bitmap, bytes) : null;
                 case 300:
                 case 301:
                 case 302:
@@ -61,7 +120,10 @@ public class Downloader {
                         throw new ImageServerResponseException(tileUrl, responseCode);
                     } else {
                         urlConnection.disconnect();
-                        return downloadTile(location, remainingRedirections - 1);
+                        if (traceKey != null) {
+                            TileTrace.record(traceKey, TileTrace.Event.REDIRECTED);
+                        }
+                        return downloadTile(location, remainingRedirections - 1, connectTimeoutMs, readTimeoutMs, decodeOptions, traceKey);
                     }
                 default:
                     throw new ImageServerResponseException(tileUrl, responseCode);
@@ -75,11 +137,21 @@ public class Downloader {
         }
     }
 
-    private static Bitmap bitmapFromUrlConnection(HttpURLConnection urlConnection) throws IOException {
+    /**
+     * Whole body is read before decoding, so that the same bytes can be stored into disk cache without encoding tile again.
+     */
+    private static byte[] bytesFromUrlConnection(HttpURLConnection urlConnection) throws IOException {
         InputStream in = null;
         try {
-            in = new BufferedInputStream(urlConnection.getInputStream());
-            return BitmapFactory.decodeStream(in);
+            in = urlConnection.getInputStream();
+            int contentLength = urlConnection.getContentLength();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(contentLength > 0 ? contentLength : 16 * 1024);
+            byte[] buffer = new byte[8 * 1024];
+            int readBytes;
+            while ((readBytes = in.read(buffer)) != -1) {
+                out.write(buffer, 0, readBytes);
+            }
+            return out.toByteArray();
         } finally {
             if (in != null) {
                 in.close();
@@ -88,10 +160,14 @@ public class Downloader {
     }
 
     public static String downloadMetadata(String metadataUrl) throws TooManyRedirectionsException, ImageServerResponseException, OtherIOException {
-        return downloadMetadata(metadataUrl, MAX_REDIRECTIONS);
+        return downloadMetadata(metadataUrl, METADATA_CONNECTION_TIMEOUT, METADATA_READ_TIMEOUT);
     }
 
-    private static String downloadMetadata(String metadataUrl, int remainingRedirections) throws TooManyRedirectionsException, ImageServerResponseException, OtherIOException {
+    public static String downloadMetadata(String metadataUrl, int connectTimeoutMs, int readTimeoutMs) throws TooManyRedirectionsException, ImageServerResponseException, OtherIOException {
+        return downloadMetadata(metadataUrl, MAX_REDIRECTIONS, connectTimeoutMs, readTimeoutMs);
+    }
+
+    private static String downloadMetadata(String metadataUrl, int remainingRedirections, int connectTimeoutMs, int readTimeoutMs) throws TooManyRedirectionsException, ImageServerResponseException, OtherIOException {
         LOGGER.d("downloading metadata from " + metadataUrl);
         if (remainingRedirections == 0) {
             throw new TooManyRedirectionsException(metadataUrl, MAX_REDIRECTIONS);
@@ -102,8 +178,8 @@ public class Downloader {
         try {
             URL url = new URL(metadataUrl);
             urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setConnectTimeout(METADATA_CONNECTION_TIMEOUT);
-            urlConnection.setReadTimeout(METADATA_READ_TIMEOUT);
+            urlConnection.setConnectTimeout(connectTimeoutMs);
+            urlConnection.setReadTimeout(readTimeoutMs);
             urlConnection.setInstanceFollowRedirects(false); //because I handle following redirects manually to avoid redirection loop
             int responseCode = urlConnection.getResponseCode();
             // LOGGER.d( "http code: " + responseCode);
@@ -116,13 +192,13 @@ public class Downloader {
                         throw new ImageServerResponseException(metadataUrl, responseCode);
                     }
                     urlConnection.disconnect();
-                    return downloadMetadata(location, remainingRedirections - 1);
+                    return downloadMetadata(location, remainingRedirections - 1, connectTimeoutMs, readTimeoutMs);
                 case 301:
                     if (location == null || location.isEmpty()) {
                         throw new ImageServerResponseException(metadataUrl, responseCode);
                     }
                     urlConnection.disconnect();
-                    return downloadMetadata(location, remainingRedirections - 1);
+                    return downloadMetadata(location, remainingRedirections - 1, connectTimeoutMs, readTimeoutMs);
                 case 302:
                 case 303:
                 case 305:
@@ -131,7 +207,7 @@ public class Downloader {
                         throw new ImageServerResponseException(metadataUrl, responseCode);
                     }
                     urlConnection.disconnect();
-                    return downloadMetadata(location, remainingRedirections - 1);
+                    return downloadMetadata(location, remainingRedirections - 1, connectTimeoutMs, readTimeoutMs);
                 default:
                     throw new ImageServerResponseException(metadataUrl, responseCode);
             }
@@ -165,4 +241,28 @@ public class Downloader {
             }
         }
     }
+
+    /**
+     * Tile decoded from response body, together with the body itself.
+     */
+    public static class DownloadedTile {
+        private final Bitmap mBitmap;
+        private final byte[] mBytes;
+
+        DownloadedTile(Bitmap bitmap, byte[] bytes) {
+            mBitmap = bitmap;
+            mBytes = bytes;
+        }
+
+        public Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        /**
+         * @return response body as received from server (e.g. JPEG)
+         */
+        public byte[] getBytes() {
+            return mBytes;
+        }
+    }
 }
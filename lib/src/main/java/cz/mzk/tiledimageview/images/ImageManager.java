@@ -6,10 +6,13 @@ import android.support.annotation.UiThread;
 
 import java.util.List;
 
+import cz.mzk.tiledimageview.PerformanceStats;
+import cz.mzk.tiledimageview.TiledImageViewConfig;
 import cz.mzk.tiledimageview.TiledImageView.MetadataInitializationListener;
 import cz.mzk.tiledimageview.TiledImageView.MetadataInitializationSuccessListener;
 import cz.mzk.tiledimageview.TiledImageView.TileDownloadErrorListener;
 import cz.mzk.tiledimageview.TiledImageView.TileDownloadSuccessListener;
+import cz.mzk.tiledimageview.TiledImageView.TilesCompositionListener;
 import cz.mzk.tiledimageview.images.metadata.ImageMetadata;
 
 /**
@@ -51,6 +54,28 @@ public interface ImageManager {
      */
     public Bitmap getTile(TilePositionInPyramid tilePositionInPyramid, TileDownloadSuccessListener successListener, TileDownloadErrorListener errorListener);
 
+    /**
+     * Unlike getTile() never schedules fetching.
+     *
+     * @param tilePositionInPyramid
+     * @return tile's bitmap if found in memory cache, null otherwise
+     */
+    public Bitmap getTileFromMemoryCache(TilePositionInPyramid tilePositionInPyramid);
+
+
+    /**
+     * Composes tiles of single layer (all of them must be in memory cache) into single bitmap in background. Only one
+     * composition runs at time. Checks are done before allocating anything, so this can be called for every frame.
+     *
+     * @param maxScale          composition pixels per image coord, composition never has higher resolution than the layer
+     * @param maxPixels         composition with more pixels is not started
+     * @param areaInImageCoords set to area covered by composition (union of tiles' areas) if started
+     * @param listener          internal TiledImageView listener
+     * @return true if composition was started
+     */
+    public boolean enqueueTilesComposition(int layerId, List<TilePositionInPyramid> tiles, double maxScale, int maxPixels,
+                                           Rect areaInImageCoords, TilesCompositionListener listener);
+
 
     //CANCELING RUNNING/SCHEDULED TASKS
 
@@ -64,6 +89,23 @@ public interface ImageManager {
 
     public void cancelAllTasks();
 
+    /**
+     * Applies to tasks enqueued from now on.
+     *
+     * @param config null to use process-wide config, read whenever task is enqueued
+     */
+    public void setConfig(TiledImageViewConfig config);
+
+    /**
+     * @param stats where tile delivery times are recorded, null to stop recording
+     */
+    public void setPerformanceStats(PerformanceStats stats);
+
+    /**
+     * @return number of tile delivery tasks running or waiting for thread
+     */
+    public int getTileDeliveryTasksCount();
+
 
     //STATE & IMAGE METADATA ACCESS
 
@@ -84,9 +126,29 @@ public interface ImageManager {
 
     public int computeBestLayerId(Rect wholeImageInCanvasCoords);
 
-    public List<TilePositionInPyramid> getVisibleTilesForLayer(int layerId, Rect visibleAreaInImageCoords);
+    /**
+     * Methods below are called for every frame, so they write into objects provided by caller instead of allocating new ones.
+     * Tile positions added to result are shared instances and must not be modified.
+     *
+     * @param result cleared and filled with visible tiles
+     */
+    public void getVisibleTilesForLayer(int layerId, Rect visibleAreaInImageCoords, List<TilePositionInPyramid> result);
 
-    public Rect getTileAreaInImageCoords(TilePositionInPyramid tilePositionInPyramid);
+    /**
+     * @param result cleared and filled with tiles within radiusTiles around visible tiles (not including visible tiles), nearest rings first
+     */
+    public void getPrefetchTilesForLayer(int layerId, Rect visibleAreaInImageCoords, int radiusTiles, List<TilePositionInPyramid> result);
+
+    /**
+     * @param ancestorLayerId layer lower than (or same as) tile's layer
+     * @return tile of ancestorLayerId, that covers whole area of given tile. Shared instance.
+     */
+    public TilePositionInPyramid getAncestorTile(TilePositionInPyramid tilePositionInPyramid, int ancestorLayerId);
+
+    /**
+     * @param result set to tile's area in image coords
+     */
+    public void getTileAreaInImageCoords(TilePositionInPyramid tilePositionInPyramid, Rect result);
 
     public String buildTileUrl(TilePositionInPyramid tilePositionInPyramid);
 
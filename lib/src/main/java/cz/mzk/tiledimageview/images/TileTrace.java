@@ -0,0 +1,217 @@
+package cz.mzk.tiledimageview.images;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Process;
+import android.os.Trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide ring buffer of timestamped lifecycle events of tiles (requested, enqueued, disk hit/miss, network,
+ * decoded, stored, delivered, cancelled, ...), so that it is possible to find out why particular tile showed up late.
+ * Buffer keeps last {@link #CAPACITY} events of all images, tiles are identified by cache key.
+ * <p/>
+ * Recording is lock-free and doesn't allocate: writer claims slot by atomic increment and publishes it by its sequence
+ * number, so that reader can skip slots overwritten in the meantime. Buffer can be exported in Chrome trace format
+ * (chrome://tracing, Perfetto), see {@link #exportChromeTrace()}.
+ * <p/>
+ * Background stages of tile delivery are also wrapped in android.os.Trace sections (API 18+) so they are visible in systrace.
+ */
+public class TileTrace {
+
+    public static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    private static final boolean SYSTRACE_AVAILABLE = Build.VERSION.SDK_INT >= 18;
+    private static final Event[] EVENTS = Event.values();
+
+    private static final AtomicLong sNextIndex = new AtomicLong();
+    // index + 1 of event in slot, 0 for empty slot or slot being written
+    private static final AtomicLongArray sSequences = new AtomicLongArray(CAPACITY);
+    private static final long[] sTimestampsNanos = new long[CAPACITY];
+    private static final long[] sThreadIds = new long[CAPACITY];
+    private static final int[] sEvents = new int[CAPACITY];
+    private static final String[] sKeys = new String[CAPACITY];
+    private static volatile boolean sEnabled = true;
+
+    private TileTrace() {
+    }
+
+    /**
+     * Tracing is enabled by default, cost of event is one atomic increment and few array writes.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @param key cache key of tile
+     */
+    public static void record(String key, Event event) {
+        if (!sEnabled) {
+            return;
+        }
+        long index = sNextIndex.getAndIncrement();
+        int slot = (int) (index & MASK);
+        sSequences.set(slot, 0);
+        sTimestampsNanos[slot] = System.nanoTime();
+        sThreadIds[slot] = Thread.currentThread().getId();
+        sEvents[slot] = event.ordinal();
+        sKeys[slot] = key;
+        sSequences.set(slot, index + 1);
+    }
+
+    /**
+     * Events recorded during clearing may survive.
+     */
+    public static void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sSequences.set(i, 0);
+            sKeys[i] = null;
+        }
+    }
+
+    /**
+     * Must be paired with {@link #endSection()} in the same thread. No-op before API 18.
+     *
+     * @param name constant name, so that nothing is allocated
+     */
+    @TargetApi(18)
+    public static void beginSection(String name) {
+        if (SYSTRACE_AVAILABLE) {
+            Trace.beginSection(name);
+        }
+    }
+
+    @TargetApi(18)
+    public static void endSection() {
+        if (SYSTRACE_AVAILABLE) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Exports buffered events, oldest first, as JSON in Chrome trace event format. Every tile task is async slice from
+     * {@link Event#ENQUEUED} to {@link Event#DELIVERED}, {@link Event#FAILED} or {@link Event#CANCELLED}, with all events
+     * of tile as instant events with tile key as id. Rejected task never started a slice, so {@link Event#REJECTED} is
+     * instant event only. Timestamps are in microseconds of System.nanoTime().
+     * <p/>
+     * Can be called from any thread while events are being recorded, slots overwritten during export are skipped.
+     */
+    public static String exportChromeTrace() {
+        int pid = Process.myPid();
+        long last = sNextIndex.get();
+        long first = Math.max(0, last - CAPACITY);
+        StringBuilder builder = new StringBuilder(128 * (int) (last - first) + 32);
+        builder.append("{\"traceEvents\":[");
+        boolean empty = true;
+        for (long index = first; index < last; index++) {
+            int slot = (int) (index & MASK);
+            if (sSequences.get(slot) != index + 1) {
+                continue;
+            }
+            long timestampNanos = sTimestampsNanos[slot];
+            long threadId = sThreadIds[slot];
+            Event event = EVENTS[sEvents[slot]];
+            String key = sKeys[slot];
+            if (sSequences.get(slot) != index + 1 || key == null) {
+                //overwritten while being read
+                continue;
+            }
+            if (event == Event.ENQUEUED) {
+                empty = appendEvent(builder, empty, "tile task", 'b', key, timestampNanos, pid, threadId);
+            }
+            empty = appendEvent(builder, empty, event.name(), 'n', key, timestampNanos, pid, threadId);
+            if (event == Event.DELIVERED || event == Event.FAILED || event == Event.CANCELLED) {
+                empty = appendEvent(builder, empty, "tile task", 'e', key, timestampNanos, pid, threadId);
+            }
+        }
+        builder.append("],\"displayTimeUnit\":\"ms\"}");
+        return builder.toString();
+    }
+
+    private static boolean appendEvent(StringBuilder builder, boolean first, String name, char phase, String key,
+                                       long timestampNanos, int pid, long threadId) {
+        if (!first) {
+            builder.append(',');
+        }
+        builder.append("{\"name\":\"").append(name)
+                .append("\",\"cat\":\"tile\",\"ph\":\"").append(phase)
+                .append("\",\"id\":\"");
+        appendEscaped(builder, key);
+        builder.append("\",\"ts\":").append(timestampNanos / 1000).append('.').append(timestampNanos / 100 % 10)
+                .append(",\"pid\":").append(pid)
+                .append(",\"tid\":").append(threadId)
+                .append('}');
+        return false;
+    }
+
+    private static void appendEscaped(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    public enum Event {
+        /**
+         * Delivery task was created for tile missing in memory cache. Requests for tile that already has task or that
+         * don't fit into full queue are not recorded, they are repeated every frame.
+         */
+        REQUESTED,
+        /**
+         * Delivery task was submitted to executor.
+         */
+        ENQUEUED,
+        /**
+         * Executor rejected delivery task, tile will be requested again.
+         */
+        REJECTED,
+        /**
+         * Task started in background thread.
+         */
+        STARTED,
+        DISK_HIT,
+        DISK_MISS,
+        /**
+         * Before first http request.
+         */
+        NETWORK_START,
+        /**
+         * Response was redirect, another request follows.
+         */
+        REDIRECTED,
+        /**
+         * Whole body of response with tile data was read.
+         */
+        NETWORK_END,
+        /**
+         * Body of response was decoded into bitmap.
+         */
+        DECODED,
+        /**
+         * Bitmap was stored into memory cache (and enqueued to disk cache if it came from network).
+         */
+        STORED,
+        /**
+         * UI thread was notified about tile in memory cache.
+         */
+        DELIVERED,
+        /**
+         * Task finished without tile, because of network or server error.
+         */
+        FAILED,
+        CANCELLED
+    }
+}
@@ -2,6 +2,7 @@ package cz.mzk.tiledimageview.images.cache;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.support.annotation.WorkerThread;
 
 import java.io.File;
 import java.io.IOException;
@@ -14,56 +15,142 @@ import cz.mzk.tiledimageview.Utils;
  */
 public abstract class AbstractCache<Item> implements Cache<Item> {
 
+    //default for items waiting to be written into disk cache, more are dropped
+    public static final int DISK_WRITE_QUEUE_SIZE_ITEMS = 24;
+    //unsharded cache found in root dir is moved here before its entries are moved into shards
+    private static final String UNSHARDED_MIGRATION_SUBDIR = "unsharded";
 
     protected final Logger mLogger;
     private final InflatableLruCache<String, Item> mMemoryCache;
     private Object mMemoryCacheLock = new Object(); //not final, can be possibly replaced
-    private DiskLruCache mDiskCache = null;
+    //disk cache configuration, disk tier itself is opened later by attachDiskCache()
+    private final Context mContext;
+    private final boolean mDiskCacheEnabled;
+    private final String mDiskCacheSubdir;
+    private final long mDiskCacheSizeBytes;
+    private final int mDiskCacheShards;
+    private final int mDiskWriteQueueSizeItems;
+    private final boolean mClearDiskCache;
+    private final Object mDiskTierLock = new Object();
+    /**
+     * Null until disk cache is attached, or if disabled/failed to open. Published at once, so readers see complete tier.
+     */
+    private volatile DiskTier<Item> mDiskTier = null;
+    private boolean mClosed = false;
+    private final CacheStatisticsRecorder mMemoryStatistics = new CacheStatisticsRecorder();
+    private final CacheStatisticsRecorder mDiskStatistics = new CacheStatisticsRecorder();
 
     public AbstractCache(Context context, Logger logger, int memoryCacheSizeItems, boolean diskCacheEnabled, String diskCacheSubdir, long diskCacheSizeBytes, boolean clearDiskCache) {
+        this(context, logger, memoryCacheSizeItems, diskCacheEnabled, diskCacheSubdir, diskCacheSizeBytes, 1, DISK_WRITE_QUEUE_SIZE_ITEMS, clearDiskCache);
+    }
+
+    /**
+     * Only memory cache is created here, so that cache can be used right away. Until {@link #attachDiskCache()} finishes, cache
+     * behaves as if disk cache was disabled.
+     *
+     * @param diskCacheShards         number of independent disk caches, total size is split evenly between them
+     * @param diskWriteQueueSizeItems items waiting to be written into disk cache, more are dropped
+     */
+    public AbstractCache(Context context, Logger logger, int memoryCacheSizeItems, boolean diskCacheEnabled, String diskCacheSubdir, long diskCacheSizeBytes, int diskCacheShards, int diskWriteQueueSizeItems, boolean clearDiskCache) {
+        if (diskCacheShards < 1) {
+            throw new IllegalArgumentException("diskCacheShards < 1");
+        }
+        if (diskWriteQueueSizeItems < 1) {
+            throw new IllegalArgumentException("diskWriteQueueSizeItems < 1");
+        }
         mLogger = logger;
         mMemoryCache = initMemoryCache(memoryCacheSizeItems);
-        if (diskCacheEnabled) {
-            mDiskCache = initDiskCache(context, diskCacheSubdir, diskCacheSizeBytes, clearDiskCache);
-        } else {
-            mDiskCache = null;
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        mDiskCacheEnabled = diskCacheEnabled;
+        mDiskCacheSubdir = diskCacheSubdir;
+        mDiskCacheSizeBytes = diskCacheSizeBytes;
+        mDiskCacheShards = diskCacheShards;
+        mDiskWriteQueueSizeItems = diskWriteQueueSizeItems;
+        mClearDiskCache = clearDiskCache;
+    }
+
+    /**
+     * Opens disk cache (replays journals etc.) and starts using it. Does nothing if disk cache is disabled or already attached.
+     */
+    @WorkerThread
+    public void attachDiskCache() {
+        if (!mDiskCacheEnabled) {
+            return;
+        }
+        synchronized (mDiskTierLock) {
+            if (mDiskTier != null || mClosed) {
+                return;
+            }
+            DiskLruCache[] shards = initDiskCacheShards(mContext, mDiskCacheSubdir, mDiskCacheSizeBytes, mDiskCacheShards, mClearDiskCache);
+            if (shards == null) {
+                return;
+            }
+            DiskLruCache.EvictionListener evictionListener = new DiskLruCache.EvictionListener() {
+                @Override
+                public void onEntryEvicted() {
+                    mDiskStatistics.recordEviction();
+                }
+            };
+            for (DiskLruCache shard : shards) {
+                shard.setEvictionListener(evictionListener);
+            }
+            final DiskLruCache[] targetShards = shards;
+            DiskCacheWriter<Item> writer = new DiskCacheWriter<>(mLogger, mDiskWriteQueueSizeItems, new DiskCacheWriter.ItemWriter<Item>() {
+                @Override
+                public void write(String key, Item item, byte[] originalBytes) {
+                    writeItemToDiskCache(targetShards[shardIndex(key, targetShards.length)], key, item, originalBytes);
+                }
+            });
+            mDiskTier = new DiskTier<>(shards, writer);
+            mLogger.i("disk cache attached");
         }
     }
 
     private InflatableLruCache<String, Item> initMemoryCache(int sizeItems) {
         InflatableLruCache<String, Item> result;
         synchronized (mMemoryCacheLock) {
-            mLogger.v("assumed memory-cache lock (initialization): " + Thread.currentThread().toString());
-            result = new InflatableLruCache<String, Item>(sizeItems, mLogger);
-            mLogger.d("in-memory lru cache allocated for " + sizeItems + " items");
+            mLogger.v("assumed memory-cache lock (initialization): %s", Thread.currentThread());
+            result = new InflatableLruCache<String, Item>(sizeItems, mLogger, mMemoryStatistics);
+            if (Logger.DEBUG_ENABLED) {
+                mLogger.d("in-memory lru cache allocated for " + sizeItems + " items");
+            }
         }
-        mLogger.v("released memory-cache lock (initialization): " + Thread.currentThread().toString());
+        mLogger.v("released memory-cache lock (initialization): %s", Thread.currentThread());
         return result;
     }
 
     @Override
     public Item getItemFromMemoryCache(String key) {
+        long start = System.nanoTime();
         Item result;
         synchronized (mMemoryCacheLock) {
-            mLogger.v("assumed memory-cache lock (get): " + Thread.currentThread().toString());
+            // memory cache is accessed for every tile in every frame
+            mLogger.v("assumed memory-cache lock (get): %s", Thread.currentThread());
             result = mMemoryCache.get(key);
         }
-        mLogger.v("released memory-cache lock (get): " + Thread.currentThread().toString());
+        mLogger.v("released memory-cache lock (get): %s", Thread.currentThread());
+        if (result != null) {
+            mMemoryStatistics.recordHit(System.nanoTime() - start, getItemBytes(result));
+        } else {
+            mMemoryStatistics.recordMiss(System.nanoTime() - start);
+        }
         return result;
     }
 
     @Override
     public void storeItemToMemoryCache(String key, Item item) {
+        long start = System.nanoTime();
         synchronized (mMemoryCacheLock) {
-            mLogger.v("assumed memory-cache lock (store): " + Thread.currentThread().toString());
+            mLogger.v("assumed memory-cache lock (store): %s", Thread.currentThread());
             if (mMemoryCache.get(key) == null) {
-                mLogger.d("storing to memory cache: " + key);
+                mLogger.d("storing to memory cache: %s", key);
                 mMemoryCache.put(key, item);
+                mMemoryStatistics.recordStore(System.nanoTime() - start, getItemBytes(item));
             } else {
-                mLogger.d("already in memory cache: " + key);
+                mLogger.d("already in memory cache: %s", key);
             }
         }
-        mLogger.v("released memory-cache lock (store): " + Thread.currentThread().toString());
+        mLogger.v("released memory-cache lock (store): %s", Thread.currentThread());
     }
 
 
@@ -74,26 +161,177 @@ public abstract class AbstractCache<Item> implements Cache<Item> {
         }
     }
 
-    private DiskLruCache initDiskCache(Context context, String subdir, long sizeBytes, boolean clearCache) {
-        try {
-            File cacheDir = getDiskCacheDir(context, subdir);
-            int appVersion = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
-            if (cacheDir.exists()) {
-                if (clearCache) {
-                    mLogger.i("clearing disk cache");
-                    boolean cleared = DiskUtils.deleteDirContent(cacheDir);
-                    if (!cleared) {
-                        mLogger.w("failed to delete content of " + cacheDir.getAbsolutePath() + ", disabling disk cache");
-                        return null;
+    private DiskLruCache[] initDiskCacheShards(Context context, String subdir, long sizeBytes, int shards, boolean clearCache) {
+        File rootDir = getDiskCacheDir(context, subdir);
+        //layout left by previous run, migrated into current one unless the cache is cleared anyway
+        int shardsBefore = clearCache ? 0 : countShardDirs(rootDir);
+        File unshardedDir = new File(rootDir, UNSHARDED_MIGRATION_SUBDIR);
+        if (shards > 1 && !clearCache && new File(rootDir, DiskLruCache.JOURNAL_FILE).exists()) {
+            moveUnshardedDiskCacheAside(rootDir, unshardedDir);
+        }
+        DiskLruCache[] result;
+        if (shards == 1) {
+            //unsharded cache lives directly in subdir
+            DiskLruCache cache = initDiskCache(context, rootDir, sizeBytes, clearCache);
+            if (cache == null) {
+                return null;
+            }
+            result = new DiskLruCache[]{cache};
+        } else {
+            if (!prepareDiskCacheDir(rootDir, clearCache)) {
+                return null;
+            }
+            result = new DiskLruCache[shards];
+            long shardSizeBytes = sizeBytes / shards;
+            for (int i = 0; i < shards; i++) {
+                //root dir already cleared
+                result[i] = initDiskCache(context, new File(rootDir, String.valueOf(i)), shardSizeBytes, false);
+                if (result[i] == null) {
+                    for (int j = 0; j < i; j++) {
+                        DiskLruCache.closeQuietly(result[j]);
                     }
+                    return null;
                 }
+            }
+            mLogger.i("disk cache split into " + shards + " shards");
+        }
+        if (unshardedDir.isDirectory()) {
+            migrateUnshardedDiskCache(context, unshardedDir, result);
+        }
+        if (shardsBefore > 0 && shardsBefore != shards) {
+            migrateDiskCacheShards(context, rootDir, shardsBefore, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return number of shard directories (0, 1, ...) in cache dir, 0 for unsharded or missing cache
+     */
+    private static int countShardDirs(File rootDir) {
+        int result = 0;
+        while (new File(rootDir, String.valueOf(result)).isDirectory()) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Files of cache left directly in root dir are moved into its own subdir first, so that if that cache turns out to be corrupted,
+     * only the subdir is cleared and not the shards.
+     */
+    private void moveUnshardedDiskCacheAside(File rootDir, File unshardedDir) {
+        if (!unshardedDir.isDirectory() && !unshardedDir.mkdir()) {
+            mLogger.w("failed to create " + unshardedDir.getAbsolutePath());
+            return;
+        }
+        File[] files = rootDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.renameTo(new File(unshardedDir, file.getName()))) {
+                    mLogger.w("failed to move " + file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Entries of unsharded cache (moved aside from root dir) are moved into shards, then the cache is removed.
+     */
+    private void migrateUnshardedDiskCache(Context context, File unshardedDir, DiskLruCache[] shards) {
+        mLogger.i("migrating unsharded disk cache into " + shards.length + " shards");
+        DiskLruCache unsharded = initDiskCache(context, unshardedDir, Long.MAX_VALUE, false);
+        if (unsharded != null) {
+            moveEntries(unsharded, shards, -1);
+            DiskLruCache.closeQuietly(unsharded);
+        }
+        DiskUtils.deleteWithContent(unshardedDir);
+    }
+
+    /**
+     * Entries of shards created with different number of shards are moved where keys belong now. Shard directories that are not
+     * used anymore are removed.
+     */
+    private void migrateDiskCacheShards(Context context, File rootDir, int shardsBefore, DiskLruCache[] shards) {
+        mLogger.i("migrating disk cache from " + shardsBefore + " into " + shards.length + " shards");
+        for (int i = 0; i < shardsBefore; i++) {
+            if (shards.length > 1 && i < shards.length) {
+                //still used, only keys belonging elsewhere are moved
+                moveEntries(shards[i], shards, i);
             } else {
-                mLogger.i("creating disk cache dir " + cacheDir);
-                boolean created = cacheDir.mkdir();
-                if (!created) {
-                    mLogger.w("failed to create disk cache dir " + cacheDir.getAbsolutePath() + ", disabling disk cache");
-                    return null;
+                File shardDir = new File(rootDir, String.valueOf(i));
+                DiskLruCache shard = initDiskCache(context, shardDir, Long.MAX_VALUE, false);
+                if (shard != null) {
+                    moveEntries(shard, shards, -1);
+                    DiskLruCache.closeQuietly(shard);
                 }
+                DiskUtils.deleteWithContent(shardDir);
+            }
+        }
+    }
+
+    /**
+     * Moves entries from source to shards they belong to (least recently used first, so that access order is roughly kept). If
+     * target shard is full, its least recently used entries are evicted as usual.
+     *
+     * @param sourceShard index of source among shards (entries belonging there stay), -1 if source is not among them
+     */
+    private void moveEntries(DiskLruCache source, DiskLruCache[] shards, int sourceShard) {
+        int moved = 0;
+        for (String key : source.getKeys()) {
+            int shard = shardIndex(key, shards.length);
+            if (shard == sourceShard) {
+                continue;
+            }
+            try {
+                DiskLruCache.Snapshot snapshot = source.get(key);
+                if (snapshot != null) {
+                    byte[] bytes;
+                    try {
+                        bytes = DiskLruCache.readFully(snapshot.getInputStream(0));
+                    } finally {
+                        snapshot.close();
+                    }
+                    if (!shards[shard].containsReadable(key)) {
+                        shards[shard].storeBytes(0, key, bytes);
+                        moved++;
+                    }
+                }
+                source.remove(key);
+            } catch (DiskLruCache.DiskLruCacheException e) {
+                mLogger.w("failed to move disk cache entry: " + key, e);
+            } catch (IOException e) {
+                mLogger.w("failed to move disk cache entry: " + key, e);
+            }
+        }
+        mLogger.i("moved " + moved + " entries from " + source.getDirectory().getAbsolutePath());
+    }
+
+    private boolean prepareDiskCacheDir(File cacheDir, boolean clearCache) {
+        if (cacheDir.exists()) {
+            if (clearCache) {
+                mLogger.i("clearing disk cache");
+                boolean cleared = DiskUtils.deleteDirContent(cacheDir);
+                if (!cleared) {
+                    mLogger.w("failed to delete content of " + cacheDir.getAbsolutePath() + ", disabling disk cache");
+                    return false;
+                }
+            }
+        } else {
+            mLogger.i("creating disk cache dir " + cacheDir);
+            boolean created = cacheDir.mkdir();
+            if (!created) {
+                mLogger.w("failed to create disk cache dir " + cacheDir.getAbsolutePath() + ", disabling disk cache");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private DiskLruCache initDiskCache(Context context, File cacheDir, long sizeBytes, boolean clearCache) {
+        try {
+            int appVersion = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+            if (!prepareDiskCacheDir(cacheDir, clearCache)) {
+                return null;
             }
             mLogger.d("disk cache dir: " + cacheDir.getAbsolutePath());
             DiskLruCache result = DiskLruCache.open(cacheDir, appVersion, 1, sizeBytes);
@@ -134,15 +372,16 @@ public abstract class AbstractCache<Item> implements Cache<Item> {
 
     @Override
     public boolean isDiskCacheEnabled() {
-        return mDiskCache != null;
+        return mDiskTier != null;
     }
 
 
     @Override
     public boolean isItemInDiskCache(String key) {
-        if (mDiskCache != null) {
+        DiskTier<Item> diskTier = mDiskTier;
+        if (diskTier != null) {
             try {
-                return mDiskCache.containsReadable(key);
+                return diskTier.shard(key).containsReadable(key);
             } catch (IOException e) {
                 mLogger.v("isItemInDiskCache error: " + key, e);
                 return false;
@@ -155,26 +394,51 @@ public abstract class AbstractCache<Item> implements Cache<Item> {
 
     @Override
     public void close() {
-        try {
-            mDiskCache.flush();
-        } catch (DiskLruCache.DiskLruCacheException e) {
-            mLogger.e("Error flushing disk cache");
-        } finally {
+        DiskTier<Item> diskTier;
+        synchronized (mDiskTierLock) {
+            mClosed = true;
+            diskTier = mDiskTier;
+            mDiskTier = null;
+        }
+        if (diskTier == null) {
+            return;
+        }
+        //write out items still waiting in queue
+        diskTier.mWriter.close();
+        for (int i = 0; i < diskTier.mShards.length; i++) {
             try {
-                mDiskCache.close();
-            } catch (IOException e) {
-                mLogger.e("Error closing disk cache");
+                diskTier.mShards[i].flush();
+            } catch (DiskLruCache.DiskLruCacheException e) {
+                mLogger.e("Error flushing disk cache");
+            } finally {
+                try {
+                    diskTier.mShards[i].close();
+                } catch (IOException e) {
+                    mLogger.e("Error closing disk cache");
+                }
             }
         }
     }
 
+    /**
+     * Single lookup, no need to call {@link #isItemInDiskCache(String)} first.
+     *
+     * @return item or null if not found in disk cache (or disk cache disabled)
+     */
     @Override
     public Item getItemFromDiskCache(String key) {
-        if (mDiskCache != null) {
+        DiskTier<Item> diskTier = mDiskTier;
+        if (diskTier != null) {
+            long start = System.nanoTime();
             try {
-                return getItem(mDiskCache, key);
+                Item item = getItem(diskTier.shard(key), key, start);
+                if (item == null) {
+                    mDiskStatistics.recordMiss(System.nanoTime() - start);
+                }
+                return item;
             } catch (DiskLruCache.DiskLruCacheException e) {
                 mLogger.w("error loading from disk cache: " + key, e);
+                mDiskStatistics.recordMiss(System.nanoTime() - start);
                 return null;
             }
         } else {
@@ -182,26 +446,140 @@ public abstract class AbstractCache<Item> implements Cache<Item> {
         }
     }
 
+    /**
+     * Records hit, invalid items are removed.
+     *
+     * @return item or null if not found or invalid
+     */
+    private Item getItem(DiskLruCache diskCache, String key, long start) throws DiskLruCache.DiskLruCacheException {
+        DiskLruCache.Snapshot snapshot = diskCache.get(key);
+        if (snapshot == null) {
+            return null;
+        }
+        Item item;
+        try {
+            item = readItem(snapshot, key);
+        } finally {
+            snapshot.close();
+        }
+        if (item == null) {
+            mLogger.w("item from disk cache was null, removing record");
+            diskCache.remove(key);
+        } else {
+            mDiskStatistics.recordHit(System.nanoTime() - start, snapshot.getLength(0));
+        }
+        return item;
+    }
+
+    /**
+     * Item is only queued here and written by background writer. If the queue is full, item is not stored at all.
+     */
     @Override
     public void storeItemToDiskCache(String key, Item item) {
-        if (mDiskCache != null) {
-            try {
-                DiskLruCache.Snapshot fromDiskCache = mDiskCache.get(key);
-                if (fromDiskCache != null) {
-                    mLogger.d("already in disk cache: " + key);
-                } else {
-                    mLogger.d("storing into disk cache: " + key);
-                    storeItem(mDiskCache, key, item);
-                }
-            } catch (DiskLruCache.DiskLruCacheException e) {
-                mLogger.e("failed to store into disk cache: " + key, e);
+        storeItemToDiskCache(key, item, null);
+    }
+
+    @Override
+    public void storeItemToDiskCache(String key, Item item, byte[] originalBytes) {
+        DiskTier<Item> diskTier = mDiskTier;
+        if (diskTier != null) {
+            diskTier.mWriter.enqueue(key, item, originalBytes);
+        }
+    }
+
+    @Override
+    public int getDiskWriteQueueDepth() {
+        DiskTier<Item> diskTier = mDiskTier;
+        return diskTier != null ? diskTier.mWriter.getQueueDepth() : 0;
+    }
+
+    @Override
+    public long getDiskWritesDropped() {
+        DiskTier<Item> diskTier = mDiskTier;
+        return diskTier != null ? diskTier.mWriter.getDroppedWrites() : 0;
+    }
+
+    private void writeItemToDiskCache(DiskLruCache diskCache, String key, Item item, byte[] originalBytes) {
+        try {
+            if (diskCache.containsReadable(key)) {
+                mLogger.d("already in disk cache: %s", key);
+            } else {
+                mLogger.d("storing into disk cache: %s", key);
+                long start = System.nanoTime();
+                long bytes = storeItem(diskCache, key, item, originalBytes);
+                mDiskStatistics.recordStore(System.nanoTime() - start, bytes);
             }
+        } catch (DiskLruCache.DiskLruCacheException e) {
+            mLogger.e("failed to store into disk cache: " + key, e);
+        } catch (IOException e) {
+            mLogger.e("failed to store into disk cache: " + key, e);
         }
     }
 
-    abstract Item getItem(DiskLruCache diskCache, String key) throws DiskLruCache.DiskLruCacheException;
+    /**
+     * Snapshot is closed by caller.
+     *
+     * @return item or null if snapshot's data is invalid
+     */
+    abstract Item readItem(DiskLruCache.Snapshot snapshot, String key) throws DiskLruCache.DiskLruCacheException;
+
+    /**
+     * @return bytes written
+     */
+    abstract long storeItem(DiskLruCache diskCache, String key, Item item) throws DiskLruCache.DiskLruCacheException;
+
+    /**
+     * Original bytes are ignored by default.
+     *
+     * @param originalBytes item's original encoded form, null if not available
+     * @return bytes written
+     */
+    long storeItem(DiskLruCache diskCache, String key, Item item, byte[] originalBytes) throws DiskLruCache.DiskLruCacheException {
+        return storeItem(diskCache, key, item);
+    }
 
-    abstract void storeItem(DiskLruCache diskCache, String key, Item item) throws DiskLruCache.DiskLruCacheException;
+    /**
+     * @return memory occupied by item, called for every memory cache hit so it must be cheap
+     */
+    abstract long getItemBytes(Item item);
+
+    @Override
+    public CacheStatistics getMemoryCacheStatistics() {
+        return mMemoryStatistics.snapshot();
+    }
+
+    @Override
+    public CacheStatistics getDiskCacheStatistics() {
+        return mDiskStatistics.snapshot();
+    }
+
+    @Override
+    public void resetStatistics() {
+        mMemoryStatistics.reset();
+        mDiskStatistics.reset();
+    }
+
+    private static int shardIndex(String key, int shards) {
+        return (key.hashCode() & 0x7fffffff) % shards;
+    }
+
+    /**
+     * Independent disk caches (own directory, journal and lock), key is assigned to shard by hash. Single writer dispatches items
+     * to their shards, so that all writes of given key happen in the same thread.
+     */
+    private static class DiskTier<Item> {
+        private final DiskLruCache[] mShards;
+        private final DiskCacheWriter<Item> mWriter;
+
+        DiskTier(DiskLruCache[] shards, DiskCacheWriter<Item> writer) {
+            mShards = shards;
+            mWriter = writer;
+        }
+
+        DiskLruCache shard(String key) {
+            return mShards[shardIndex(key, mShards.length)];
+        }
+    }
 
 
 }
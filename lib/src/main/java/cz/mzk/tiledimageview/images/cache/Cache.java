@@ -24,6 +24,15 @@ public interface Cache<Item> {
 
     //DISK
 
+    /**
+     * Opens disk cache. Until then (or if disk cache is disabled) cache works as memory-only.
+     */
+    @WorkerThread
+    public void attachDiskCache();
+
+    /**
+     * @return true once disk cache is attached and usable
+     */
     @WorkerThread
     public boolean isDiskCacheEnabled();
 
@@ -33,9 +42,43 @@ public interface Cache<Item> {
     @WorkerThread
     public Item getItemFromDiskCache(String key);
 
+    /**
+     * Doesn't block on disk, item is written by background writer later.
+     */
     @WorkerThread
     public void storeItemToDiskCache(String key, Item item);
 
+    /**
+     * Same as {@link #storeItemToDiskCache(String, Object)}, item's original encoded form (e.g. as downloaded) may be stored
+     * instead of encoding item again.
+     *
+     * @param originalBytes null if not available
+     */
+    @WorkerThread
+    public void storeItemToDiskCache(String key, Item item, byte[] originalBytes);
+
+    /**
+     * @return number of items waiting to be written into disk cache
+     */
+    public int getDiskWriteQueueDepth();
+
+    /**
+     * @return number of items not written into disk cache because write queue was full
+     */
+    public long getDiskWritesDropped();
+
+
+    //STATISTICS
+
+    public CacheStatistics getMemoryCacheStatistics();
+
+    /**
+     * Requests made before disk cache is attached are not counted.
+     */
+    public CacheStatistics getDiskCacheStatistics();
+
+    public void resetStatistics();
+
     // TODO: 11.12.15 use when something like Application.onDestroyed() is implemented
     // or at least create method flush() annd call it when destroying the view
     @WorkerThread
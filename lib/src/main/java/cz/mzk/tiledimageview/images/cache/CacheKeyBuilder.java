@@ -1,111 +1,147 @@
 package cz.mzk.tiledimageview.images.cache;
 
-import android.util.LruCache;
-
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-
-import cz.mzk.tiledimageview.Logger;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Created by Martin Řehánek on 7.12.15.
+ * <p/>
+ * Builds keys usable as file names in disk cache. Url is encoded in single pass: well known substrings are replaced with short
+ * escape sequences and characters problematic in file names are escaped using lookup table. No locking, no shared state
+ * besides thread-local digest.
+ * <p/>
+ * Keys for urls that would be longer than {@link #MAX_KEY_LENGTH} consist of readable prefix and 128-bit hash of the whole url,
+ * so all keys fit into file name limits. Hashed keys are exactly {@link #HASHED_KEY_LENGTH} characters long, one more than
+ * any key built by encoding alone, so they can't be equal to encoded key of another url.
+ * <p/>
+ * Encoding is the same as it used to be with key cache and multiple replace passes, so entries already in disk cache keep being
+ * found. Only entries for too long urls (those used to produce keys longer than 127 characters) aren't found anymore and are
+ * eventually evicted from disk cache.
+ * <p/>
+ * Built keys are kept by image managers in their key tables, so key of every tile is built once per image manager.
  */
 public class CacheKeyBuilder {
 
-    private static final Logger LOGGER = new Logger(CacheKeyBuilder.class);
-    //caching seems reasonable - decreseas overall time spent in buildKeyFromUrl (5 % -> 1.5 % for typical use cases) according to profiler. And synchronization doesn't cause much unnecessary blocking.
-    private static final boolean CACHE_KEYS = true;
-    private static final Object lock = CACHE_KEYS ? new Object() : null;
+    /**
+     * Longest key built by encoding alone.
+     */
+    public static final int MAX_KEY_LENGTH = 127;
+    public static final int HASHED_KEY_LENGTH = MAX_KEY_LENGTH + 1;
     private static final char ESCAPE_CHAR = '_';
-    private static final Map<Character, Character> POSSIBLY_RESERVED_CHARS = initPossiblyReservedChars();
-    private static final Map<String, Character> ESCAPED_SUBSTRINGS = initEscapedStrings();
-    private static final LruCache<String, String> KEY_CACHE = CACHE_KEYS ? new LruCache<String, String>(50) : null;
+    //separates prefix and hash for readability only, url may contain it as well, hashed keys are told apart by their length
+    private static final String HASH_MARK = "_z";
+    private static final int HASH_HEX_LENGTH = 32;
+    private static final int HASHED_KEY_PREFIX_LENGTH = HASHED_KEY_LENGTH - HASH_MARK.length() - HASH_HEX_LENGTH;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
-    private static Map<String, Character> initEscapedStrings() {
-        Map<String, Character> map = new HashMap<>();
-        map.put("ImageProperties.xml", Character.valueOf('1'));
-        map.put("http://", Character.valueOf('2'));
-        map.put("https://", Character.valueOf('3'));
-        map.put(".jpg", Character.valueOf('4'));
-        map.put("TileGroup", Character.valueOf('5'));
-        return map;
-    }
+    private static final String[] ESCAPED_SUBSTRINGS = {"ImageProperties.xml", "http://", "https://", ".jpg", "TileGroup"};
+    private static final char[] ESCAPED_SUBSTRINGS_CODES = {'1', '2', '3', '4', '5'};
+    /**
+     * Escape code for ascii characters, 0 if character is kept as it is. Problematic characters in file names according to
+     * https://en.wikipedia.org/wiki/Filename#Reserved_characters_and_words
+     */
+    private static final char[] RESERVED_CHAR_CODES = initReservedCharCodes();
 
-    private static Map<Character, Character> initPossiblyReservedChars() {
-        Map<Character, Character> map = new HashMap<>();
-        //Problematic characters in file names according to https://en.wikipedia.org/wiki/Filename#Reserved_characters_and_words
-        map.put(Character.valueOf('/'), Character.valueOf('a'));
-        map.put(Character.valueOf('\\'), Character.valueOf('b'));
-        map.put(Character.valueOf('?'), Character.valueOf('c'));
-        map.put(Character.valueOf('%'), Character.valueOf('d'));
-        map.put(Character.valueOf('*'), Character.valueOf('e'));
-        map.put(Character.valueOf(':'), Character.valueOf('f'));
-        map.put(Character.valueOf('|'), Character.valueOf('g'));
-        map.put(Character.valueOf('"'), Character.valueOf('h'));
-        map.put(Character.valueOf('<'), Character.valueOf('i'));
-        map.put(Character.valueOf('>'), Character.valueOf('j'));
-        map.put(Character.valueOf('.'), Character.valueOf('k'));
-        map.put(Character.valueOf(':'), Character.valueOf('l'));
-        map.put(Character.valueOf('('), Character.valueOf('m'));
-        map.put(Character.valueOf(')'), Character.valueOf('n'));
-        map.put(Character.valueOf('&'), Character.valueOf('o'));
-        map.put(Character.valueOf(';'), Character.valueOf('p'));
-        map.put(Character.valueOf('#'), Character.valueOf('q'));
-        return map;
+    private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
+    private static char[] initReservedCharCodes() {
+        char[] table = new char[128];
+        table['/'] = 'a';
+        table['\\'] = 'b';
+        table['?'] = 'c';
+        table['%'] = 'd';
+        table['*'] = 'e';
+        table[':'] = 'l';
+        table['|'] = 'g';
+        table['"'] = 'h';
+        table['<'] = 'i';
+        table['>'] = 'j';
+        table['.'] = 'k';
+        table['('] = 'm';
+        table[')'] = 'n';
+        table['&'] = 'o';
+        table[';'] = 'p';
+        table['#'] = 'q';
+        return table;
     }
 
     public static String buildKeyFromUrl(String url) {
-        if (CACHE_KEYS) {
-            synchronized (lock) {
-                String fromCache = KEY_CACHE.get(url);
-                if (fromCache != null) {
-                    if (fromCache.length() > 127) {
-                        LOGGER.w("cache key is longer then 127 characters");
-                    }
-                    return fromCache;
+        String encoded = encode(url);
+        if (encoded.length() <= MAX_KEY_LENGTH) {
+            return encoded;
+        } else {
+            return encoded.substring(0, HASHED_KEY_PREFIX_LENGTH) + HASH_MARK + md5Hex(url);
+        }
+    }
+
+    private static String encode(String url) {
+        int length = url.length();
+        char[] result = new char[length * 2];
+        int resultLength = 0;
+        int i = 0;
+        while (i < length) {
+            int substring = escapedSubstringAt(url, i);
+            if (substring != -1) {
+                result[resultLength++] = ESCAPE_CHAR;
+                result[resultLength++] = ESCAPED_SUBSTRINGS_CODES[substring];
+                i += ESCAPED_SUBSTRINGS[substring].length();
+            } else {
+                char c = url.charAt(i);
+                char code = c < RESERVED_CHAR_CODES.length ? RESERVED_CHAR_CODES[c] : 0;
+                if (code != 0) {
+                    result[resultLength++] = ESCAPE_CHAR;
+                    result[resultLength++] = code;
                 } else {
-                    String escapedSubstrings = escapeSubstrings(url);
-                    String result = escapeSpecialChars(escapedSubstrings);
-                    KEY_CACHE.put(url, result);
-                    if (result.length() > 127) {
-                        LOGGER.w("cache key is longer then 127 characters");
-                    }
-                    return result;
+                    result[resultLength++] = c;
                 }
+                i++;
             }
-        } else {
-            String escapedSubstrings = escapeSubstrings(url);
-            String result = escapeSpecialChars(escapedSubstrings);
-            if (result.length() > 127) {
-                LOGGER.w("cache key is longer then 127 characters");
-            }
-            return result;
         }
+        return new String(result, 0, resultLength);
     }
 
-    private static String escapeSubstrings(String url) {
-        Character escapCharacter = Character.valueOf(ESCAPE_CHAR);
-        for (String substring : ESCAPED_SUBSTRINGS.keySet()) {
-            String replacement = new StringBuilder().append(escapCharacter).append(ESCAPED_SUBSTRINGS.get(substring)).toString();
-            url = url.replace(substring, replacement);
+    /**
+     * @return index into {@link #ESCAPED_SUBSTRINGS} or -1
+     */
+    private static int escapedSubstringAt(String url, int position) {
+        switch (url.charAt(position)) {
+            case 'I':
+            case 'h':
+            case '.':
+            case 'T':
+                for (int s = 0; s < ESCAPED_SUBSTRINGS.length; s++) {
+                    if (url.startsWith(ESCAPED_SUBSTRINGS[s], position)) {
+                        return s;
+                    }
+                }
+                return -1;
+            default:
+                return -1;
         }
-        return url;
     }
 
-    private static String escapeSpecialChars(String url) {
-        StringBuilder builder = new StringBuilder();
-        Set<Character> keys = POSSIBLY_RESERVED_CHARS.keySet();
-        for (int i = 0; i < url.length(); i++) {
-            char original = url.charAt(i);
-            Character key = Character.valueOf(original);
-            if (keys.contains(key)) {
-                builder.append(ESCAPE_CHAR).append(POSSIBLY_RESERVED_CHARS.get(key));
-            } else {
-                builder.append(original);
+    private static String md5Hex(String url) {
+        try {
+            byte[] digest = MD5.get().digest(url.getBytes("UTF-8"));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0f];
             }
+            return new String(hex);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
         }
-        return builder.toString();
     }
 
 }
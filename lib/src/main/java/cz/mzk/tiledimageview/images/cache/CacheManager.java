@@ -4,11 +4,13 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Rect;
 import android.os.Build;
+import android.support.annotation.UiThread;
 import android.support.annotation.WorkerThread;
 import android.view.Display;
 import android.view.WindowManager;
 
 import cz.mzk.tiledimageview.Logger;
+import cz.mzk.tiledimageview.TiledImageViewConfig;
 
 /**
  * @author Martin Řehánek
@@ -20,21 +22,32 @@ public class CacheManager {
 
     private static MetadataCache metadataCache;
     private static TileCache tileCache;
-    private static boolean initialized = false;
+    private static volatile boolean initialized = false;
+    private static boolean diskCachesEnabled = false;
+    private static boolean diskCachesAttachmentStarted = false;
 
     /**
+     * Creates memory caches only, so it's cheap and caches can be used right away. Disk caches are opened later by
+     * {@link #attachDiskCaches()}, until then caches work as memory-only.
+     *
      * @param context
-     * @param clearDiskCache whether disk cache should be cleared when application starts
+     * @param config  cache part of configuration
      */
-    @WorkerThread
-    public static void initialize(Context context, boolean diskCacheEnabled, boolean clearDiskCache, long tileDiskCacheBytes) {
+    @UiThread
+    public static void initialize(Context context, TiledImageViewConfig config) {
         if (initialized) {
             LOGGER.w("already initialized");
         } else {
             LOGGER.i("initializing");
-            int memoryCacheMaxItems = computeMaxTilesOnScreen(context) * 2;
-            metadataCache = new MetadataCache(context, diskCacheEnabled, clearDiskCache);
-            tileCache = new TileCache(context, memoryCacheMaxItems, diskCacheEnabled, tileDiskCacheBytes, clearDiskCache);
+            int tileMemoryCacheMaxItems = config.getTileMemoryCacheSizeItems();
+            if (tileMemoryCacheMaxItems == 0) {
+                tileMemoryCacheMaxItems = computeMaxTilesOnScreen(context) * 2;
+            }
+            metadataCache = new MetadataCache(context, config.getMetadataMemoryCacheSizeItems(), config.isDiskCacheEnabled(),
+                    config.getMetadataDiskCacheSizeBytes(), config.getDiskWriteQueueSizeItems(), config.isClearDiskCacheOnStart());
+            tileCache = new TileCache(context, tileMemoryCacheMaxItems, config.isDiskCacheEnabled(), config.getTileDiskCacheSizeBytes(),
+                    config.getTileDiskCacheShards(), config.getDiskWriteQueueSizeItems(), config.getTileEncodingPolicy(), config.getTileDecodeConfig(), config.isClearDiskCacheOnStart());
+            diskCachesEnabled = config.isDiskCacheEnabled();
             initialized = true;
         }
     }
@@ -43,6 +56,39 @@ public class CacheManager {
         return initialized;
     }
 
+    /**
+     * @return true if disk caches are enabled and nobody has started attaching them yet. Marks attachment as started.
+     */
+    @UiThread
+    public static boolean startDiskCachesAttachment() {
+        if (!initialized || !diskCachesEnabled || diskCachesAttachmentStarted) {
+            return false;
+        } else {
+            diskCachesAttachmentStarted = true;
+            return true;
+        }
+    }
+
+    /**
+     * Attachment task could not be executed, so that another view can try it again.
+     */
+    @UiThread
+    public static void cancelDiskCachesAttachment() {
+        diskCachesAttachmentStarted = false;
+    }
+
+    /**
+     * Opens disk caches, metadata cache first since metadata is needed before any tile.
+     */
+    @WorkerThread
+    public static void attachDiskCaches() {
+        if (!initialized) {
+            throw new IllegalStateException(CacheManager.class.getSimpleName() + " has not been initialized");
+        }
+        metadataCache.attachDiskCache();
+        tileCache.attachDiskCache();
+    }
+
     @SuppressWarnings("deprecation")
     @SuppressLint("NewApi")
     private static int computeMaxTilesOnScreen(Context context) {
@@ -87,4 +133,33 @@ public class CacheManager {
         return metadataCache;
     }
 
+    //STATISTICS
+    //counters are lock-free, so snapshots can be taken from any thread
+
+    public static CacheStatistics getTileMemoryCacheStatistics() {
+        return getTileCache().getMemoryCacheStatistics();
+    }
+
+    public static CacheStatistics getTileDiskCacheStatistics() {
+        return getTileCache().getDiskCacheStatistics();
+    }
+
+    public static CacheStatistics getMetadataMemoryCacheStatistics() {
+        return getMetadataCache().getMemoryCacheStatistics();
+    }
+
+    public static CacheStatistics getMetadataDiskCacheStatistics() {
+        return getMetadataCache().getDiskCacheStatistics();
+    }
+
+    /**
+     * Resets counters of all caches.
+     */
+    public static void resetStatistics() {
+        if (initialized) {
+            tileCache.resetStatistics();
+            metadataCache.resetStatistics();
+        }
+    }
+
 }
@@ -1,31 +1,103 @@
 package cz.mzk.tiledimageview.images.cache;
 
+import cz.mzk.tiledimageview.Histogram;
+
+/**
+ * Snapshot of single cache tier's counters, see {@link CacheManager}. Doesn't change after it is created.
+ */
 public class CacheStatistics {
-    private final long totalServingTime;
-    private final int hitCount;
-    private final int missCount;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long bytesStored;
+    private final long bytesRead;
+    private final Histogram readLatencyNanos;
+    private final Histogram storeLatencyNanos;
 
-    public CacheStatistics(long totalServingTime, int hitCount, int missCount) {
-        this.totalServingTime = totalServingTime;
+    public CacheStatistics(long hitCount, long missCount, long evictionCount, long bytesStored, long bytesRead,
+                           Histogram readLatencyNanos, Histogram storeLatencyNanos) {
         this.hitCount = hitCount;
         this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.bytesStored = bytesStored;
+        this.bytesRead = bytesRead;
+        this.readLatencyNanos = readLatencyNanos;
+        this.storeLatencyNanos = storeLatencyNanos;
     }
 
-    public int getRequests() {
+    public long getRequests() {
         return hitCount + missCount;
     }
 
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return 0 if there were no requests
+     */
     public float getHitRatio() {
-        int requests = getRequests();
-        return ((float) hitCount) / requests;
+        long requests = getRequests();
+        return requests == 0 ? 0f : hitCount / (float) requests;
     }
 
+    /**
+     * @return 0 if there were no requests
+     */
     public float getMissRatio() {
-        int requests = getRequests();
-        return missCount / (float) requests;
+        long requests = getRequests();
+        return requests == 0 ? 0f : missCount / (float) requests;
+    }
+
+    /**
+     * @return items removed to make room for others
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return size of items stored, as encoded on disk for disk tiers and as allocated in memory for memory tiers
+     */
+    public long getBytesStored() {
+        return bytesStored;
     }
 
+    /**
+     * @return size of items returned by hits, same units as {@link #getBytesStored()}
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return average time of serving request (both hits and misses) in nanoseconds
+     */
     public float getAverageTime() {
-        return totalServingTime / (float) getRequests();
+        return (float) readLatencyNanos.getMean();
+    }
+
+    /**
+     * @return time of serving requests, both hits and misses
+     */
+    public Histogram getReadLatencyNanos() {
+        return readLatencyNanos;
+    }
+
+    /**
+     * @return time of storing items
+     */
+    public Histogram getStoreLatencyNanos() {
+        return storeLatencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d, misses=%d (hit ratio %.2f), evictions=%d, stored=%d B, read=%d B, read latency [ns]: %s, store latency [ns]: %s",
+                hitCount, missCount, getHitRatio(), evictionCount, bytesStored, bytesRead, readLatencyNanos, storeLatencyNanos);
     }
 }
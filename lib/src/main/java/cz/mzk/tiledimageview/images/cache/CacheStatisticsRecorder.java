@@ -0,0 +1,55 @@
+package cz.mzk.tiledimageview.images.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import cz.mzk.tiledimageview.ConcurrentHistogram;
+
+/**
+ * Lock-free counters of single cache tier. Caches are accessed from UI thread and many worker threads at once, so every
+ * counter is atomic on its own and recording never blocks nor allocates.
+ */
+class CacheStatisticsRecorder {
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private final AtomicLong mBytesStored = new AtomicLong();
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final ConcurrentHistogram mReadLatencyNanos = new ConcurrentHistogram();
+    private final ConcurrentHistogram mStoreLatencyNanos = new ConcurrentHistogram();
+
+    void recordHit(long latencyNanos, long bytes) {
+        mHits.incrementAndGet();
+        mBytesRead.addAndGet(bytes);
+        mReadLatencyNanos.record(latencyNanos);
+    }
+
+    void recordMiss(long latencyNanos) {
+        mMisses.incrementAndGet();
+        mReadLatencyNanos.record(latencyNanos);
+    }
+
+    void recordStore(long latencyNanos, long bytes) {
+        mBytesStored.addAndGet(bytes);
+        mStoreLatencyNanos.record(latencyNanos);
+    }
+
+    void recordEviction() {
+        mEvictions.incrementAndGet();
+    }
+
+    CacheStatistics snapshot() {
+        return new CacheStatistics(mHits.get(), mMisses.get(), mEvictions.get(), mBytesStored.get(), mBytesRead.get(),
+                mReadLatencyNanos.snapshot(), mStoreLatencyNanos.snapshot());
+    }
+
+    void reset() {
+        mHits.set(0);
+        mMisses.set(0);
+        mEvictions.set(0);
+        mBytesStored.set(0);
+        mBytesRead.set(0);
+        mReadLatencyNanos.reset();
+        mStoreLatencyNanos.reset();
+    }
+}
@@ -0,0 +1,163 @@
+package cz.mzk.tiledimageview.images.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import cz.mzk.tiledimageview.Logger;
+
+/**
+ * Write-behind writer for disk cache. Items are queued by delivery threads and written by single background thread, so that
+ * encoding and disk latency don't block the thread that delivers tile into memory cache.
+ * <p/>
+ * Queue is bounded. Multiple writes of same key are coalesced into one (latest item wins). If queue is full, write is dropped
+ * instead of blocking the caller - item can be still fetched again later, it just won't be in disk cache.
+ */
+class DiskCacheWriter<Item> {
+
+    private final Logger mLogger;
+    private final ItemWriter<Item> mItemWriter;
+    private final int mMaxQueueSize;
+    private final Object mLock = new Object();
+    private final LinkedHashMap<String, PendingWrite<Item>> mQueue = new LinkedHashMap<>();
+    /**
+     * Single background thread, terminated when idle.
+     */
+    private final ExecutorService mExecutorService = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    private boolean mDrainScheduled = false;
+    private boolean mClosed = false;
+
+    private long mDroppedWrites = 0;
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                String key;
+                PendingWrite<Item> write;
+                synchronized (mLock) {
+                    Iterator<Map.Entry<String, PendingWrite<Item>>> iterator = mQueue.entrySet().iterator();
+                    if (!iterator.hasNext()) {
+                        mDrainScheduled = false;
+                        return;
+                    }
+                    Map.Entry<String, PendingWrite<Item>> first = iterator.next();
+                    key = first.getKey();
+                    write = first.getValue();
+                    iterator.remove();
+                }
+                try {
+                    mItemWriter.write(key, write.mItem, write.mOriginalBytes);
+                } catch (RuntimeException e) {
+                    mLogger.e("failed to write into disk cache: " + key, e);
+                }
+            }
+        }
+    };
+
+    DiskCacheWriter(Logger logger, int maxQueueSize, ItemWriter<Item> itemWriter) {
+        if (maxQueueSize <= 0) {
+            throw new IllegalArgumentException("maxQueueSize <= 0");
+        }
+        mLogger = logger;
+        mMaxQueueSize = maxQueueSize;
+        mItemWriter = itemWriter;
+    }
+
+    /**
+     * Never blocks on disk.
+     *
+     * @param originalBytes item's original encoded form passed to {@link ItemWriter}, null if not available
+     * @return false if write was dropped because queue was full or writer already closed
+     */
+    boolean enqueue(String key, Item item, byte[] originalBytes) {
+        PendingWrite<Item> write = new PendingWrite<>(item, originalBytes);
+        synchronized (mLock) {
+            if (mClosed) {
+                mDroppedWrites++;
+                return false;
+            }
+            if (mQueue.containsKey(key)) {
+                mQueue.put(key, write);
+                return true;
+            }
+            if (mQueue.size() >= mMaxQueueSize) {
+                mDroppedWrites++;
+                mLogger.d("disk write queue full, dropping: %s", key);
+                return false;
+            }
+            mQueue.put(key, write);
+            if (!mDrainScheduled) {
+                mDrainScheduled = true;
+                mExecutorService.submit(mDrainRunnable);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Blocks until all writes queued before this call are written.
+     */
+    void flush() {
+        try {
+            mExecutorService.submit(mDrainRunnable).get();
+        } catch (InterruptedException e) {
+            mLogger.w("interrupted while flushing disk write queue");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            mLogger.e("error flushing disk write queue", e);
+        }
+    }
+
+    /**
+     * Flushes queued writes and stops background thread. Subsequent writes are dropped.
+     */
+    void close() {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        flush();
+        mExecutorService.shutdown();
+    }
+
+    int getQueueDepth() {
+        synchronized (mLock) {
+            return mQueue.size();
+        }
+    }
+
+    long getDroppedWrites() {
+        synchronized (mLock) {
+            return mDroppedWrites;
+        }
+    }
+
+    interface ItemWriter<Item> {
+        /**
+         * Called from writer's background thread only.
+         *
+         * @param originalBytes as passed to {@link #enqueue(String, Object, byte[])}
+         */
+        void write(String key, Item item, byte[] originalBytes);
+    }
+
+    private static class PendingWrite<Item> {
+        private final Item mItem;
+        private final byte[] mOriginalBytes;
+
+        PendingWrite(Item item, byte[] originalBytes) {
+            mItem = item;
+            mOriginalBytes = originalBytes;
+        }
+    }
+
+}
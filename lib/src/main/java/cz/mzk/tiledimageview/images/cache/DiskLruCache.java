@@ -20,9 +20,13 @@ import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -44,12 +48,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import cz.mzk.tiledimageview.Logger;
 
@@ -98,6 +102,8 @@ public final class DiskLruCache implements Closeable {
 
     static final String JOURNAL_FILE = "journal";
     static final String JOURNAL_FILE_TMP = "journal.tmp";
+    static final String INDEX_FILE = "journal.idx";
+    static final String INDEX_FILE_TMP = "journal.idx.tmp";
     static final String MAGIC = "libcore.io.DiskLruCache";
     static final String VERSION_1 = "1";
     static final long ANY_SEQUENCE_NUMBER = -1;
@@ -109,6 +115,15 @@ public final class DiskLruCache implements Closeable {
 
     private static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final int IO_BUFFER_SIZE = 8 * 1024;
+    private static final int INDEX_MAGIC = 0x444c4349;
+    private static final int INDEX_VERSION = 1;
+    private static final byte INDEX_CLEAN = 1;
+    private static final byte INDEX_DIRTY = 2;
+    /**
+     * Journal is compacted (and index checkpoint written) only after no operation has been performed for this long, so that it
+     * doesn't compete with tile reads and writes.
+     */
+    private static final long COMPACTION_IDLE_MS = 3000;
 
 	/*
      * This cache uses a journal file named "journal". A typical journal file looks like this: libcore.io.DiskLruCache 1 100 2
@@ -125,39 +140,76 @@ public final class DiskLruCache implements Closeable {
 	 * updated. Every successful DIRTY action should be followed by a CLEAN or REMOVE action. DIRTY lines without a matching CLEAN
 	 * or REMOVE indicate that temporary files may need to be deleted. o CLEAN lines track a cache entry that has been
 	 * successfully published and may be read. A publish line is followed by the lengths of each of its values. o READ lines track
-	 * accesses for LRU. o REMOVE lines track entries that have been deleted.
+	 * accesses for LRU (written only by older versions, reads are now kept in memory and persisted
+	 * by index checkpoint). o REMOVE lines track entries that have been deleted.
 	 * 
 	 * The journal file is appended to as cache operations occur. The journal may occasionally be compacted by dropping redundant
 	 * lines. A temporary file named "journal.tmp" will be used during compaction; that file should be deleted if it exists when
-	 * the cache is opened.
+	 * the cache is opened. Compaction runs in background, once the cache has been idle for a while.
+	 *
+	 * At checkpoints (journal compaction, close, after many reads) binary snapshot of all entries in access order is written into
+	 * "journal.idx", together with length of the journal at that moment. When opening, the snapshot is loaded with single read and
+	 * only journal lines appended after the checkpoint are replayed. If the snapshot is missing or doesn't match the journal, whole
+	 * journal is replayed. The snapshot is deleted before journal is rebuilt, so it never describes different journal.
 	 */
 
     private final File directory;
     private final File journalFile;
     private final File journalFileTmp;
+    private final File indexFile;
+    private final File indexFileTmp;
     private final int appVersion;
     private final long maxSize;
     private final int valueCount;
     private final LinkedHashMap<String, Entry> lruEntries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
     /**
-     * This cache uses a single background thread to evict entries.
+     * All caches (every shard of every cache) share single background thread to evict entries and compact journals. The thread
+     * is terminated when idle.
      */
-    private final ExecutorService executorService = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<Runnable>());
+    private static final ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1);
+
+    static {
+        executorService.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        executorService.allowCoreThreadTimeOut(true);
+    }
+
     private long size = 0;
     private Writer journalWriter;
     private int redundantOpCount;
+    /**
+     * Reads are not journaled one by one (no READ line per hit). Access order is tracked only in {@link #lruEntries} and
+     * persisted lazily, by index checkpoint. This counts reads not yet persisted.
+     */
+    private int unpersistedReadCount;
+    private boolean cleanupScheduled = false;
+    private boolean openedFromIndex = false;
+    private long lastOperationNanos = System.nanoTime();
+    private volatile EvictionListener evictionListener = null;
     private final Callable<Void> cleanupCallable = new Callable<Void>() {
         @Override
         public Void call() throws Exception {
             synchronized (DiskLruCache.this) {
+                cleanupScheduled = false;
                 if (journalWriter == null) {
                     return null; // closed
                 }
                 trimToSize();
-                if (journalRebuildRequired()) {
+                boolean rebuild = journalRebuildRequired();
+                // access order is persisted in index, journal doesn't have to be rewritten
+                boolean checkpoint = !rebuild && (accessOrderPersistRequired() || !indexFile.exists());
+                if (rebuild || checkpoint) {
+                    long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastOperationNanos);
+                    if (idleMs < COMPACTION_IDLE_MS) {
+                        // still busy, try again later
+                        cleanupScheduled = true;
+                        executorService.schedule(this, COMPACTION_IDLE_MS - idleMs, TimeUnit.MILLISECONDS);
+                        return null;
+                    }
+                }
+                if (rebuild) {
                     rebuildJournal();
-                    redundantOpCount = 0;
+                } else if (checkpoint) {
+                    writeCheckpoint();
                 }
             }
             return null;
@@ -174,6 +226,8 @@ public final class DiskLruCache implements Closeable {
         this.appVersion = appVersion;
         this.journalFile = new File(directory, JOURNAL_FILE);
         this.journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+        this.indexFile = new File(directory, INDEX_FILE);
+        this.indexFileTmp = new File(directory, INDEX_FILE_TMP);
         this.valueCount = valueCount;
         this.maxSize = maxSize;
     }
@@ -213,6 +267,23 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
+    /**
+     * Returns the remainder of 'in' as bytes, closing it when done.
+     */
+    public static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[IO_BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * Returns the ASCII characters up to but not including the next "\r\n", or "\n".
      *
@@ -295,9 +366,17 @@ public final class DiskLruCache implements Closeable {
             DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
             if (cache.journalFile.exists()) {
                 try {
-                    cache.readJournal();
+                    boolean fromIndex = cache.readIndexAndJournalTail();
+                    cache.openedFromIndex = fromIndex;
+                    if (!fromIndex) {
+                        cache.readJournal(0);
+                    }
                     cache.processJournal();
                     cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile, true), IO_BUFFER_SIZE);
+                    if (!fromIndex) {
+                        // next time open from index
+                        cache.scheduleCleanup();
+                    }
                     return cache;
                 } catch (IOException journalIsCorrupt) {
                     // System.logW("DiskLruCache " + directory + " is corrupt: "
@@ -333,7 +412,10 @@ public final class DiskLruCache implements Closeable {
         return readFully(new InputStreamReader(in, UTF_8));
     }
 
-    private void readJournal() throws IOException {
+    /**
+     * @param fromOffset journal position to start replaying lines from, 0 for whole journal. Header is always verified.
+     */
+    private void readJournal(long fromOffset) throws IOException {
         InputStream in = new BufferedInputStream(new FileInputStream(journalFile), IO_BUFFER_SIZE);
         try {
             String magic = readAsciiLine(in);
@@ -347,6 +429,21 @@ public final class DiskLruCache implements Closeable {
                 throw new IOException("unexpected journal header: [" + magic + ", " + version + ", " + valueCountString
                         + ", " + blank + "]");
             }
+            if (fromOffset > 0) {
+                long headerLength = magic.length() + version.length() + appVersionString.length()
+                        + valueCountString.length() + 5;
+                long toSkip = fromOffset - headerLength;
+                if (toSkip < 0) {
+                    throw new IOException("checkpoint inside journal header");
+                }
+                while (toSkip > 0) {
+                    long skipped = in.skip(toSkip);
+                    if (skipped <= 0) {
+                        throw new EOFException("journal shorter than checkpoint");
+                    }
+                    toSkip -= skipped;
+                }
+            }
 
             while (true) {
                 try {
@@ -391,12 +488,140 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
+    /**
+     * Loads entries from index snapshot and replays journal lines appended after it.
+     *
+     * @return false if there is no usable index, nothing is loaded then
+     */
+    private boolean readIndexAndJournalTail() {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try {
+            long journalOffset = readIndex();
+            if (journalOffset > journalFile.length()) {
+                throw new IOException("journal shorter than checkpoint");
+            }
+            readJournal(journalOffset);
+            return true;
+        } catch (IOException e) {
+            LOGGER.w("index not usable, replaying whole journal: " + e.getMessage());
+            lruEntries.clear();
+            indexFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Reads whole index file at once.
+     *
+     * @return journal length at the time index was written
+     */
+    private long readIndex() throws IOException {
+        long fileLength = indexFile.length();
+        if (fileLength < 8 || fileLength > Integer.MAX_VALUE) {
+            throw new IOException("unexpected index length: " + fileLength);
+        }
+        byte[] data = new byte[(int) fileLength];
+        InputStream in = new FileInputStream(indexFile);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count == -1) {
+                    throw new EOFException();
+                }
+                read += count;
+            }
+        } finally {
+            closeQuietly(in);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        DataInputStream din = new DataInputStream(new ByteArrayInputStream(data));
+        din.skipBytes(data.length - 8);
+        if (din.readLong() != crc.getValue()) {
+            throw new IOException("index checksum mismatch");
+        }
+
+        din = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+        if (din.readInt() != INDEX_MAGIC || din.readInt() != INDEX_VERSION || din.readInt() != appVersion
+                || din.readInt() != valueCount) {
+            throw new IOException("unexpected index header");
+        }
+        long journalOffset = din.readLong();
+        int entryCount = din.readInt();
+        for (int i = 0; i < entryCount; i++) {
+            byte state = din.readByte();
+            Entry entry = new Entry(din.readUTF());
+            for (int t = 0; t < valueCount; t++) {
+                entry.lengths[t] = din.readLong();
+            }
+            if (state == INDEX_CLEAN) {
+                entry.readable = true;
+            } else if (state == INDEX_DIRTY) {
+                entry.currentEditor = new Editor(entry);
+            } else {
+                throw new IOException("unexpected index entry state: " + state);
+            }
+            lruEntries.put(entry.key, entry);
+        }
+        return journalOffset;
+    }
+
+    /**
+     * Writes snapshot of all entries (in access order) together with current journal length. Failure only means slower next
+     * startup.
+     */
+    private synchronized void writeCheckpoint() {
+        try {
+            journalWriter.flush();
+            long journalOffset = journalFile.length();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(lruEntries.size() * 64 + 32);
+            DataOutputStream dout = new DataOutputStream(bos);
+            dout.writeInt(INDEX_MAGIC);
+            dout.writeInt(INDEX_VERSION);
+            dout.writeInt(appVersion);
+            dout.writeInt(valueCount);
+            dout.writeLong(journalOffset);
+            dout.writeInt(lruEntries.size());
+            for (Entry entry : lruEntries.values()) {
+                dout.writeByte(entry.currentEditor != null ? INDEX_DIRTY : INDEX_CLEAN);
+                dout.writeUTF(entry.key);
+                for (int t = 0; t < valueCount; t++) {
+                    dout.writeLong(entry.lengths[t]);
+                }
+            }
+            dout.flush();
+            byte[] data = bos.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFileTmp), IO_BUFFER_SIZE));
+            try {
+                out.write(data);
+                out.writeLong(crc.getValue());
+            } finally {
+                out.close();
+            }
+            if (!indexFileTmp.renameTo(indexFile)) {
+                throw new IOException("failed to rename " + indexFileTmp);
+            }
+            // access order is now persisted
+            unpersistedReadCount = 0;
+        } catch (IOException e) {
+            LOGGER.w("failed to write index: " + e.getMessage());
+            indexFile.delete();
+        }
+    }
+
     /**
      * Computes the initial size and collects garbage as a part of opening the cache. Dirty entries are assumed to be inconsistent
      * and will be deleted.
      */
     private void processJournal() throws IOException {
         deleteIfExists(journalFileTmp);
+        deleteIfExists(indexFileTmp);
         for (Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext(); ) {
             Entry entry = i.next();
             if (entry.currentEditor == null) {
@@ -421,6 +646,8 @@ public final class DiskLruCache implements Closeable {
         if (journalWriter != null) {
             journalWriter.close();
         }
+        // checkpoint offset would point into old journal
+        deleteIfExists(indexFile);
 
         Writer writer = new BufferedWriter(new FileWriter(journalFileTmp), IO_BUFFER_SIZE);
         writer.write(MAGIC);
@@ -444,6 +671,10 @@ public final class DiskLruCache implements Closeable {
         writer.close();
         journalFileTmp.renameTo(journalFile);
         journalWriter = new BufferedWriter(new FileWriter(journalFile, true), IO_BUFFER_SIZE);
+        // journal now contains all entries in current access order
+        redundantOpCount = 0;
+        unpersistedReadCount = 0;
+        writeCheckpoint();
     }
 
     public synchronized boolean containsReadable(String key) throws IOException {
@@ -468,47 +699,61 @@ public final class DiskLruCache implements Closeable {
         return true;
     }
 
+    /**
+     * @return keys of readable entries, least recently used first. Access order is not changed.
+     */
+    public synchronized List<String> getKeys() {
+        checkNotClosed();
+        List<String> result = new ArrayList<String>(lruEntries.size());
+        for (Entry entry : lruEntries.values()) {
+            if (entry.readable) {
+                result.add(entry.key);
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns a snapshot of the entry named {@code key}, or null if it doesn't exist is not currently readable. If a value is
      * returned, it is moved to the head of the LRU queue.
      */
     public synchronized Snapshot get(String key) throws DiskLruCacheException {
-        try {
-            checkNotClosed();
-            validateKey(key);
-            Entry entry = lruEntries.get(key);
-            if (entry == null) {
-                return null;
-            }
+        checkNotClosed();
+        validateKey(key);
+        lastOperationNanos = System.nanoTime();
+        Entry entry = lruEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
 
-            if (!entry.readable) {
-                return null;
-            }
+        if (!entry.readable) {
+            return null;
+        }
 
-			/*
-             * Open all streams eagerly to guarantee that we see a single published snapshot. If we opened streams lazily then the
-			 * streams could come from different edits.
-			 */
-            InputStream[] ins = new InputStream[valueCount];
-            try {
-                for (int i = 0; i < valueCount; i++) {
-                    ins[i] = new FileInputStream(entry.getCleanFile(i));
-                }
-            } catch (FileNotFoundException e) {
-                // a file must have been deleted manually!
-                return null;
+		/*
+         * Open all streams eagerly to guarantee that we see a single published snapshot. If we opened streams lazily then the
+		 * streams could come from different edits.
+		 */
+        InputStream[] ins = new InputStream[valueCount];
+        try {
+            for (int i = 0; i < valueCount; i++) {
+                ins[i] = new FileInputStream(entry.getCleanFile(i));
             }
-
-            redundantOpCount++;
-            journalWriter.append(READ + ' ' + key + '\n');
-            if (journalRebuildRequired()) {
-                executorService.submit(cleanupCallable);
+        } catch (FileNotFoundException e) {
+            // a file must have been deleted manually!
+            for (InputStream in : ins) {
+                closeQuietly(in);
             }
+            return null;
+        }
 
-            return new Snapshot(key, entry.sequenceNumber, ins);
-        } catch (IOException e) {
-            throw new DiskLruCacheException(e);
+        // access order already updated by lruEntries.get(), journal is not touched here
+        unpersistedReadCount++;
+        if (accessOrderPersistRequired()) {
+            scheduleCleanup();
         }
+
+        return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths.clone());
     }
 
     /**
@@ -543,17 +788,23 @@ public final class DiskLruCache implements Closeable {
     }
 
     /**
-     * Perhaps should bes synchronized. But synchronization on this level causes significant lagging when tiles are being
-     * downloaded by fetched simultaneously.
+     * Not synchronized, encoding would block other readers/writers. Called only from single background writer thread of
+     * {@link DiskCacheWriter}, so no two threads write same key at once.
      */
     public void storeBitmap(int index, String key, Bitmap bmp) throws DiskLruCacheException {
+        storeBytes(index, key, bitmapToByteArray(bmp));
+    }
+
+    /**
+     * Same rules as for {@link #storeBitmap(int, String, Bitmap)}, for data already encoded by caller.
+     */
+    public void storeBytes(int index, String key, byte[] bytes) throws DiskLruCacheException {
         Editor edit = null;
         OutputStream out = null;
         try {
             edit = edit(key);
             if (edit != null) {
                 out = edit.newOutputStream(index);
-                byte[] bytes = bitmapToByteArray(bmp);
                 out.write(bytes);
                 edit.commit();
             } else {
@@ -590,6 +841,7 @@ public final class DiskLruCache implements Closeable {
     private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
         checkNotClosed();
         validateKey(key);
+        lastOperationNanos = System.nanoTime();
         Entry entry = lruEntries.get(key);
         if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER
                 && (entry == null || entry.sequenceNumber != expectedSequenceNumber)) {
@@ -680,7 +932,7 @@ public final class DiskLruCache implements Closeable {
         }
 
         if (size > maxSize || journalRebuildRequired()) {
-            executorService.submit(cleanupCallable);
+            scheduleCleanup();
         }
     }
 
@@ -692,6 +944,21 @@ public final class DiskLruCache implements Closeable {
         return redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= lruEntries.size();
     }
 
+    /**
+     * Access order gathered in memory is written out (by checkpoint in background) only after many reads.
+     */
+    private boolean accessOrderPersistRequired() {
+        final int UNPERSISTED_READS_THRESHOLD = 2000;
+        return unpersistedReadCount >= UNPERSISTED_READS_THRESHOLD && unpersistedReadCount >= lruEntries.size();
+    }
+
+    private void scheduleCleanup() {
+        if (!cleanupScheduled) {
+            cleanupScheduled = true;
+            executorService.submit(cleanupCallable);
+        }
+    }
+
     /**
      * Drops the entry for {@code key} if it exists and can be removed. Entries actively being edited cannot be removed.
      *
@@ -720,7 +987,7 @@ public final class DiskLruCache implements Closeable {
             lruEntries.remove(key);
 
             if (journalRebuildRequired()) {
-                executorService.submit(cleanupCallable);
+                scheduleCleanup();
             }
 
             return true;
@@ -729,6 +996,23 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
+    /**
+     * Only for tests of checkpoints.
+     *
+     * @return true if entries were loaded from index snapshot and journal tail, false if whole journal was replayed
+     */
+    boolean isOpenedFromIndex() {
+        return openedFromIndex;
+    }
+
+    /**
+     * Only for tests of checkpoints, normally checkpoint is written in background or by {@link #close()}.
+     */
+    synchronized void checkpoint() {
+        checkNotClosed();
+        writeCheckpoint();
+    }
+
     /**
      * Returns true if this cache has been closed.
      */
@@ -769,7 +1053,10 @@ public final class DiskLruCache implements Closeable {
                 }
             }
             trimToSize();
+            // persists also access order gathered since last checkpoint
+            writeCheckpoint();
             journalWriter.close();
+            // executor is shared, cleanup still scheduled for this cache finds it closed
             journalWriter = null;
         } catch (DiskLruCacheException e) {
             throw new IOException(e);
@@ -780,10 +1067,19 @@ public final class DiskLruCache implements Closeable {
         while (size > maxSize) {
             // Map.Entry<String, Entry> toEvict = lruEntries.eldest();
             final Map.Entry<String, Entry> toEvict = lruEntries.entrySet().iterator().next();
-            remove(toEvict.getKey());
+            if (remove(toEvict.getKey()) && evictionListener != null) {
+                evictionListener.onEntryEvicted();
+            }
         }
     }
 
+    /**
+     * @param listener notified about every entry removed to keep size within {@link #maxSize()}, null for none
+     */
+    public void setEvictionListener(EvictionListener listener) {
+        evictionListener = listener;
+    }
+
     /**
      * Closes the cache and deletes all of its stored values. This will delete all files in the cache directory including files
      * that weren't created by the cache.
@@ -826,6 +1122,13 @@ public final class DiskLruCache implements Closeable {
 
     }
 
+    /**
+     * Called with cache's lock held, from thread that trimmed the cache (typically background cleanup thread).
+     */
+    public interface EvictionListener {
+        void onEntryEvicted();
+    }
+
     /**
      * A snapshot of the values for an entry.
      */
@@ -833,11 +1136,20 @@ public final class DiskLruCache implements Closeable {
         private final String key;
         private final long sequenceNumber;
         private final InputStream[] ins;
+        private final long[] lengths;
 
-        private Snapshot(String key, long sequenceNumber, InputStream[] ins) {
+        private Snapshot(String key, long sequenceNumber, InputStream[] ins, long[] lengths) {
             this.key = key;
             this.sequenceNumber = sequenceNumber;
             this.ins = ins;
+            this.lengths = lengths;
+        }
+
+        /**
+         * Returns the size of value for {@code index} in bytes.
+         */
+        public long getLength(int index) {
+            return lengths[index];
         }
 
         /**
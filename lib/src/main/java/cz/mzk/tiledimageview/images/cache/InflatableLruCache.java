@@ -13,11 +13,27 @@ import cz.mzk.tiledimageview.Logger;
 public class InflatableLruCache<Key, Item> {
 
     private final Logger mLogger;
+    private final CacheStatisticsRecorder mStatistics;
     private LruCache<Key, Item> mCache;
 
-    public InflatableLruCache(int size, Logger logger) {
+    /**
+     * @param statistics evictions are recorded here
+     */
+    InflatableLruCache(int size, Logger logger, CacheStatisticsRecorder statistics) {
         mLogger = logger;
-        mCache = new LruCache<>(size);
+        mStatistics = statistics;
+        mCache = createCache(size);
+    }
+
+    private LruCache<Key, Item> createCache(int size) {
+        return new LruCache<Key, Item>(size) {
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Item oldValue, Item newValue) {
+                if (evicted) {
+                    mStatistics.recordEviction();
+                }
+            }
+        };
     }
 
     public void inflate(int newMaxSize) {
@@ -28,7 +44,7 @@ public class InflatableLruCache<Key, Item> {
                 mCache.resize(newMaxSize);
             } else {//resize manually by creating new cache instance
                 Map<Key, Item> snapshot = mCache.snapshot();
-                mCache = new LruCache<>(newMaxSize);
+                mCache = createCache(newMaxSize);
                 for (Key key : snapshot.keySet()) {
                     mCache.put(key, snapshot.get(key));
                 }
@@ -2,6 +2,8 @@ package cz.mzk.tiledimageview.images.cache;
 
 import android.content.Context;
 
+import java.io.UnsupportedEncodingException;
+
 import cz.mzk.tiledimageview.Logger;
 
 /**
@@ -10,33 +12,37 @@ import cz.mzk.tiledimageview.Logger;
 public class MetadataCache extends AbstractCache<String> {
 
     public static final String DISK_CACHE_SUBDIR = "imageProperties"; //legacy name for subdir. No need to change it
-    public static final int DISK_CACHE_SIZE_BYTES = 1024 * 1024 * 10; // 10MB
+    public static final long DISK_CACHE_SIZE_BYTES = 1024 * 1024 * 10; // 10MB
     public static final int MEMORY_CACHE_SIZE_ITEMS = 100;
 
 
     public MetadataCache(Context context, boolean diskCacheEnabled, boolean clearDiskCache) {
-        super(context, new Logger(MetadataCache.class), MEMORY_CACHE_SIZE_ITEMS, diskCacheEnabled, DISK_CACHE_SUBDIR, DISK_CACHE_SIZE_BYTES, clearDiskCache);
+        this(context, MEMORY_CACHE_SIZE_ITEMS, diskCacheEnabled, DISK_CACHE_SIZE_BYTES, DISK_WRITE_QUEUE_SIZE_ITEMS, clearDiskCache);
+    }
+
+    public MetadataCache(Context context, int memoryCacheSizeItems, boolean diskCacheEnabled, long diskCacheSizeBytes, int diskWriteQueueSizeItems, boolean clearDiskCache) {
+        super(context, new Logger(MetadataCache.class), memoryCacheSizeItems, diskCacheEnabled, DISK_CACHE_SUBDIR, diskCacheSizeBytes, 1, diskWriteQueueSizeItems, clearDiskCache);
+    }
+
+    @Override
+    String readItem(DiskLruCache.Snapshot snapshot, String key) throws DiskLruCache.DiskLruCacheException {
+        return snapshot.getString(0);
     }
 
     @Override
-    String getItem(DiskLruCache diskCache, String key) throws DiskLruCache.DiskLruCacheException {
-        DiskLruCache.Snapshot snapshot = diskCache.get(key);
-        if (snapshot != null) {
-            String result = snapshot.getString(0);
-            if (result == null) {
-                mLogger.w("item from disk cache was null, removing record");
-                diskCache.remove(key);
-                return null;
-            } else {
-                return result;
-            }
-        } else {
-            return null;
+    long storeItem(DiskLruCache diskCache, String key, String matadata) throws DiskLruCache.DiskLruCacheException {
+        try {
+            //same as DiskLruCache.storeString(), but size is known
+            byte[] bytes = matadata.getBytes("UTF-8");
+            diskCache.storeBytes(0, key, bytes);
+            return bytes.length;
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
         }
     }
 
     @Override
-    void storeItem(DiskLruCache diskCache, String key, String matadata) throws DiskLruCache.DiskLruCacheException {
-        diskCache.storeString(0, key, matadata);
+    long getItemBytes(String item) {
+        return item.length() * 2;
     }
 }
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 import cz.mzk.tiledimageview.Logger;
@@ -14,30 +15,143 @@ import cz.mzk.tiledimageview.Logger;
 public class TileCache extends AbstractCache<Bitmap> {
 
     private static final String DISK_CACHE_SUBDIR = "tiles";
+    //default, tiles are read by many delivery threads at once, single DiskLruCache would serialize them
+    public static final int DISK_CACHE_SHARDS = 4;
+    public static final long DISK_CACHE_SIZE_BYTES = 1024 * 1024 * 50; // 50MB
+
+    private final long mDiskCacheSizeBytes;
+    private final Bitmap.Config mDecodeConfig;
+    private volatile TileEncodingPolicy mEncodingPolicy;
+
+    //encoding stats
+    private final Object mEncodingStatsLock = new Object();
+    private long mEncodedTiles = 0;
+    private long mEncodedBytes = 0;
+    private long mEncodingNanos = 0;
 
     public TileCache(Context context, int memoryCacheSizeItems, boolean diskCacheEnabled, long diskCacheSizeBytes, boolean clearDiskCache) {
-        super(context, new Logger(TileCache.class), memoryCacheSizeItems, diskCacheEnabled, DISK_CACHE_SUBDIR, diskCacheSizeBytes, clearDiskCache);
+        this(context, memoryCacheSizeItems, diskCacheEnabled, diskCacheSizeBytes, DISK_CACHE_SHARDS, DISK_WRITE_QUEUE_SIZE_ITEMS, TileEncodingPolicy.ORIGINAL, null, clearDiskCache);
+    }
+
+    /**
+     * @param diskCacheShards number of independent disk caches, see {@link AbstractCache}
+     * @param decodeConfig    config for tiles decoded from disk cache, null for decoder's default
+     */
+    public TileCache(Context context, int memoryCacheSizeItems, boolean diskCacheEnabled, long diskCacheSizeBytes, int diskCacheShards, int diskWriteQueueSizeItems, TileEncodingPolicy encodingPolicy, Bitmap.Config decodeConfig, boolean clearDiskCache) {
+        super(context, new Logger(TileCache.class), memoryCacheSizeItems, diskCacheEnabled, DISK_CACHE_SUBDIR, diskCacheSizeBytes, diskCacheShards, diskWriteQueueSizeItems, clearDiskCache);
+        mDiskCacheSizeBytes = diskCacheSizeBytes;
+        mDecodeConfig = decodeConfig;
+        mEncodingPolicy = encodingPolicy;
+        mLogger.i("disk cache encoding: " + encodingPolicy);
+    }
+
+    /**
+     * Applies to tiles stored from now on. Tiles already in disk cache stay as they are and remain readable.
+     */
+    public void setDiskEncodingPolicy(TileEncodingPolicy encodingPolicy) {
+        if (encodingPolicy == null) {
+            throw new NullPointerException("encodingPolicy");
+        }
+        mEncodingPolicy = encodingPolicy;
+        synchronized (mEncodingStatsLock) {
+            mEncodedTiles = 0;
+            mEncodedBytes = 0;
+            mEncodingNanos = 0;
+        }
+    }
+
+    public TileEncodingPolicy getDiskEncodingPolicy() {
+        return mEncodingPolicy;
+    }
+
+    /**
+     * @return config tiles should be decoded with (both from disk and network), null for decoder's default
+     */
+    public Bitmap.Config getDecodeConfig() {
+        return mDecodeConfig;
+    }
+
+    /**
+     * @return options for decoding tiles, null for defaults
+     */
+    public BitmapFactory.Options buildDecodeOptions() {
+        if (mDecodeConfig == null) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = mDecodeConfig;
+        return options;
+    }
+
+    /**
+     * @return average size of tile encoded by current policy, 0 if nothing has been encoded yet
+     */
+    public long getAverageEncodedTileBytes() {
+        synchronized (mEncodingStatsLock) {
+            return mEncodedTiles == 0 ? 0 : mEncodedBytes / mEncodedTiles;
+        }
+    }
+
+    /**
+     * @return how many tiles encoded by current policy fit into disk cache, 0 if unknown yet
+     */
+    public long getEstimatedDiskCacheCapacityTiles() {
+        long averageBytes = getAverageEncodedTileBytes();
+        return averageBytes == 0 || !isDiskCacheEnabled() ? 0 : mDiskCacheSizeBytes / averageBytes;
+    }
+
+    /**
+     * @return average CPU time of encoding single tile by current policy in milliseconds
+     */
+    public double getAverageEncodingTimeMs() {
+        synchronized (mEncodingStatsLock) {
+            return mEncodedTiles == 0 ? 0.0 : mEncodingNanos / 1000000.0 / mEncodedTiles;
+        }
     }
 
     @Override
-    Bitmap getItem(DiskLruCache diskCache, String key) throws DiskLruCache.DiskLruCacheException {
-        DiskLruCache.Snapshot snapshot = diskCache.get(key);
-        if (snapshot != null) {
-            InputStream in = snapshot.getInputStream(0);
-            Bitmap bitmap = BitmapFactory.decodeStream(in);
-            if (bitmap == null) {
-                mLogger.w("item from disk cache was null, removing record");
-                diskCache.remove(key);
-            }
-            return bitmap;
-        } else {
+    Bitmap readItem(DiskLruCache.Snapshot snapshot, String key) {
+        try {
+            InputStream in = TileEncodingPolicy.markable(snapshot.getInputStream(0));
+            TileEncodingPolicy.readHeader(in);
+            return BitmapFactory.decodeStream(in, null, buildDecodeOptions());
+        } catch (IOException e) {
+            mLogger.w("failed to read tile encoding: " + key, e);
             return null;
         }
     }
 
+    /**
+     * Original bytes are kept in write queue only if current policy stores them.
+     */
+    @Override
+    public void storeItemToDiskCache(String key, Bitmap item, byte[] originalBytes) {
+        boolean keepOriginal = mEncodingPolicy.getFormat() == TileEncodingPolicy.Format.ORIGINAL;
+        super.storeItemToDiskCache(key, item, keepOriginal ? originalBytes : null);
+    }
+
+    @Override
+    long storeItem(DiskLruCache diskCache, String key, Bitmap item) throws DiskLruCache.DiskLruCacheException {
+        return storeItem(diskCache, key, item, null);
+    }
+
+    @Override
+    long storeItem(DiskLruCache diskCache, String key, Bitmap item, byte[] originalBytes) throws DiskLruCache.DiskLruCacheException {
+        long start = System.nanoTime();
+        byte[] encoded = mEncodingPolicy.encode(item, originalBytes);
+        long encodingNanos = System.nanoTime() - start;
+        synchronized (mEncodingStatsLock) {
+            mEncodedTiles++;
+            mEncodedBytes += encoded.length;
+            mEncodingNanos += encodingNanos;
+        }
+        diskCache.storeBytes(0, key, encoded);
+        return encoded.length;
+    }
+
     @Override
-    void storeItem(DiskLruCache diskCache, String key, Bitmap item) throws DiskLruCache.DiskLruCacheException {
-        diskCache.storeBitmap(0, key, item);
+    long getItemBytes(Bitmap item) {
+        return item.getByteCount();
     }
 
 }
@@ -0,0 +1,185 @@
+package cz.mzk.tiledimageview.images.cache;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * How tiles are encoded before being stored into disk cache. By default tiles are stored as downloaded from server, without
+ * encoding them again. Lossy formats can make tiles smaller, so that more of them fit into disk cache budget, at the cost of
+ * encoding and generation loss.
+ * <p/>
+ * Every entry starts with small header containing format and quality, so that entries written with different policies (or
+ * before policies existed, those are PNG without header) can be read from the same cache.
+ */
+public class TileEncodingPolicy {
+
+    /**
+     * Bytes received from server are stored as they are. Tiles without them are encoded lossless.
+     */
+    public static final TileEncodingPolicy ORIGINAL = new TileEncodingPolicy(Format.ORIGINAL, 100);
+    public static final TileEncodingPolicy LOSSLESS = new TileEncodingPolicy(Format.LOSSLESS, 100);
+    public static final int DEFAULT_QUALITY = 85;
+
+    private static final byte HEADER_MAGIC_0 = 'T';
+    private static final byte HEADER_MAGIC_1 = 'E';
+    private static final int HEADER_LENGTH = 4;
+
+    private final Format mFormat;
+    private final int mQuality;
+
+    private TileEncodingPolicy(Format format, int quality) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("quality must be in 0-100: " + quality);
+        }
+        mFormat = format;
+        mQuality = quality;
+    }
+
+    /**
+     * WebP encoding requires API 14, JPEG with same quality is used on older devices.
+     */
+    public static TileEncodingPolicy webp(int quality) {
+        if (Build.VERSION.SDK_INT >= 14) {
+            return new TileEncodingPolicy(Format.WEBP, quality);
+        } else {
+            return jpeg(quality);
+        }
+    }
+
+    public static TileEncodingPolicy jpeg(int quality) {
+        return new TileEncodingPolicy(Format.JPEG, quality);
+    }
+
+    /**
+     * @param format  "original", "lossless", "webp" or "jpeg" (as in resources)
+     * @param quality ignored for original and lossless
+     */
+    public static TileEncodingPolicy fromConfig(String format, int quality) {
+        if ("original".equalsIgnoreCase(format)) {
+            return ORIGINAL;
+        } else if ("webp".equalsIgnoreCase(format)) {
+            return webp(quality);
+        } else if ("jpeg".equalsIgnoreCase(format)) {
+            return jpeg(quality);
+        } else if ("lossless".equalsIgnoreCase(format)) {
+            return LOSSLESS;
+        } else {
+            throw new IllegalArgumentException("unknown tile encoding: " + format);
+        }
+    }
+
+    public Format getFormat() {
+        return mFormat;
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * @return header followed by encoded bitmap
+     */
+    public byte[] encode(Bitmap bitmap) {
+        return encode(bitmap, null);
+    }
+
+    /**
+     * @param originalBytes bytes bitmap was decoded from, stored instead of bitmap by {@link #ORIGINAL}. Null if not available.
+     * @return header followed by original bytes or encoded bitmap
+     */
+    public byte[] encode(Bitmap bitmap, byte[] originalBytes) {
+        if (mFormat == Format.ORIGINAL) {
+            if (originalBytes == null) {
+                return LOSSLESS.encode(bitmap);
+            }
+            byte[] result = new byte[HEADER_LENGTH + originalBytes.length];
+            result[0] = HEADER_MAGIC_0;
+            result[1] = HEADER_MAGIC_1;
+            result[2] = (byte) mFormat.mId;
+            result[3] = (byte) mQuality;
+            System.arraycopy(originalBytes, 0, result, HEADER_LENGTH, originalBytes.length);
+            return result;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(HEADER_MAGIC_0);
+        bos.write(HEADER_MAGIC_1);
+        bos.write(mFormat.mId);
+        bos.write(mQuality);
+        bitmap.compress(mFormat.getCompressFormat(), mQuality, bos);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads header (if present) and leaves stream positioned at the beginning of image data.
+     *
+     * @param in must support mark/reset
+     * @return format the entry was stored with
+     */
+    static Format readHeader(InputStream in) throws IOException {
+        in.mark(HEADER_LENGTH);
+        int magic0 = in.read();
+        int magic1 = in.read();
+        int formatId = in.read();
+        int quality = in.read();
+        if (magic0 == HEADER_MAGIC_0 && magic1 == HEADER_MAGIC_1 && quality != -1) {
+            for (Format format : Format.values()) {
+                if (format.mId == formatId) {
+                    return format;
+                }
+            }
+            throw new IOException("unknown tile encoding id: " + formatId);
+        } else {
+            //written before encoding policies, always PNG
+            in.reset();
+            return Format.LOSSLESS;
+        }
+    }
+
+    static InputStream markable(InputStream in) {
+        return in.markSupported() ? in : new BufferedInputStream(in);
+    }
+
+    @Override
+    public String toString() {
+        return mFormat == Format.LOSSLESS || mFormat == Format.ORIGINAL ? mFormat.name() : mFormat.name() + "(" + mQuality + ")";
+    }
+
+    public enum Format {
+        LOSSLESS(0),
+        WEBP(1),
+        JPEG(2),
+        /**
+         * As received from server, any format BitmapFactory can decode.
+         */
+        ORIGINAL(3);
+
+        private final int mId;
+
+        Format(int id) {
+            mId = id;
+        }
+
+        //resolved lazily, CompressFormat.WEBP must not be referenced before API 14
+        private Bitmap.CompressFormat getCompressFormat() {
+            switch (this) {
+                case WEBP:
+                    return getWebpCompressFormat();
+                case JPEG:
+                    return Bitmap.CompressFormat.JPEG;
+                default:
+                    return Bitmap.CompressFormat.PNG;
+            }
+        }
+
+        @TargetApi(14)
+        private static Bitmap.CompressFormat getWebpCompressFormat() {
+            return Bitmap.CompressFormat.WEBP;
+        }
+    }
+}
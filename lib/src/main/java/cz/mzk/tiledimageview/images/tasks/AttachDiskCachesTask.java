@@ -0,0 +1,36 @@
+package cz.mzk.tiledimageview.images.tasks;
+
+import cz.mzk.tiledimageview.images.cache.CacheManager;
+
+/**
+ * Created by Martin Řehánek on 10.12.15.
+ * Opens disk caches in background. Memory caches are already usable at this time.
+ */
+public class AttachDiskCachesTask extends ConcurrentAsyncTask<Void, Void, Void> {
+
+    private final TaskManager.TaskListener mListener;
+
+    public AttachDiskCachesTask(TaskManager.TaskListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        CacheManager.attachDiskCaches();
+        return null;
+    }
+
+    @Override
+    protected void onPostExecute(Void aVoid) {
+        if (mListener != null) {
+            mListener.onFinished();
+        }
+    }
+
+    @Override
+    protected void onCancelled(Void result) {
+        if (mListener != null) {
+            mListener.onCanceled();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package cz.mzk.tiledimageview.images.tasks;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import cz.mzk.tiledimageview.Logger;
+import cz.mzk.tiledimageview.TiledImageView;
+
+/**
+ * Draws tiles (already in memory) into single bitmap, so that view can draw them with one drawBitmap() while viewport
+ * stays within them.
+ */
+public class ComposeTilesTask extends ConcurrentAsyncTask<Void, Void, Bitmap> {
+
+    private static final Logger LOGGER = new Logger(ComposeTilesTask.class);
+
+    private final Bitmap[] mTiles;
+    private final Rect[] mTileAreas;
+    private final int mWidth;
+    private final int mHeight;
+    private final TiledImageView.TilesCompositionListener mCompositionListener;
+    private final TaskManager.TaskListener mTaskManagerListener;
+
+    /**
+     * @param tiles     tile bitmaps
+     * @param tileAreas where to draw tile with same index, in composition's pixels
+     * @param width     composition width
+     * @param height    composition height
+     */
+    public ComposeTilesTask(Bitmap[] tiles, Rect[] tileAreas, int width, int height,
+                            TiledImageView.TilesCompositionListener compositionListener,
+                            TaskManager.TaskListener taskManagerListener) {
+        mTiles = tiles;
+        mTileAreas = tileAreas;
+        mWidth = width;
+        mHeight = height;
+        mCompositionListener = compositionListener;
+        mTaskManagerListener = taskManagerListener;
+    }
+
+    @Override
+    protected Bitmap doInBackground(Void... params) {
+        if (isCancelled()) {
+            return null;
+        }
+        Bitmap.Config config = mTiles[0].getConfig() != null ? mTiles[0].getConfig() : Bitmap.Config.ARGB_8888;
+        try {
+            Bitmap composition = Bitmap.createBitmap(mWidth, mHeight, config);
+            Canvas canvas = new Canvas(composition);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            for (int i = 0; i < mTiles.length; i++) {
+                if (isCancelled()) {
+                    return null;
+                }
+                canvas.drawBitmap(mTiles[i], null, mTileAreas[i], paint);
+            }
+            return composition;
+        } catch (OutOfMemoryError e) {
+            LOGGER.w(String.format("cannot compose tiles into %dx%d bitmap: out of memory", mWidth, mHeight));
+            return null;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Bitmap composition) {
+        if (mTaskManagerListener != null) {
+            mTaskManagerListener.onFinished();
+        }
+        if (composition != null && mCompositionListener != null) {
+            mCompositionListener.onTilesComposed(composition);
+        }
+    }
+
+    @Override
+    protected void onCancelled(Bitmap composition) {
+        if (mTaskManagerListener != null) {
+            mTaskManagerListener.onCanceled();
+        }
+    }
+}
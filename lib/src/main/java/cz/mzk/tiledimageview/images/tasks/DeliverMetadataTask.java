@@ -2,6 +2,7 @@ package cz.mzk.tiledimageview.images.tasks;
 
 import cz.mzk.tiledimageview.Logger;
 import cz.mzk.tiledimageview.TiledImageView;
+import cz.mzk.tiledimageview.TiledImageViewConfig;
 import cz.mzk.tiledimageview.images.Downloader;
 import cz.mzk.tiledimageview.images.TiledImageProtocol;
 import cz.mzk.tiledimageview.images.cache.CacheManager;
@@ -26,6 +27,7 @@ public class DeliverMetadataTask extends ConcurrentAsyncTask<Void, Void, ImageMe
     private final String mMetadataUrl;
     private final TiledImageProtocol mProtocol;
     private final String mCacheKey;
+    private final TiledImageViewConfig mConfig;
 
     private TooManyRedirectionsException mTooManyRedirectionsException;
     private ImageServerResponseException mImageServerResponseException;
@@ -38,10 +40,12 @@ public class DeliverMetadataTask extends ConcurrentAsyncTask<Void, Void, ImageMe
                                String cacheKey,
                                TiledImageView.MetadataInitializationListener listener,
                                TiledImageView.MetadataInitializationSuccessListener successListener,
-                               TaskManager.TaskListener taskManagerListener) {
+                               TaskManager.TaskListener taskManagerListener,
+                               TiledImageViewConfig config) {
         mProtocol = protocol;
         mMetadataUrl = metadataUrl;
         mCacheKey = cacheKey;
+        mConfig = config;
         mListener = listener;
         mSuccessListener = successListener;
         mTaskManagerListener = taskManagerListener;
@@ -53,23 +57,14 @@ public class DeliverMetadataTask extends ConcurrentAsyncTask<Void, Void, ImageMe
             MetadataCache tileCache = CacheManager.getMetadataCache();
             boolean diskCacheEnabled = tileCache.isDiskCacheEnabled();
             if (diskCacheEnabled) {
-                boolean inDiskCache = tileCache.isItemInDiskCache(mCacheKey);
-                LOGGER.d("is in disk cache: " + inDiskCache);
+                //single lookup, null means not in disk cache
+                String fromDiskCache = tileCache.getItemFromDiskCache(mCacheKey);
                 if (!isCancelled()) {
-                    if (inDiskCache) {
-                        String fromDiskCache = tileCache.getItemFromDiskCache(mCacheKey);
-                        if (!isCancelled()) {
-                            if (fromDiskCache != null) {
-                                LOGGER.d("disk cache returned metadata");
-                                tileCache.storeItemToMemoryCache(mCacheKey, fromDiskCache);
-                                LOGGER.d("metadata stored into memory cache");
-                                return parse(fromDiskCache);
-                            } else {
-                                LOGGER.w("disk cache returned null");
-                                // insonsistence between isItemInDiskCache() and subsequential getItemFromDiskCache()
-                                // ignoring
-                            }
-                        }
+                    if (fromDiskCache != null) {
+                        LOGGER.d("disk cache returned metadata");
+                        tileCache.storeItemToMemoryCache(mCacheKey, fromDiskCache);
+                        LOGGER.d("metadata stored into memory cache");
+                        return parse(fromDiskCache);
                     } else { //not in disk cache
                         return fetchFromNetAndSave(tileCache, diskCacheEnabled);
                     }
@@ -98,7 +93,7 @@ public class DeliverMetadataTask extends ConcurrentAsyncTask<Void, Void, ImageMe
                 if (!isCancelled()) {
                     if (diskCacheEnabled) {
                         metadataCache.storeItemToDiskCache(mCacheKey, metadataStr);
-                        LOGGER.d("metadata stored into disk cache");
+                        LOGGER.d("metadata enqueued for disk cache");
                     }
                 }
                 if (!isCancelled()) {
@@ -128,7 +123,7 @@ public class DeliverMetadataTask extends ConcurrentAsyncTask<Void, Void, ImageMe
 
     private String downloadMetadata() {
         try {
-            return Downloader.downloadMetadata(mMetadataUrl);
+            return Downloader.downloadMetadata(mMetadataUrl, mConfig.getMetadataConnectTimeoutMs(), mConfig.getMetadataReadTimeoutMs());
         } catch (TooManyRedirectionsException e) {
             mTooManyRedirectionsException = e;
         } catch (ImageServerResponseException e) {
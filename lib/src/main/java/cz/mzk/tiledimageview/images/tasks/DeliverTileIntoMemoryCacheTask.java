@@ -3,8 +3,12 @@ package cz.mzk.tiledimageview.images.tasks;
 import android.graphics.Bitmap;
 
 import cz.mzk.tiledimageview.Logger;
+import cz.mzk.tiledimageview.PerformanceStats;
 import cz.mzk.tiledimageview.TiledImageView;
+import cz.mzk.tiledimageview.TiledImageViewConfig;
 import cz.mzk.tiledimageview.images.Downloader;
+import cz.mzk.tiledimageview.images.TilePositionInPyramid;
+import cz.mzk.tiledimageview.images.TileTrace;
 import cz.mzk.tiledimageview.images.cache.CacheManager;
 import cz.mzk.tiledimageview.images.cache.TileCache;
 import cz.mzk.tiledimageview.images.exceptions.ImageServerResponseException;
@@ -19,64 +23,88 @@ public class DeliverTileIntoMemoryCacheTask extends ConcurrentAsyncTask<Void, Vo
     // private static final int THREAD_PRIORITY = Math.min(Thread.MAX_PRIORITY, Thread.MIN_PRIORITY + 1);
     private static final Logger LOGGER = new Logger(DeliverTileIntoMemoryCacheTask.class);
 
+    private final TilePositionInPyramid mTilePosition;
     private final String mTileImageUrl;
     private final String mCacheKey;
+    private final TiledImageViewConfig mConfig;
     private final TiledImageView.TileDownloadErrorListener mErrorListener;
     private final TiledImageView.TileDownloadSuccessListener mSuccessListener;
-    private final TaskManager.TaskListener mTaskManagerListener;
+    private final TaskManager.TileTaskListener mTaskManagerListener;
+    private final long mRequestedAtNanos;
+    private PerformanceStats.TileSource mSource;
 
     private OtherIOException otherIoException;
     private TooManyRedirectionsException tooManyRedirectionsException;
     private ImageServerResponseException imageServerResponseException;
 
     /**
+     * @param tilePosition        tile being delivered, passed to successListener
      * @param tileImageUrl        Url of tile image (jpeg, tif, png, bmp, ...)
      * @param errorListener
      * @param successListener
      * @param taskManagerListener
      */
-    public DeliverTileIntoMemoryCacheTask(String tileImageUrl,
+    public DeliverTileIntoMemoryCacheTask(TilePositionInPyramid tilePosition,
+                                          String tileImageUrl,
                                           String cacheKey,
                                           TiledImageView.TileDownloadSuccessListener successListener,
                                           TiledImageView.TileDownloadErrorListener errorListener,
-                                          TaskManager.TaskListener taskManagerListener) {
+                                          TaskManager.TileTaskListener taskManagerListener,
+                                          TiledImageViewConfig config) {
+        mTilePosition = tilePosition;
         mTileImageUrl = tileImageUrl;
         mCacheKey = cacheKey;
+        mConfig = config;
         mSuccessListener = successListener;
         mErrorListener = errorListener;
         mTaskManagerListener = taskManagerListener;
+        mRequestedAtNanos = System.nanoTime();
     }
 
     @Override
     protected Boolean doInBackground(Void... params) {
+        TileTrace.record(mCacheKey, TileTrace.Event.STARTED);
+        TileTrace.beginSection("tile delivery");
+        try {
+            return deliver();
+        } finally {
+            TileTrace.endSection();
+        }
+    }
+
+    private boolean deliver() {
         if (!isCancelled()) {
             TileCache tileCache = CacheManager.getTileCache();
+            if (tileCache.getItemFromMemoryCache(mCacheKey) != null) {
+                //delivered meanwhile by task of other view
+                mSource = PerformanceStats.TileSource.MEMORY;
+                return true;
+            }
             boolean diskCacheEnabled = tileCache.isDiskCacheEnabled();
             if (diskCacheEnabled) {
-                boolean inDiskCache = tileCache.isItemInDiskCache(mCacheKey);
-                LOGGER.d("is in disk cache: " + inDiskCache);
+                //single lookup, null means not in disk cache
+                Bitmap fromDiskCache;
+                TileTrace.beginSection("tile disk cache read");
+                try {
+                    fromDiskCache = tileCache.getItemFromDiskCache(mCacheKey);
+                } finally {
+                    TileTrace.endSection();
+                }
+                TileTrace.record(mCacheKey, fromDiskCache != null ? TileTrace.Event.DISK_HIT : TileTrace.Event.DISK_MISS);
                 if (!isCancelled()) {
-                    if (inDiskCache) {
-                        Bitmap fromDiskCache = tileCache.getItemFromDiskCache(mCacheKey);
-                        if (!isCancelled()) {
-                            if (fromDiskCache != null) {
-                                LOGGER.d("disk cache returned bitmap");
-                                tileCache.storeItemToMemoryCache(mCacheKey, fromDiskCache);
-                                LOGGER.d("bitmap stored into memory cache");
-                                return true;
-                            } else {
-                                LOGGER.w("disk cache returned null");
-                                // insonsistence between isItemInDiskCache() and subsequential getItemFromDiskCache()
-                                // ignoring
-                                return false;
-                            }
-                        }
+                    if (fromDiskCache != null) {
+                        LOGGER.d("disk cache returned bitmap");
+                        tileCache.storeItemToMemoryCache(mCacheKey, fromDiskCache);
+                        TileTrace.record(mCacheKey, TileTrace.Event.STORED);
+                        LOGGER.d("bitmap stored into memory cache");
+                        mSource = PerformanceStats.TileSource.DISK;
+                        return true;
                     } else { //not in disk cache
-                        fetchFromNetAndSave(tileCache, diskCacheEnabled);
+                        return fetchFromNetAndSave(tileCache, diskCacheEnabled);
                     }
                 }
             } else {//disk cache disabled
-                fetchFromNetAndSave(tileCache, false);
+                return fetchFromNetAndSave(tileCache, false);
             }
         }
         return false;
@@ -84,8 +112,9 @@ public class DeliverTileIntoMemoryCacheTask extends ConcurrentAsyncTask<Void, Vo
 
 
     private boolean fetchFromNetAndSave(TileCache tileCache, boolean diskCacheEnabled) {
-        Bitmap fromNet = downloadTile(mTileImageUrl);
-        if (fromNet != null) {
+        Downloader.DownloadedTile downloaded = downloadTile(mTileImageUrl, tileCache);
+        if (downloaded != null) {
+            Bitmap fromNet = downloaded.getBitmap();
             LOGGER.d("fetched from net");
             //memory
             if (!isCancelled()) {
@@ -95,9 +124,11 @@ public class DeliverTileIntoMemoryCacheTask extends ConcurrentAsyncTask<Void, Vo
             //disk
             if (!isCancelled()) {
                 if (diskCacheEnabled) {
-                    tileCache.storeItemToDiskCache(mCacheKey, fromNet);
-                    LOGGER.d("bitmap stored into disk cache");
+                    tileCache.storeItemToDiskCache(mCacheKey, fromNet, downloaded.getBytes());
+                    LOGGER.d("bitmap enqueued for disk cache");
                 }
+                TileTrace.record(mCacheKey, TileTrace.Event.STORED);
+                mSource = PerformanceStats.TileSource.NETWORK;
                 return true;
             }
         } else {
@@ -106,9 +137,9 @@ public class DeliverTileIntoMemoryCacheTask extends ConcurrentAsyncTask<Void, Vo
         return false;
     }
 
-    private Bitmap downloadTile(String mTileImageUrl) {
+    private Downloader.DownloadedTile downloadTile(String mTileImageUrl, TileCache tileCache) {
         try {
-            Bitmap tile = Downloader.downloadTile(mTileImageUrl);
+            Downloader.DownloadedTile tile = Downloader.downloadTileWithBytes(mTileImageUrl, mConfig.getTileConnectTimeoutMs(), mConfig.getTileReadTimeoutMs(), tileCache.buildDecodeOptions(), mCacheKey);
             return tile;
         } catch (TooManyRedirectionsException e) {
             tooManyRedirectionsException = e;
@@ -125,12 +156,14 @@ public class DeliverTileIntoMemoryCacheTask extends ConcurrentAsyncTask<Void, Vo
     @Override
     protected void onPostExecute(Boolean success) {
         //LOGGER.i("finished: " + mTileImageUrl);
+        TileTrace.record(mCacheKey, success ? TileTrace.Event.DELIVERED : TileTrace.Event.FAILED);
+        long deliveryNanos = System.nanoTime() - mRequestedAtNanos;
         if (mTaskManagerListener != null) {
-            mTaskManagerListener.onFinished();
+            mTaskManagerListener.onFinished(success ? mSource : null, deliveryNanos);
         }
         if (success) {
             if (mSuccessListener != null) {
-                mSuccessListener.onTileDelivered();
+                mSuccessListener.onTileDelivered(mTilePosition, mSource, deliveryNanos);
             }
         } else {
             if (mErrorListener != null) {
@@ -148,6 +181,7 @@ public class DeliverTileIntoMemoryCacheTask extends ConcurrentAsyncTask<Void, Vo
     @Override
     protected void onCancelled(Boolean succes) {
         //LOGGER.i("canceled: " + mTileImageUrl);
+        TileTrace.record(mCacheKey, TileTrace.Event.CANCELLED);
         if (mTaskManagerListener != null) {
             mTaskManagerListener.onCanceled();
         }
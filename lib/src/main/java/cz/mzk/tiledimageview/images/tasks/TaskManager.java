@@ -1,6 +1,7 @@
 package cz.mzk.tiledimageview.images.tasks;
 
-import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.support.annotation.UiThread;
 
 import java.util.HashMap;
@@ -9,10 +10,13 @@ import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 
 import cz.mzk.tiledimageview.Logger;
+import cz.mzk.tiledimageview.PerformanceStats;
 import cz.mzk.tiledimageview.TiledImageView;
+import cz.mzk.tiledimageview.TiledImageViewConfig;
 import cz.mzk.tiledimageview.TiledImageView.MetadataInitializationListener;
 import cz.mzk.tiledimageview.TiledImageView.MetadataInitializationSuccessListener;
 import cz.mzk.tiledimageview.images.TilePositionInPyramid;
+import cz.mzk.tiledimageview.images.TileTrace;
 import cz.mzk.tiledimageview.images.TiledImageProtocol;
 
 
@@ -26,29 +30,63 @@ import cz.mzk.tiledimageview.images.TiledImageProtocol;
 public class TaskManager {
 
     //hight task pool size will cause taks from other TileImage instances (typically InitImageManagerTask) to wait to long
+    //default for TiledImageViewConfig
     public static final int MAX_TASKS_IN_POOL = 10;
 
     private static final Logger LOGGER = new Logger(TaskManager.class);
-
     private final Map<TilePositionInPyramid, DeliverTileIntoMemoryCacheTask> mDeliverTileTasks = new HashMap<>();
 
     private DeliverMetadataTask mDeliverMetadataTask;
     private InflateTileMemoryCache mInflateTileMemoryCacheTask;
+    private ComposeTilesTask mComposeTilesTask;
     private int lastITileMemoryCacheInflatedSize = 0;
+    // listener of last tile request ignored because of full queue, notified when slot is free again
+    private TiledImageView.TileDownloadSuccessListener mWaitingForFreeSlot;
+    private TiledImageViewConfig mConfig;
+    private PerformanceStats mPerformanceStats = null;
+
 
+    /**
+     * @param config see {@link #setConfig(TiledImageViewConfig)}
+     */
+    public TaskManager(TiledImageViewConfig config) {
+        setConfig(config);
+    }
 
-    public TaskManager() {
+    /**
+     * Applies to tasks enqueued from now on.
+     *
+     * @param config config resolved by view (own or process-wide), not null
+     */
+    @UiThread
+    public void setConfig(TiledImageViewConfig config) {
+        if (config == null) {
+            throw new NullPointerException("config is null");
+        }
+        mConfig = config;
     }
 
+    private TiledImageViewConfig getConfig() {
+        return mConfig;
+    }
 
+    /**
+     * @param stats where delivery times of tiles are recorded, null to stop recording
+     */
     @UiThread
-    public static void enqueueCacheManagerInitialization(Context context, boolean diskCacheEnabled, boolean clearDiskCache, long tileDiskCacheBytes, TaskListener listener) {
-        InitCacheManagerTask task = new InitCacheManagerTask(context, diskCacheEnabled, clearDiskCache, tileDiskCacheBytes, listener);
+    public void setPerformanceStats(PerformanceStats stats) {
+        mPerformanceStats = stats;
+    }
+
+
+    @UiThread
+    public static void enqueueDiskCachesAttachment(TaskListener listener) {
+        AttachDiskCachesTask task = new AttachDiskCachesTask(listener);
         try {
-            LOGGER.i("enqueuing init-cache-manager task");
+            LOGGER.i("enqueuing attach-disk-caches task");
             task.executeConcurrentIfPossible();
         } catch (RejectedExecutionException e) {
-            LOGGER.w("init-cache-manager task task: to many threads in execution pool");
+            LOGGER.w("attach-disk-caches task: to many threads in execution pool");
             listener.onCanceled();
         }
     }
@@ -71,7 +109,7 @@ public class TaskManager {
                     mDeliverMetadataTask = null;
                     LOGGER.d("deliver-metadata task canceled");
                 }
-            });
+            }, getConfig());
             try {
                 mDeliverMetadataTask.executeConcurrentIfPossible();
             } catch (RejectedExecutionException e) {
@@ -90,36 +128,60 @@ public class TaskManager {
                                                    TiledImageView.TileDownloadSuccessListener successListener,
                                                    TiledImageView.TileDownloadErrorListener errorListener
     ) {
-        if (mDeliverTileTasks.size() < MAX_TASKS_IN_POOL) {
+        if (mDeliverTileTasks.size() < getConfig().getMaxTileTasks()) {
             if (!mDeliverTileTasks.containsKey(tilePosition)) {
                 //if (true) {
-                LOGGER.i(String.format("enqueuing deliver-tile-into-memory-cache task: %s, (total %d)", tileImageUrl, mDeliverTileTasks.size() + 1));
-                DeliverTileIntoMemoryCacheTask task = new DeliverTileIntoMemoryCacheTask(tileImageUrl, cacheKey, successListener, errorListener, new TaskListener() {
+                if (Logger.INFO_ENABLED) {
+                    LOGGER.i(String.format("enqueuing deliver-tile-into-memory-cache task: %s, (total %d)", tileImageUrl, mDeliverTileTasks.size() + 1));
+                }
+                TileTrace.record(cacheKey, TileTrace.Event.REQUESTED);
+                DeliverTileIntoMemoryCacheTask task = new DeliverTileIntoMemoryCacheTask(tilePosition, tileImageUrl, cacheKey, successListener, errorListener, new TileTaskListener() {
 
                     @Override
-                    public void onFinished(Object... data) {
-                        LOGGER.d(String.format("deliver-tile-into-memory-cache task finished: %s", tileImageUrl));
+                    public void onFinished(PerformanceStats.TileSource source, long latencyNanos) {
+                        LOGGER.d("deliver-tile-into-memory-cache task finished: %s", tileImageUrl);
+                        if (mPerformanceStats != null && source != null) {
+                            mPerformanceStats.recordTileDelivery(source, latencyNanos);
+                        }
                         mDeliverTileTasks.remove(tilePosition);
+                        notifyFreeSlot();
                     }
 
                     @Override
                     public void onCanceled() {
-                        LOGGER.d(String.format("deliver-tile-into-memory-cache task canceled: %s", tileImageUrl));
+                        LOGGER.d("deliver-tile-into-memory-cache task canceled: %s", tileImageUrl);
                         mDeliverTileTasks.remove(tilePosition);
+                        notifyFreeSlot();
                     }
-                });
+                }, getConfig());
                 mDeliverTileTasks.put(tilePosition, task);
                 try {
                     task.executeConcurrentIfPossible();
+                    //only after submission, so that rejected task doesn't open trace slice
+                    TileTrace.record(cacheKey, TileTrace.Event.ENQUEUED);
                 } catch (RejectedExecutionException e) {
                     LOGGER.w("deliver-tile-into-memory-cache task: to many threads in execution pool");
                     mDeliverTileTasks.remove(tilePosition);
+                    TileTrace.record(cacheKey, TileTrace.Event.REJECTED);
                 }
             } else {
-                LOGGER.d(String.format("ignoring tile-download task for '%s' (already in queue)", tileImageUrl));
+                LOGGER.d("ignoring tile-download task for '%s' (already in queue)", tileImageUrl);
             }
         } else {
-            LOGGER.d(String.format("ignoring tile-download task for '%s' (queue full - %d items)", tileImageUrl, mDeliverTileTasks.size()));
+            if (Logger.DEBUG_ENABLED) {
+                LOGGER.d(String.format("ignoring tile-download task for '%s' (queue full - %d items)", tileImageUrl, mDeliverTileTasks.size()));
+            }
+            if (successListener != null) {
+                mWaitingForFreeSlot = successListener;
+            }
+        }
+    }
+
+    private void notifyFreeSlot() {
+        if (mWaitingForFreeSlot != null) {
+            TiledImageView.TileDownloadSuccessListener listener = mWaitingForFreeSlot;
+            mWaitingForFreeSlot = null;
+            listener.onTileDeliverySlotAvailable();
         }
     }
 
@@ -127,12 +189,16 @@ public class TaskManager {
     @UiThread
     public void cancelAllTasks() {
         LOGGER.d("canceling all tasks");
+        mWaitingForFreeSlot = null;
         if (mDeliverMetadataTask != null) {
             mDeliverMetadataTask.cancel(false);
         }
         if (mInflateTileMemoryCacheTask != null) {
             mInflateTileMemoryCacheTask.cancel(false);
         }
+        if (mComposeTilesTask != null) {
+            mComposeTilesTask.cancel(false);
+        }
         for (DeliverTileIntoMemoryCacheTask task : mDeliverTileTasks.values()) {
             task.cancel(false);
         }
@@ -161,7 +227,9 @@ public class TaskManager {
             //LOGGER.d(String.format("ignoring inflate-tiles-memory-cache task (%d>=%d)", lastITileMemoryCacheInflatedSize, newMaxSize));
         } else {
             if (mInflateTileMemoryCacheTask == null) {
-                LOGGER.i(String.format("enqueuing inflate-tiles-memory-cache task (oldSize=%d,newSize=%d)", lastITileMemoryCacheInflatedSize, newMaxSize));
+                if (Logger.INFO_ENABLED) {
+                    LOGGER.i(String.format("enqueuing inflate-tiles-memory-cache task (oldSize=%d,newSize=%d)", lastITileMemoryCacheInflatedSize, newMaxSize));
+                }
                 InflateTileMemoryCache task = new InflateTileMemoryCache(newMaxSize, new TaskListener() {
                     @Override
                     public void onFinished(Object... data) {
@@ -187,6 +255,47 @@ public class TaskManager {
         }
     }
 
+    @UiThread
+    public boolean isTilesCompositionRunning() {
+        return mComposeTilesTask != null;
+    }
+
+    /**
+     * Only one composition runs at time.
+     *
+     * @return true if task was enqueued
+     */
+    @UiThread
+    public boolean enqueueTilesComposition(Bitmap[] tiles, Rect[] tileAreas, int width, int height, TiledImageView.TilesCompositionListener listener) {
+        if (mComposeTilesTask != null) {
+            LOGGER.d("ignoring compose-tiles task - already in queue");
+            return false;
+        }
+        if (Logger.INFO_ENABLED) {
+            LOGGER.i(String.format("enqueuing compose-tiles task (%d tiles, %dx%d)", tiles.length, width, height));
+        }
+        ComposeTilesTask task = new ComposeTilesTask(tiles, tileAreas, width, height, listener, new TaskListener() {
+            @Override
+            public void onFinished(Object... data) {
+                mComposeTilesTask = null;
+            }
+
+            @Override
+            public void onCanceled() {
+                mComposeTilesTask = null;
+            }
+        });
+        mComposeTilesTask = task;
+        try {
+            task.executeConcurrentIfPossible();
+            return true;
+        } catch (RejectedExecutionException e) {
+            LOGGER.d("to many threads in execution pool");
+            mComposeTilesTask = null;
+            return false;
+        }
+    }
+
     public static interface TaskListener {
         @UiThread
         void onFinished(Object... data);
@@ -194,4 +303,16 @@ public class TaskManager {
         void onCanceled();
 
     }
+
+    public static interface TileTaskListener {
+        /**
+         * @param source       where tile was delivered from, null if it was not delivered
+         * @param latencyNanos time since task was created
+         */
+        @UiThread
+        void onFinished(PerformanceStats.TileSource source, long latencyNanos);
+
+        void onCanceled();
+
+    }
 }
@@ -1,16 +1,41 @@
 package cz.mzk.tiledimageview.images.zoomify;
 
 /**
+ * Immutable values of single layer, computed once from image metadata. So that geometry and tile url computations are just
+ * reads, without powers of two and loops over layers.
+ *
  * @author Martin Řehánek
  */
 public class Layer {
 
     private final int tilesVertical;
     private final int tilesHorizontal;
+    private final int tileBasicSize;
+    private final int lastColumnWidth;
+    private final int lastRowHeight;
+    private final int width;
+    private final int height;
+    private final long tilesInLowerLayers;
 
-    public Layer(int tilesVertical, int tilesHorizontal) {
+    /**
+     * @param tilesVertical      number of tile rows
+     * @param tilesHorizontal    number of tile columns
+     * @param tileBasicSize      width/height of typical (not border) tile in image coords
+     * @param lastColumnWidth    width of tiles in last column in image coords
+     * @param lastRowHeight      height of tiles in last row in image coords
+     * @param width              layer width in layer's own pixels
+     * @param height             layer height in layer's own pixels
+     * @param tilesInLowerLayers sum of tiles in all layers with lower id, i.e. index of this layer's first tile within pyramid
+     */
+    public Layer(int tilesVertical, int tilesHorizontal, int tileBasicSize, int lastColumnWidth, int lastRowHeight, int width, int height, long tilesInLowerLayers) {
         this.tilesVertical = tilesVertical;
         this.tilesHorizontal = tilesHorizontal;
+        this.tileBasicSize = tileBasicSize;
+        this.lastColumnWidth = lastColumnWidth;
+        this.lastRowHeight = lastRowHeight;
+        this.width = width;
+        this.height = height;
+        this.tilesInLowerLayers = tilesInLowerLayers;
     }
 
     public int getTilesVertical() {
@@ -21,4 +46,28 @@ public class Layer {
         return tilesHorizontal;
     }
 
+    public int getTileBasicSize() {
+        return tileBasicSize;
+    }
+
+    public int getLastColumnWidth() {
+        return lastColumnWidth;
+    }
+
+    public int getLastRowHeight() {
+        return lastRowHeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getTilesInLowerLayers() {
+        return tilesInLowerLayers;
+    }
+
 }
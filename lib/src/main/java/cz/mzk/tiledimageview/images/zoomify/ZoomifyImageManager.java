@@ -3,17 +3,16 @@ package cz.mzk.tiledimageview.images.zoomify;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import cz.mzk.tiledimageview.Logger;
-import cz.mzk.tiledimageview.Point;
+import cz.mzk.tiledimageview.PerformanceStats;
 import cz.mzk.tiledimageview.TiledImageView;
+import cz.mzk.tiledimageview.TiledImageViewConfig;
 import cz.mzk.tiledimageview.TiledImageView.TileDownloadErrorListener;
 import cz.mzk.tiledimageview.TiledImageView.TileDownloadSuccessListener;
 import cz.mzk.tiledimageview.Utils;
 import cz.mzk.tiledimageview.images.ImageManager;
-import cz.mzk.tiledimageview.images.TileDimensionsInImage;
 import cz.mzk.tiledimageview.images.TilePositionInPyramid;
 import cz.mzk.tiledimageview.images.TiledImageProtocol;
 import cz.mzk.tiledimageview.images.cache.CacheKeyBuilder;
@@ -40,22 +39,34 @@ public class ZoomifyImageManager implements ImageManager {
 
     private static final Logger LOGGER = new Logger(ZoomifyImageManager.class);
 
-    private final TaskManager mTaskManager = new TaskManager();
+    private final TaskManager mTaskManager;
     private final String mBaseUrl;
     private final double mPxRatio;
     private final String mImagePropertiesUrl;
 
     private ImageMetadata mImageMetadata;
-    private List<Layer> mLayers;
+    // per-layer tables, index is layer id
+    private Layer[] mLayers;
     private ImageMetadata mMetadata;
 
+    // Shared tile positions, urls and cache keys (per layer, index = row * tilesHorizontal + column), created lazily when tile
+    // is needed for the first time. So that drawing frames with same tiles doesn't allocate anything.
+    private TilePositionInPyramid[][] mTilePositions;
+    private String[][] mTileUrls;
+    private String[][] mTileKeys;
+    // scratch for visible-tiles computations (ui thread only): min column, min row, max column, max row
+    private final int[] mVisibleTilesBounds = new int[4];
+    private final Rect mCompositionAreaScratch = new Rect();
+    private final Rect mTileAreaScratch = new Rect();
+
 
     /**
      * @param zoomifyBaseUrl Zoomify base url.
      * @param pxRatio        Ratio between pixels and density-independent pixels for computing image_size_in_canvas. Must be between 0 and 1.
      *                       dpRatio = (1-pxRatio)
+     * @param config         scheduling and networking configuration, not null
      */
-    public ZoomifyImageManager(String zoomifyBaseUrl, double pxRatio) {
+    public ZoomifyImageManager(String zoomifyBaseUrl, double pxRatio, TiledImageViewConfig config) {
         if (pxRatio < 0 || pxRatio > 1) {
             throw new IllegalArgumentException("pxRation not in <0;1> interval");
         } else {
@@ -67,6 +78,22 @@ public class ZoomifyImageManager implements ImageManager {
             mBaseUrl = zoomifyBaseUrl.endsWith("/") ? zoomifyBaseUrl : zoomifyBaseUrl + '/';
         }
         mImagePropertiesUrl = mBaseUrl + "ImageProperties.xml";
+        mTaskManager = new TaskManager(config);
+    }
+
+    @Override
+    public void setConfig(TiledImageViewConfig config) {
+        mTaskManager.setConfig(config);
+    }
+
+    @Override
+    public void setPerformanceStats(PerformanceStats stats) {
+        mTaskManager.setPerformanceStats(stats);
+    }
+
+    @Override
+    public int getTileDeliveryTasksCount() {
+        return mTaskManager.getIdsOfAllTileDeliveryTasks().size();
     }
 
     @Override
@@ -94,6 +121,9 @@ public class ZoomifyImageManager implements ImageManager {
         mImageMetadata = imageMetadata;
         LOGGER.d(mImageMetadata.toString());
         mLayers = initLayers();
+        mTilePositions = new TilePositionInPyramid[mLayers.length][];
+        mTileUrls = new String[mLayers.length][];
+        mTileKeys = new String[mLayers.length][];
     }
 
     @Override
@@ -135,18 +165,28 @@ public class ZoomifyImageManager implements ImageManager {
         return mBaseUrl;
     }
 
-    private List<Layer> initLayers() {
+    /**
+     * Everything that depends only on layer is computed here, once per image.
+     */
+    private Layer[] initLayers() {
         int numberOfLayers = computeNumberOfLayers();
         // LOGGER.d( "mLayers #: " + numberOfLayers);
-        List<Layer> result = new ArrayList<Layer>(numberOfLayers);
-        double width = mImageMetadata.getWidth();
-        double height = mImageMetadata.getHeight();
-        double tileSize = mImageMetadata.getTileSize();
+        Layer[] result = new Layer[numberOfLayers];
+        int width = mImageMetadata.getWidth();
+        int height = mImageMetadata.getHeight();
+        int tileSize = mImageMetadata.getTileSize();
+        long tilesInLowerLayers = 0;
         for (int layer = 0; layer < numberOfLayers; layer++) {
-            double powerOf2 = Utils.pow(2, numberOfLayers - layer - 1);
-            int tilesHorizontal = (int) Math.ceil(Math.floor(width / powerOf2) / tileSize);
-            int tilesVertical = (int) Math.ceil(Math.floor(height / powerOf2) / tileSize);
-            result.add(new Layer(tilesVertical, tilesHorizontal));
+            int powerOf2 = Utils.pow(2, numberOfLayers - layer - 1);
+            int layerWidth = width / powerOf2;
+            int layerHeight = height / powerOf2;
+            int tilesHorizontal = (int) Math.ceil(layerWidth / (double) tileSize);
+            int tilesVertical = (int) Math.ceil(layerHeight / (double) tileSize);
+            int basicSize = tileSize * powerOf2;
+            int lastColumnWidth = width - basicSize * (tilesHorizontal - 1);
+            int lastRowHeight = height - basicSize * (tilesVertical - 1);
+            result[layer] = new Layer(tilesVertical, tilesHorizontal, basicSize, lastColumnWidth, lastRowHeight, layerWidth, layerHeight, tilesInLowerLayers);
+            tilesInLowerLayers += (long) tilesHorizontal * tilesVertical;
         }
         return result;
     }
@@ -167,22 +207,53 @@ public class ZoomifyImageManager implements ImageManager {
     }
 
     @Override
-    public List<TilePositionInPyramid> getVisibleTilesForLayer(int layerId, Rect visibleAreaInImageCoords) {
-        TilePositionInPyramid.TilePositionInLayer[] corners = getCornerVisibleTilesCoords(layerId, visibleAreaInImageCoords);
-        TilePositionInPyramid.TilePositionInLayer topLeftVisibleTilePositionInLayer = corners[0];
-        TilePositionInPyramid.TilePositionInLayer bottomRightVisibleTilePositionInLayer = corners[1];
-
-        List<TilePositionInPyramid> visibleTiles = new ArrayList<>();
-        for (int y = topLeftVisibleTilePositionInLayer.row; y <= bottomRightVisibleTilePositionInLayer.row; y++) {
-            for (int x = topLeftVisibleTilePositionInLayer.column; x <= bottomRightVisibleTilePositionInLayer.column; x++) {
-                visibleTiles.add(new TilePositionInPyramid(layerId, x, y));
+    public void getVisibleTilesForLayer(int layerId, Rect visibleAreaInImageCoords, List<TilePositionInPyramid> result) {
+        result.clear();
+        computeVisibleTilesBounds(layerId, visibleAreaInImageCoords);
+        int minColumn = mVisibleTilesBounds[0];
+        int minRow = mVisibleTilesBounds[1];
+        int maxColumn = mVisibleTilesBounds[2];
+        int maxRow = mVisibleTilesBounds[3];
+        for (int y = minRow; y <= maxRow; y++) {
+            for (int x = minColumn; x <= maxColumn; x++) {
+                result.add(getTilePosition(layerId, x, y));
             }
         }
-        return visibleTiles;
+    }
 
+    @Override
+    public void getPrefetchTilesForLayer(int layerId, Rect visibleAreaInImageCoords, int radiusTiles, List<TilePositionInPyramid> result) {
+        result.clear();
+        if (radiusTiles <= 0) {
+            return;
+        }
+        computeVisibleTilesBounds(layerId, visibleAreaInImageCoords);
+        int minColumn = mVisibleTilesBounds[0];
+        int minRow = mVisibleTilesBounds[1];
+        int maxColumn = mVisibleTilesBounds[2];
+        int maxRow = mVisibleTilesBounds[3];
+        Layer layer = mLayers[layerId];
+        for (int ring = 1; ring <= radiusTiles; ring++) {
+            for (int y = minRow - ring; y <= maxRow + ring; y++) {
+                if (y < 0 || y >= layer.getTilesVertical()) {
+                    continue;
+                }
+                boolean edgeRow = y == minRow - ring || y == maxRow + ring;
+                //whole edge row, otherwise only first and last column of the ring
+                int step = edgeRow ? 1 : maxColumn - minColumn + 2 * ring;
+                for (int x = minColumn - ring; x <= maxColumn + ring; x += step) {
+                    if (x >= 0 && x < layer.getTilesHorizontal()) {
+                        result.add(getTilePosition(layerId, x, y));
+                    }
+                }
+            }
+        }
     }
 
-    private TilePositionInPyramid.TilePositionInLayer[] getCornerVisibleTilesCoords(int layerId, Rect visibleAreaInImageCoords) {
+    /**
+     * Fills mVisibleTilesBounds with columns and rows of top-left and bottom-right visible tiles.
+     */
+    private void computeVisibleTilesBounds(int layerId, Rect visibleAreaInImageCoords) {
         int imageWidthMinusOne = mImageMetadata.getWidth() - 1;
         int imageHeightMinusOne = mImageMetadata.getHeight() - 1;
 
@@ -190,43 +261,101 @@ public class ZoomifyImageManager implements ImageManager {
         int topLeftVisibleY = Utils.collapseToInterval(visibleAreaInImageCoords.top, 0, imageHeightMinusOne);
         int bottomRightVisibleX = Utils.collapseToInterval(visibleAreaInImageCoords.right, 0, imageWidthMinusOne);
         int bottomRightVisibleY = Utils.collapseToInterval(visibleAreaInImageCoords.bottom, 0, imageHeightMinusOne);
-        Point topLeftVisibleInImageCoords = new Point(topLeftVisibleX, topLeftVisibleY);
-        Point bottomRightVisibleInImageCoords = new Point(bottomRightVisibleX, bottomRightVisibleY);
 
         // TestTags.TILES.d( "top left: [" + topLeftVisibleX + "," + topLeftVisibleY + "]");
         // TestTags.TILES.d( "bottom right: [" + bottomRightVisibleX + "," + bottomRightVisibleY + "]");
-        TilePositionInPyramid.TilePositionInLayer topLeftVisibleTile = calculateTileCoordsFromPointInImageCoords(layerId, topLeftVisibleInImageCoords);
-        TilePositionInPyramid.TilePositionInLayer bottomRightVisibleTile = calculateTileCoordsFromPointInImageCoords(layerId, bottomRightVisibleInImageCoords);
-        // TestTags.TILES.d( "top_left:     " + Utils.toString(topLeftVisibleTileCoords));
-        // TestTags.TILES.d( "bottom_right: " + Utils.toString(bottomRightVisibleTileCoords));
-        return new TilePositionInPyramid.TilePositionInLayer[]{topLeftVisibleTile, bottomRightVisibleTile};
+        checkLayerId(layerId);
+        mVisibleTilesBounds[0] = calculateTileIndexFromImageCoord(layerId, topLeftVisibleX);
+        mVisibleTilesBounds[1] = calculateTileIndexFromImageCoord(layerId, topLeftVisibleY);
+        mVisibleTilesBounds[2] = calculateTileIndexFromImageCoord(layerId, bottomRightVisibleX);
+        mVisibleTilesBounds[3] = calculateTileIndexFromImageCoord(layerId, bottomRightVisibleY);
+        //layer size is floored, so last pixels of image can fall beyond last tile of layer
+        Layer layer = mLayers[layerId];
+        clampVisibleTilesBounds(0, 2, layer.getTilesHorizontal());
+        clampVisibleTilesBounds(1, 3, layer.getTilesVertical());
+    }
+
+    private void clampVisibleTilesBounds(int minIndex, int maxIndex, int tiles) {
+        mVisibleTilesBounds[maxIndex] = Math.min(mVisibleTilesBounds[maxIndex], tiles - 1);
+        mVisibleTilesBounds[minIndex] = Math.min(mVisibleTilesBounds[minIndex], Math.max(0, tiles - 1));
+    }
+
+    /**
+     * @return shared instance of tile position, new one if there is no such tile in layer
+     */
+    private TilePositionInPyramid getTilePosition(int layerId, int column, int row) {
+        Layer layer = mLayers[layerId];
+        if (column < 0 || column >= layer.getTilesHorizontal() || row < 0 || row >= layer.getTilesVertical()) {
+            return new TilePositionInPyramid(layerId, column, row);
+        }
+        TilePositionInPyramid[] positions = mTilePositions[layerId];
+        if (positions == null) {
+            positions = new TilePositionInPyramid[getTilesInLayer(layerId)];
+            mTilePositions[layerId] = positions;
+        }
+        int index = getTileIndexInLayer(layerId, column, row);
+        TilePositionInPyramid position = positions[index];
+        if (position == null) {
+            position = new TilePositionInPyramid(layerId, column, row);
+            positions[index] = position;
+        }
+        return position;
+    }
+
+    private String getTileUrl(TilePositionInPyramid tilePositionInPyramid) {
+        int layerId = tilePositionInPyramid.getLayer();
+        String[] urls = mTileUrls[layerId];
+        if (urls == null) {
+            urls = new String[getTilesInLayer(layerId)];
+            mTileUrls[layerId] = urls;
+        }
+        int index = getTileIndexInLayer(layerId, tilePositionInPyramid.getPositionInLayer().column, tilePositionInPyramid.getPositionInLayer().row);
+        String url = urls[index];
+        if (url == null) {
+            url = buildTileUrl(computeTileGroup(tilePositionInPyramid), tilePositionInPyramid);
+            LOGGER.v("TILE URL: %s", url);
+            urls[index] = url;
+        }
+        return url;
+    }
+
+    private String getTileKey(TilePositionInPyramid tilePositionInPyramid) {
+        int layerId = tilePositionInPyramid.getLayer();
+        String[] keys = mTileKeys[layerId];
+        if (keys == null) {
+            keys = new String[getTilesInLayer(layerId)];
+            mTileKeys[layerId] = keys;
+        }
+        int index = getTileIndexInLayer(layerId, tilePositionInPyramid.getPositionInLayer().column, tilePositionInPyramid.getPositionInLayer().row);
+        String key = keys[index];
+        if (key == null) {
+            key = CacheKeyBuilder.buildKeyFromUrl(getTileUrl(tilePositionInPyramid));
+            keys[index] = key;
+        }
+        return key;
+    }
+
+    private int getTilesInLayer(int layerId) {
+        Layer layer = mLayers[layerId];
+        return layer.getTilesHorizontal() * layer.getTilesVertical();
+    }
+
+    private int getTileIndexInLayer(int layerId, int column, int row) {
+        return row * mLayers[layerId].getTilesHorizontal() + column;
     }
 
     /**
+     * Tile's index within whole pyramid (tiles of lower layers first, then row by row) divided by tile size.
+     *
      * @link http://www.staremapy.cz/zoomify-analyza/
      */
-    private int computeTileGroup(TilePositionInPyramid tilePositionInPyramid) {
+    int computeTileGroup(TilePositionInPyramid tilePositionInPyramid) {
         int column = tilePositionInPyramid.getPositionInLayer().column;
         int row = tilePositionInPyramid.getPositionInLayer().row;
-        int level = tilePositionInPyramid.getLayer();
-        double tileSize = mImageMetadata.getTileSize();
-        double width = mImageMetadata.getWidth();
-        double height = mImageMetadata.getHeight();
-        double depth = mLayers.size();
-        // LOGGER.d( tilePositionInPyramid.toString());
-        // LOGGER.d( "column: " + column + ", row: " + row + ", d: " + depth + ", l: " + level);
-        // LOGGER.d( "width: " + width + ", height: " + height + ", tileSize: " + tileSize);
-
-        double first = Math.ceil(Math.floor(width / Math.pow(2, depth - level - 1)) / tileSize);
-        double index = column + row * first;
-        for (int i = 1; i <= level; i++) {
-            index += Math.ceil(Math.floor(width / Math.pow(2, depth - i)) / tileSize)
-                    * Math.ceil(Math.floor(height / Math.pow(2, depth - i)) / tileSize);
-        }
+        Layer layer = mLayers[tilePositionInPyramid.getLayer()];
+        long index = layer.getTilesInLowerLayers() + column + (long) row * layer.getTilesHorizontal();
         // LOGGER.d( "index: " + index);
-        int result = (int) (index / tileSize);
-        // LOGGER.d( "tile group: " + result);
-        return result;
+        return (int) (index / mImageMetadata.getTileSize());
     }
 
     private String buildTileUrl(int tileGroup, TilePositionInPyramid tilePositionInPyramid) {
@@ -239,39 +368,24 @@ public class ZoomifyImageManager implements ImageManager {
         return builder.toString();
     }
 
-    private TilePositionInPyramid.TilePositionInLayer calculateTileCoordsFromPointInImageCoords(int layerId, Point pointInMageCoords) {
-        if (layerId < 0 || layerId >= mLayers.size()) {
+    private void checkLayerId(int layerId) {
+        if (layerId < 0 || layerId >= mLayers.length) {
             throw new IllegalArgumentException("layer out of range: " + layerId);
         }
+    }
 
-        if (pointInMageCoords.x < 0 || pointInMageCoords.x >= mImageMetadata.getWidth()) {
-            throw new IllegalArgumentException("x coord out of range: " + pointInMageCoords.x);
-        }
-        if (pointInMageCoords.y < 0 || pointInMageCoords.y >= mImageMetadata.getHeight()) {
-            throw new IllegalArgumentException("y coord out of range: " + pointInMageCoords.y);
-        }
-
+    /**
+     * @param coordInImage x or y coordinate of point in image
+     * @return column (for x) or row (for y) of tile within layer, that contains the point
+     */
+    private int calculateTileIndexFromImageCoord(int layerId, int coordInImage) {
         // optimization, zero layer is whole image with coords 0,0
         if (layerId == 0) {
-            return new TilePositionInPyramid.TilePositionInLayer(0, 0);
-        }
-        // LOGGER.d( "getting picture for layer=" + layerId + ", x=" + pixelX +
-        // ", y=" + pixelY);
-        // Log.d(TestTags.TILES, "mLayers: " + mLayers.size() + ", layer: " + layerId);
-        double step = mImageMetadata.getTileSize() * Math.pow(2, mLayers.size() - layerId - 1);
-        // Log.d(TestTags.TILES, "step: " + step);
-        // x
-        double cx_step = pointInMageCoords.x / step;
-        // Log.d(TestTags.TILES, (cx_step - 1) + " < x <= " + cx_step);
-        int x = (int) Math.floor(cx_step);
-        // y
-        double cy_step = pointInMageCoords.y / step;
-        // Log.d(TestTags.TILES, (cy_step - 1) + " < y <= " + cy_step);
-        int y = (int) Math.floor(cy_step);
-        TilePositionInPyramid.TilePositionInLayer result = new TilePositionInPyramid.TilePositionInLayer(x, y);
-        // Log.d(TestTags.TILES, "px: [" + pixelX + "," + pixelY + "] -> " + Utils.toString(result));
-        return result;
-
+            return 0;
+        }
+        // LOGGER.d( "getting picture for layer=" + layerId + ", coord=" + coordInImage);
+        // coord is never negative, so integer division is floor
+        return coordInImage / mLayers[layerId].getTileBasicSize();
     }
 
     /**
@@ -314,7 +428,7 @@ public class ZoomifyImageManager implements ImageManager {
         }
         int imgInCanvasWidth = (int) (imageInCanvasWidthDp * dpRatio + wholeImageInCanvasCoords.width() * mPxRatio);
         int imgInCanvasHeight = (int) (imageInCanvasHeightDp * dpRatio + wholeImageInCanvasCoords.height() * mPxRatio);
-        // int layersNum = mLayers.size();
+        // int layersNum = mLayers.length;
         // if (true) {
         // // if (layersNum>=3){
         // // return 2;
@@ -329,18 +443,18 @@ public class ZoomifyImageManager implements ImageManager {
             return bestLayerAtLeastAsBigAs(imgInCanvasWidth, imgInCanvasHeight);
         }
 
-        int topLayer = mLayers.size() - 1;
+        int topLayer = mLayers.length - 1;
         // Log.d(TestTags.TEST, "imgInCanvas: width: " + imgInCanvasWidth + ", height: " + imgInCanvasHeight);
         for (int layerId = topLayer; layerId >= 0; layerId--) {
-            int horizontalTiles = mLayers.get(layerId).getTilesHorizontal();
+            int horizontalTiles = mLayers[layerId].getTilesHorizontal();
             int layerWidthWithoutLastTile = mImageMetadata.getTileSize() * (horizontalTiles - 1);
             // int testWidth = mImageMetadata.getTileSize() * horizontalTiles;
 
-            int verticalTiles = mLayers.get(layerId).getTilesVertical();
+            int verticalTiles = mLayers[layerId].getTilesVertical();
             int layerHeightWithoutLastTile = mImageMetadata.getTileSize() * (verticalTiles - 1);
             // int testHeight = mImageMetadata.getTileSize() * verticalTiles;
             double layerWidth = getLayerWidth(layerId);
-            // double result = mImageMetadata.getWidth() / Utils.pow(2, mLayers.size() - layerId - 1);
+            // double result = mImageMetadata.getWidth() / Utils.pow(2, mLayers.length - layerId - 1);
             double layerHeight = getLayerHeight(layerId);
             // Log.d(TestTags.TEST, "layer " + layerId + ": width: " + layerWidth + ", height: " + layerHeight);
             if (layerWidth <= imgInCanvasWidth && layerHeight <= imgInCanvasHeight) {
@@ -355,116 +469,155 @@ public class ZoomifyImageManager implements ImageManager {
             // }
         }
         int layerId = 0;
-        // int layerId = mLayers.size() - 1;
+        // int layerId = mLayers.length - 1;
         // Log.d(TestTags.TEST, "selected layer: " + layerId);
-        // return mLayers.size() - 1;
+        // return mLayers.length - 1;
         return layerId;
     }
 
     private int bestLayerAtLeastAsBigAs(int imgInCanvasWidth, int imageInCanvasHeight) {
         // Log.d(TestTags.TEST, "imgInCanvas: width: " + imgInCanvasWidth + ", height: " + imageInCanvasHeight);
-        for (int layerId = 0; layerId < mLayers.size(); layerId++) {
+        for (int layerId = 0; layerId < mLayers.length; layerId++) {
             double layerWidth = getLayerWidth(layerId);
             double layerHeight = getLayerHeight(layerId);
             if (layerWidth >= imgInCanvasWidth && layerHeight >= imageInCanvasHeight) {
                 return layerId;
             }
         }
-        return mLayers.size() - 1;
+        return mLayers.length - 1;
     }
 
 
     @Override
-    public Rect getTileAreaInImageCoords(TilePositionInPyramid tilePositionInPyramid) {
-        TileDimensionsInImage tileSizesInImage = calculateTileDimensionsInImageCoords(tilePositionInPyramid);
-        int left = tileSizesInImage.basicSize * tilePositionInPyramid.getPositionInLayer().column;
-        int right = left + tileSizesInImage.actualWidth;
-        int top = tileSizesInImage.basicSize * tilePositionInPyramid.getPositionInLayer().row;
-        int bottom = top + tileSizesInImage.actualHeight;
-        return new Rect(left, top, right, bottom);
+    public void getTileAreaInImageCoords(TilePositionInPyramid tilePositionInPyramid, Rect result) {
+        int layerId = tilePositionInPyramid.getLayer();
+        int column = tilePositionInPyramid.getPositionInLayer().column;
+        int row = tilePositionInPyramid.getPositionInLayer().row;
+        int basicSize = getTilesBasicSizeInImageCoordsForGivenLayer(layerId);
+        int left = basicSize * column;
+        int right = left + getTileWidthInImageCoords(layerId, column, basicSize);
+        int top = basicSize * row;
+        int bottom = top + getTileHeightInImageCoords(layerId, row, basicSize);
+        result.set(left, top, right, bottom);
     }
 
     @Override
     public String buildTileUrl(TilePositionInPyramid tilePositionInPyramid) {
-        int tileGroup = computeTileGroup(tilePositionInPyramid);
-        String tileUrl = buildTileUrl(tileGroup, tilePositionInPyramid);
-        LOGGER.v("TILE URL: " + tileUrl);
-        return tileUrl;
+        return getTileUrl(tilePositionInPyramid);
     }
 
     @Override
     public Bitmap getTile(TilePositionInPyramid tilePositionInPyramid, TileDownloadSuccessListener successListener, TileDownloadErrorListener errorListener) {
-        String tileUrl = buildTileUrl(tilePositionInPyramid);
-        String key = CacheKeyBuilder.buildKeyFromUrl(tileUrl);
+        String key = getTileKey(tilePositionInPyramid);
         TileCache cache = CacheManager.getTileCache();
         Bitmap fromMemoryCache = cache.getItemFromMemoryCache(key);
         if (fromMemoryCache != null) {
             return fromMemoryCache;
         } else {
+            String tileUrl = getTileUrl(tilePositionInPyramid);
             mTaskManager.enqueueTileDeliveryIntoMemoryCache(tilePositionInPyramid, tileUrl, key, successListener, errorListener);
             return null;
         }
     }
 
     @Override
-    public boolean tileIsAvailableNow(TilePositionInPyramid tilePositionInPyramid) {
-        String tileUrl = buildTileUrl(tilePositionInPyramid);
-        String key = CacheKeyBuilder.buildKeyFromUrl(tileUrl);
+    public Bitmap getTileFromMemoryCache(TilePositionInPyramid tilePositionInPyramid) {
+        String key = getTileKey(tilePositionInPyramid);
         TileCache cache = CacheManager.getTileCache();
-        Bitmap fromMemoryCache = cache.getItemFromMemoryCache(key);
-        return fromMemoryCache != null;
+        return cache.getItemFromMemoryCache(key);
     }
 
     @Override
-    public TiledImageProtocol getTiledImageProtocol() {
-        return TiledImageProtocol.ZOOMIFY;
+    public boolean enqueueTilesComposition(int layerId, List<TilePositionInPyramid> tiles, double maxScale, int maxPixels,
+                                           Rect areaInImageCoords, TiledImageView.TilesCompositionListener listener) {
+        if (tiles.isEmpty() || mTaskManager.isTilesCompositionRunning()) {
+            return false;
+        }
+        Rect area = mCompositionAreaScratch;
+        Rect tileArea = mTileAreaScratch;
+        area.setEmpty();
+        for (int i = 0; i < tiles.size(); i++) {
+            getTileAreaInImageCoords(tiles.get(i), tileArea);
+            area.union(tileArea);
+        }
+        double layerScale = mImageMetadata.getTileSize() / (double) getTilesBasicSizeInImageCoordsForGivenLayer(layerId);
+        double scale = Math.min(maxScale, layerScale);
+        int width = (int) Math.ceil(area.width() * scale);
+        int height = (int) Math.ceil(area.height() * scale);
+        if (width <= 0 || height <= 0 || (long) width * height > maxPixels) {
+            return false;
+        }
+        Bitmap[] bitmaps = new Bitmap[tiles.size()];
+        Rect[] bitmapAreas = new Rect[tiles.size()];
+        for (int i = 0; i < tiles.size(); i++) {
+            bitmaps[i] = getTileFromMemoryCache(tiles.get(i));
+            if (bitmaps[i] == null) {
+                return false;
+            }
+            getTileAreaInImageCoords(tiles.get(i), tileArea);
+            //rounding both edges same way, so that neighbouring tiles have no gaps
+            bitmapAreas[i] = new Rect(
+                    (int) Math.round((tileArea.left - area.left) * scale),
+                    (int) Math.round((tileArea.top - area.top) * scale),
+                    (int) Math.round((tileArea.right - area.left) * scale),
+                    (int) Math.round((tileArea.bottom - area.top) * scale));
+        }
+        if (mTaskManager.enqueueTilesComposition(bitmaps, bitmapAreas, width, height, listener)) {
+            areaInImageCoords.set(area);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tileIsAvailableNow(TilePositionInPyramid tilePositionInPyramid) {
+        return getTileFromMemoryCache(tilePositionInPyramid) != null;
+    }
+
+    /**
+     * Tile size in image coords doubles with every layer down, so ancestor's column/row is just tile's column/row divided by 2^layers.
+     */
+    @Override
+    public TilePositionInPyramid getAncestorTile(TilePositionInPyramid tilePositionInPyramid, int ancestorLayerId) {
+        int layersUp = tilePositionInPyramid.getLayer() - ancestorLayerId;
+        if (layersUp < 0) {
+            throw new IllegalArgumentException("ancestor layer " + ancestorLayerId + " above tile's layer " + tilePositionInPyramid.getLayer());
+        }
+        checkLayerId(ancestorLayerId);
+        //layer sizes are floored, so ancestor of last column/row can be one past the last tile of ancestor layer
+        Layer ancestorLayer = mLayers[ancestorLayerId];
+        int column = Math.min(tilePositionInPyramid.getPositionInLayer().column >> layersUp, Math.max(0, ancestorLayer.getTilesHorizontal() - 1));
+        int row = Math.min(tilePositionInPyramid.getPositionInLayer().row >> layersUp, Math.max(0, ancestorLayer.getTilesVertical() - 1));
+        return getTilePosition(ancestorLayerId, column, row);
     }
 
-    private TileDimensionsInImage calculateTileDimensionsInImageCoords(TilePositionInPyramid tilePositionInPyramid) {
-        int basicSize = getTilesBasicSizeInImageCoordsForGivenLayer(tilePositionInPyramid.getLayer());
-        int width = getTileWidthInImageCoords(tilePositionInPyramid.getLayer(), tilePositionInPyramid.getPositionInLayer().column, basicSize);
-        int height = getTileHeightInImageCoords(tilePositionInPyramid.getLayer(), tilePositionInPyramid.getPositionInLayer().row, basicSize);
-        return new TileDimensionsInImage(basicSize, width, height);
+    @Override
+    public TiledImageProtocol getTiledImageProtocol() {
+        return TiledImageProtocol.ZOOMIFY;
     }
 
     private int getTilesBasicSizeInImageCoordsForGivenLayer(int layerId) {
-        return mImageMetadata.getTileSize() * (int) (Math.pow(2, mLayers.size() - layerId - 1));
+        return mLayers[layerId].getTileBasicSize();
     }
 
     // TODO: sjednotit slovnik, tomuhle obcas rikam 'step'
     private int getTileWidthInImageCoords(int layerId, int tileHorizontalIndex, int basicSize) {
-        if (tileHorizontalIndex == mLayers.get(layerId).getTilesHorizontal() - 1) {
-            int result = mImageMetadata.getWidth() - basicSize * (mLayers.get(layerId).getTilesHorizontal() - 1);
-            // LOGGER.d( "TILE FAR RIGHT WIDTH: " + result);
-            return result;
-        } else {
-            return basicSize;
-        }
+        Layer layer = mLayers[layerId];
+        return tileHorizontalIndex == layer.getTilesHorizontal() - 1 ? layer.getLastColumnWidth() : basicSize;
     }
 
     private int getTileHeightInImageCoords(int layerId, int tileVerticalIndex, int basicSize) {
-        // Log.d(TestTags.TILES, "tileVerticalIndex:" + tileVerticalIndex);
-        int verticalTilesForLayer = mLayers.get(layerId).getTilesVertical();
-        // LOGGER.d( "vertical tiles for layer " + layerId + ": " + verticalTilesForLayer);
-        int lastTilesIndex = verticalTilesForLayer - 1;
-        // Log.d(TestTags.TILES, "tiles vertical for layer: " + layerId + ": " + tilesVerticalForLayer);
-        // Log.d(TestTags.TILES, "last tile's index: " + layerId + ": " + lastTilesIndex);
-        // Log.d(TestTags.TEST, "tileVerticalI: " + tileVerticalIndex + ", lastTilesI: " + lastTilesIndex);
-        if (tileVerticalIndex == lastTilesIndex) {
-            return mImageMetadata.getHeight() - basicSize * (lastTilesIndex);
-        } else {
-            return basicSize;
-        }
+        Layer layer = mLayers[layerId];
+        return tileVerticalIndex == layer.getTilesVertical() - 1 ? layer.getLastRowHeight() : basicSize;
     }
 
     private double getLayerWidth(int layerId) {
-        double result = mImageMetadata.getWidth() / Utils.pow(2, mLayers.size() - layerId - 1);
-        // LOGGER.d( "layer " + layerId + ", width=" + result + " px");
-        return result;
+        return mLayers[layerId].getWidth();
     }
 
     private double getLayerHeight(int layerId) {
-        return mImageMetadata.getHeight() / Utils.pow(2, mLayers.size() - layerId - 1);
+        return mLayers[layerId].getHeight();
     }
 
     @Override
@@ -480,6 +633,10 @@ public class ZoomifyImageManager implements ImageManager {
 
     @Override
     public void cancelFetchingTilesForLayerExeptForThese(int layerId, List<TilePositionInPyramid> visibleTiles) {
+        if (mTaskManager.getIdsOfAllTileDeliveryTasks().isEmpty()) {
+            //nothing to cancel, also avoids allocating iterator in every frame
+            return;
+        }
         for (TilePositionInPyramid runningTilePositionInPyramid : mTaskManager.getIdsOfAllTileDeliveryTasks()) {
             if (runningTilePositionInPyramid.getLayer() == layerId) {
                 if (!visibleTiles.contains(runningTilePositionInPyramid)) {
@@ -492,6 +649,10 @@ public class ZoomifyImageManager implements ImageManager {
 
     @Override
     public void cancelFetchingAllTilesForLayersSmallerThan(int layer) {
+        if (mTaskManager.getIdsOfAllTileDeliveryTasks().isEmpty()) {
+            //nothing to cancel, also avoids allocating iterator in every frame
+            return;
+        }
         for (TilePositionInPyramid runningTilePositionInPyramid : mTaskManager.getIdsOfAllTileDeliveryTasks()) {
             if (runningTilePositionInPyramid.getLayer() < layer) {
                 //LOGGER.i("canceling task " + runningTilePositionInPyramid);
@@ -502,6 +663,10 @@ public class ZoomifyImageManager implements ImageManager {
 
     @Override
     public void cancelFetchingAllTilesForLayersBiggerThan(int layer) {
+        if (mTaskManager.getIdsOfAllTileDeliveryTasks().isEmpty()) {
+            //nothing to cancel, also avoids allocating iterator in every frame
+            return;
+        }
         for (TilePositionInPyramid runningTilePositionInPyramid : mTaskManager.getIdsOfAllTileDeliveryTasks()) {
             if (runningTilePositionInPyramid.getLayer() > layer) {
                 //LOGGER.i("canceling task " + runningTilePositionInPyramid);
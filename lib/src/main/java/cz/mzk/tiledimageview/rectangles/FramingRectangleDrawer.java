@@ -3,8 +3,11 @@ package cz.mzk.tiledimageview.rectangles;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.Rect;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,94 +18,377 @@ import cz.mzk.tiledimageview.VectorD;
 
 /**
  * Created by Martin Řehánek on 12.11.15.
+ * <p/>
+ * Rectangles are drawn in list order, i.e. later one is on top of earlier ones. They are batched into runs of same style
+ * (fill color, border color and thickness) and every run is drawn with at most two calls: fills as one Path, borders as
+ * one drawLines(). Rectangle joins last run of its style only if that run comes after runs of all earlier rectangles it
+ * overlaps, so rectangles within run don't overlap and z-order of overlapping ones is kept. Since border thickness doesn't
+ * change with zoom, rectangles closer to each other than their borders reach count as overlapping too, so runs are
+ * reassigned when scale changes a lot. Non-overlapping rectangles of different styles may be interleaved in list without
+ * splitting runs.
+ * <p/>
+ * Geometry of runs is cached in canvas coordinates of scale it was built for, for visible area with margin. Pan and
+ * small zoom only change canvas matrix, geometry is rebuilt when scale changes too much or view leaves the cached area.
  */
 public class FramingRectangleDrawer {
     private static final Logger LOGGER = new Logger(FramingRectangleDrawer.class);
 
+    //geometry is rebuilt when scale factor changes more than this (either way) since it was built
+    private static final double REBUILD_SCALE_RATIO = 1.25;
+    //geometry covers visible area extended by this fraction of its size at each side, so that panning doesn't rebuild it.
+    //Not more, since hardware renderer rasterizes path into texture of limited size.
+    private static final double CACHED_AREA_MARGIN = 0.25;
 
     private final Context mContext;
 
     private Canvas mCanv;
     private List<FramingRectangle> mFramingRectangles;
-    private Map<Integer, Paint> mBorderPaintMap;
-    private Map<Integer, Paint> mFillingPaintMap;
+    private FramingRectangleIndex mIndex;
+    private Style[] mStyleOfRect;
+    //in drawing order
+    private final List<Run> mRuns = new ArrayList<>();
+    private int[] mRunOfRect;
+    private float mMaxBorderWidthPx = 0;
+    //lowest scale factor borders are accounted for in runs, -1 if runs are not assigned
+    private double mRunsScaleFactor = -1;
+    //cached geometry
+    private boolean mGeometryValid = false;
+    private double mGeometryScaleFactor;
+    private boolean mGeometryCoversAll;
+    private final Rect mGeometryArea = new Rect(); //image coords
+    private int mLastDrawCalls = 0;
 
 
     public FramingRectangleDrawer(Context context) {
         mContext = context;
     }
 
-    private void initPaints() {
-        if (mFramingRectangles != null) {
-            for (FramingRectangle rect : mFramingRectangles) {
-                Integer fillColor = rect.getFillColorRes();
+    public void setCanvas(Canvas canv) {
+        this.mCanv = canv;
+    }
+
+    public void setFrameRectangles(List<FramingRectangle> framingRectangles) {
+        //copy, so that indexed access is cheap and no iterator is needed when drawing
+        mFramingRectangles = framingRectangles == null ? null : new ArrayList<>(framingRectangles);
+        mRuns.clear();
+        mRunsScaleFactor = -1;
+        mMaxBorderWidthPx = 0;
+        mGeometryValid = false;
+        if (mFramingRectangles == null) {
+            mIndex = null;
+            mStyleOfRect = null;
+            mRunOfRect = null;
+        } else {
+            mIndex = new FramingRectangleIndex(mFramingRectangles);
+            initStyles();
+        }
+    }
+
+    private void initStyles() {
+        int count = mFramingRectangles.size();
+        mStyleOfRect = new Style[count];
+        mRunOfRect = new int[count];
+        Map<List<Integer>, Style> styles = new HashMap<>();
+        Map<Integer, Paint> fillPaints = new HashMap<>();
+        Map<List<Integer>, Paint> borderPaints = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            FramingRectangle rect = mFramingRectangles.get(i);
+            Integer fillColor = rect.getFillColorRes();
+            FramingRectangle.Border border = rect.getBorder();
+            List<Integer> borderStyle = border == null ? null : Arrays.asList(border.getColorRes(), border.getThicknessDp());
+            List<Integer> styleKey = Arrays.asList(fillColor, border == null ? null : border.getColorRes(), border == null ? null : border.getThicknessDp());
+            Style style = styles.get(styleKey);
+            if (style == null) {
+                Paint fillPaint = null;
                 if (fillColor != null) {
-                    initFillingPaintIfNeeded(fillColor);
+                    fillPaint = fillPaints.get(fillColor);
+                    if (fillPaint == null) {
+                        fillPaint = new Paint();
+                        fillPaint.setColor(mContext.getResources().getColor(fillColor));
+                        fillPaints.put(fillColor, fillPaint);
+                    }
                 }
-                FramingRectangle.Border border = rect.getBorder();
+                Paint borderPaint = null;
+                float borderWidthPx = 0;
                 if (border != null) {
-                    initBorderPaintIfNeeded(border.getColorRes(), border.getThicknessDp());
+                    borderWidthPx = Utils.dpToPx(border.getThicknessDp());
+                    mMaxBorderWidthPx = Math.max(mMaxBorderWidthPx, borderWidthPx);
+                    borderPaint = borderPaints.get(borderStyle);
+                    if (borderPaint == null) {
+                        borderPaint = new Paint();
+                        borderPaint.setColor(mContext.getResources().getColor(border.getColorRes()));
+                        borderPaints.put(borderStyle, borderPaint);
+                    }
                 }
+                style = new Style(fillPaint, borderPaint, borderWidthPx);
+                styles.put(styleKey, style);
             }
+            mStyleOfRect[i] = style;
         }
     }
 
-    private void initFillingPaintIfNeeded(Integer color) {
-        Paint found = mFillingPaintMap.get(color);
-        if (found == null) {
-            Paint paint = new Paint();
-            paint.setColor(mContext.getResources().getColor(color));
-            mFillingPaintMap.put(color, paint);
+    /**
+     * Runs don't depend on scale if there are no borders. Otherwise they are assigned for scale factor REBUILD_SCALE_RATIO
+     * times lower than the lowest one geometry is used with, and reassigned when the lowest one gets out of
+     * [runs scale factor, runs scale factor * REBUILD_SCALE_RATIO^2].
+     */
+    private void updateRuns(double totalScaleFactor) {
+        //geometry is used down to this scale
+        double lowestScaleFactor = totalScaleFactor / REBUILD_SCALE_RATIO;
+        if (mRunsScaleFactor == -1 || (mMaxBorderWidthPx != 0 && (lowestScaleFactor < mRunsScaleFactor
+                || lowestScaleFactor > mRunsScaleFactor * REBUILD_SCALE_RATIO * REBUILD_SCALE_RATIO))) {
+            assignRuns(lowestScaleFactor / REBUILD_SCALE_RATIO);
         }
     }
 
-    private void initBorderPaintIfNeeded(Integer color, int thicknessDp) {
-        Paint found = mBorderPaintMap.get(color);
-        if (found == null) {
-            Paint paint = new Paint();
-            paint.setColor(mContext.getResources().getColor(color));
-            paint.setStrokeWidth(Utils.dpToPx(thicknessDp));
-            mBorderPaintMap.put(color, paint);
+    private void assignRuns(double scaleFactor) {
+        mRuns.clear();
+        mRunsScaleFactor = scaleFactor;
+        Map<Style, Integer> lastRunOfStyle = new HashMap<>();
+        for (int i = 0; i < mFramingRectangles.size(); i++) {
+            Style style = mStyleOfRect[i];
+            Integer runId = lastRunOfStyle.get(style);
+            if (runId == null || runId <= lastOverlappedRun(i, scaleFactor)) {
+                runId = mRuns.size();
+                mRuns.add(new Run(style));
+                lastRunOfStyle.put(style, runId);
+            }
+            mRuns.get(runId).rectCount++;
+            mRunOfRect[i] = runId;
+        }
+        for (int i = 0; i < mRuns.size(); i++) {
+            Run run = mRuns.get(i);
+            if (run.borderPaint != null) {
+                run.lines = new float[run.rectCount * 16];
+            }
         }
     }
 
-    public void setCanvas(Canvas canv) {
-        this.mCanv = canv;
+    /**
+     * @param scaleFactor lowest scale factor runs are used with, the lower the farther borders reach in image coords
+     * @return last run containing earlier rectangle that overlaps given one (or its border), -1 if there is none
+     */
+    private int lastOverlappedRun(int index, double scaleFactor) {
+        Rect rect = mFramingRectangles.get(index).getRect();
+        Style style = mStyleOfRect[index];
+        //half of border is outside of rectangle
+        int padding = (int) Math.ceil((style.borderWidthPx + mMaxBorderWidthPx) / 2 / scaleFactor);
+        int found = mIndex.query(rect.left - padding, rect.top - padding, rect.right + padding, rect.bottom + padding);
+        int[] indices = mIndex.getResult();
+        int lastRun = -1;
+        for (int i = 0; i < found; i++) {
+            int other = indices[i];
+            if (other < index && mRunOfRect[other] > lastRun) {
+                Rect otherRect = mFramingRectangles.get(other).getRect();
+                Style otherStyle = mStyleOfRect[other];
+                double borderReach = (style.borderWidthPx + otherStyle.borderWidthPx) / 2 / scaleFactor;
+                //order within run of single color doesn't matter
+                boolean orderMatters = otherStyle != style || !style.singleColor;
+                if (overlap(rect, otherRect, 0) || (orderMatters && borderReach != 0 && overlap(rect, otherRect, borderReach))) {
+                    lastRun = mRunOfRect[other];
+                }
+            }
+        }
+        return lastRun;
     }
 
-    public void setFrameRectangles(List<FramingRectangle> framingRectangles) {
-        mFramingRectangles = framingRectangles;
-        mBorderPaintMap = new HashMap<>();
-        mFillingPaintMap = new HashMap<>();
-        initPaints();
+    /**
+     * Rectangles only touching each other don't overlap.
+     *
+     * @param margin rectangles closer than this overlap too
+     */
+    private static boolean overlap(Rect first, Rect second, double margin) {
+        return first.left - margin < second.right && second.left - margin < first.right
+                && first.top - margin < second.bottom && second.top - margin < first.bottom;
+    }
+
+    /**
+     * Rectangles are indexed when set, so changes of their Rect objects afterwards are not reflected.
+     *
+     * @return rectangle containing given point that is last in list (i.e. drawn on top), or null. Border drawn outside
+     * of rectangle doesn't count.
+     */
+    public FramingRectangle findRectangleAt(double xInImageCoords, double yInImageCoords) {
+        if (mIndex == null) {
+            return null;
+        }
+        int index = mIndex.findAt(xInImageCoords, yInImageCoords);
+        return index == -1 ? null : mFramingRectangles.get(index);
+    }
+
+    /**
+     * @return number of canvas draw calls used for rectangles in last draw(), i.e. number of non-empty fillings and borders
+     * of runs
+     */
+    public int getLastDrawCalls() {
+        return mLastDrawCalls;
     }
 
     public void draw(double totalScaleFactor, VectorD totalShift) {
+        draw(totalScaleFactor, totalShift.x, totalShift.y);
+    }
+
+    public void draw(double totalScaleFactor, double totalShiftX, double totalShiftY) {
+        draw(totalScaleFactor, totalShiftX, totalShiftY, null);
+    }
+
+    /**
+     * @param visibleAreaInImageCoords only rectangles intersecting this area are drawn, null to draw all of them
+     */
+    public void draw(double totalScaleFactor, double totalShiftX, double totalShiftY, Rect visibleAreaInImageCoords) {
+        mLastDrawCalls = 0;
         if (mCanv == null) {
             LOGGER.w("draw() called, but canvas not initialized yet");
-        } else {
-            if (mFramingRectangles != null) {
-                for (FramingRectangle rect : mFramingRectangles) {
-                    drawRect(rect, totalScaleFactor, totalShift);
+        } else if (mFramingRectangles != null && !mFramingRectangles.isEmpty()) {
+            if (!isGeometryUsable(totalScaleFactor, visibleAreaInImageCoords)) {
+                rebuildGeometry(totalScaleFactor, visibleAreaInImageCoords);
+            }
+            float relativeScale = (float) (totalScaleFactor / mGeometryScaleFactor);
+            mCanv.save();
+            mCanv.translate((float) totalShiftX, (float) totalShiftY);
+            mCanv.scale(relativeScale, relativeScale);
+            for (int i = 0; i < mRuns.size(); i++) {
+                Run run = mRuns.get(i);
+                if (!run.pathEmpty) {
+                    mCanv.drawPath(run.path, run.fillPaint);
+                    mLastDrawCalls++;
+                }
+                if (run.lineCoords != 0) {
+                    //border thickness doesn't change with zoom
+                    run.borderPaint.setStrokeWidth(run.borderWidthPx / relativeScale);
+                    mCanv.drawLines(run.lines, 0, run.lineCoords, run.borderPaint);
+                    mLastDrawCalls++;
                 }
             }
+            mCanv.restore();
         }
     }
 
-    private void drawRect(FramingRectangle framingRect, double totalScaleFactor, VectorD totalShift) {
-        Rect rectInCanvasCoords = Utils.toCanvasCoords(framingRect.getRect(), totalScaleFactor, totalShift);
-        if (framingRect.getFillColorRes() != null) {
-            Paint fillPaint = mFillingPaintMap.get(framingRect.getFillColorRes());
-            mCanv.drawRect(rectInCanvasCoords, fillPaint);
+    private boolean isGeometryUsable(double totalScaleFactor, Rect visibleAreaInImageCoords) {
+        if (!mGeometryValid) {
+            return false;
         }
-        if (framingRect.getBorder() != null) {
-            Paint borderPaint = mBorderPaintMap.get(framingRect.getBorder().getColorRes());
+        double scaleRatio = totalScaleFactor / mGeometryScaleFactor;
+        if (scaleRatio > REBUILD_SCALE_RATIO || scaleRatio < 1.0 / REBUILD_SCALE_RATIO) {
+            return false;
+        }
+        if (mGeometryCoversAll) {
+            return true;
+        }
+        return visibleAreaInImageCoords != null
+                && visibleAreaInImageCoords.left >= mGeometryArea.left && visibleAreaInImageCoords.top >= mGeometryArea.top
+                && visibleAreaInImageCoords.right <= mGeometryArea.right && visibleAreaInImageCoords.bottom <= mGeometryArea.bottom;
+    }
+
+    private void rebuildGeometry(double totalScaleFactor, Rect visibleAreaInImageCoords) {
+        updateRuns(totalScaleFactor);
+        mGeometryScaleFactor = totalScaleFactor;
+        for (int i = 0; i < mRuns.size(); i++) {
+            Run run = mRuns.get(i);
+            if (run.path != null) {
+                run.path.rewind();
+            }
+            run.pathEmpty = true;
+            run.lineCoords = 0;
+        }
+        mGeometryCoversAll = visibleAreaInImageCoords == null;
+        if (mGeometryCoversAll) {
+            for (int i = 0; i < mFramingRectangles.size(); i++) {
+                appendRect(i, totalScaleFactor);
+            }
+        } else {
+            int marginX = (int) (visibleAreaInImageCoords.width() * CACHED_AREA_MARGIN);
+            int marginY = (int) (visibleAreaInImageCoords.height() * CACHED_AREA_MARGIN);
+            mGeometryArea.set(visibleAreaInImageCoords.left - marginX, visibleAreaInImageCoords.top - marginY,
+                    visibleAreaInImageCoords.right + marginX, visibleAreaInImageCoords.bottom + marginY);
+            //border of rectangle just outside the area can reach into it
+            int padding = (int) Math.ceil(mMaxBorderWidthPx / 2 / totalScaleFactor) + 1;
+            int found = mIndex.query(mGeometryArea.left - padding, mGeometryArea.top - padding,
+                    mGeometryArea.right + padding, mGeometryArea.bottom + padding);
+            int[] indices = mIndex.getResult();
+            for (int i = 0; i < found; i++) {
+                appendRect(indices[i], totalScaleFactor);
+            }
+        }
+        mGeometryValid = true;
+    }
+
+    private void appendRect(int index, double scaleFactor) {
+        Rect rect = mFramingRectangles.get(index).getRect();
+        float left = (float) (rect.left * scaleFactor);
+        float top = (float) (rect.top * scaleFactor);
+        float right = (float) (rect.right * scaleFactor);
+        float bottom = (float) (rect.bottom * scaleFactor);
+        Run run = mRuns.get(mRunOfRect[index]);
+        if (run.path != null) {
+            run.path.addRect(left, top, right, bottom, Path.Direction.CW);
+            run.pathEmpty = false;
+        }
+        if (run.lines != null) {
+            float[] lines = run.lines;
+            int i = run.lineCoords;
             // vertical
-            mCanv.drawLine(rectInCanvasCoords.left, rectInCanvasCoords.top, rectInCanvasCoords.left, rectInCanvasCoords.bottom, borderPaint);
-            mCanv.drawLine(rectInCanvasCoords.right, rectInCanvasCoords.top, rectInCanvasCoords.right, rectInCanvasCoords.bottom, borderPaint);
+            lines[i++] = left;
+            lines[i++] = top;
+            lines[i++] = left;
+            lines[i++] = bottom;
+            lines[i++] = right;
+            lines[i++] = top;
+            lines[i++] = right;
+            lines[i++] = bottom;
             // horizontal
-            mCanv.drawLine(rectInCanvasCoords.left, rectInCanvasCoords.top, rectInCanvasCoords.right, rectInCanvasCoords.top, borderPaint);
-            mCanv.drawLine(rectInCanvasCoords.left, rectInCanvasCoords.bottom, rectInCanvasCoords.right, rectInCanvasCoords.bottom, borderPaint);
+            lines[i++] = left;
+            lines[i++] = top;
+            lines[i++] = right;
+            lines[i++] = top;
+            lines[i++] = left;
+            lines[i++] = bottom;
+            lines[i++] = right;
+            lines[i++] = bottom;
+            run.lineCoords = i;
+        }
+    }
+
+    /**
+     * Fill color, border color and thickness. Same styles are represented by same instance.
+     */
+    private static class Style {
+        //null if rectangles have no filling/border
+        final Paint fillPaint;
+        final Paint borderPaint;
+        final float borderWidthPx;
+        //filling and border of same color (or only one of them)
+        final boolean singleColor;
+
+        Style(Paint fillPaint, Paint borderPaint, float borderWidthPx) {
+            this.fillPaint = fillPaint;
+            this.borderPaint = borderPaint;
+            this.borderWidthPx = borderWidthPx;
+            this.singleColor = fillPaint == null || borderPaint == null || fillPaint.getColor() == borderPaint.getColor();
+        }
+    }
+
+    /**
+     * Rectangles of same style that don't overlap each other.
+     */
+    private static class Run {
+        //null if rectangles have no filling/border
+        final Paint fillPaint;
+        final Paint borderPaint;
+        final float borderWidthPx;
+        int rectCount = 0;
+        //filling geometry
+        final Path path;
+        boolean pathEmpty = true;
+        //border geometry, 4 lines (of 4 coordinates) per rectangle
+        float[] lines;
+        int lineCoords = 0;
+
+        Run(Style style) {
+            this.fillPaint = style.fillPaint;
+            this.borderPaint = style.borderPaint;
+            this.borderWidthPx = style.borderWidthPx;
+            this.path = fillPaint != null ? new Path() : null;
         }
     }
 }
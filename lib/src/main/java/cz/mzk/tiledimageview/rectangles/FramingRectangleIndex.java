@@ -0,0 +1,213 @@
+package cz.mzk.tiledimageview.rectangles;
+
+import android.graphics.Rect;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid over framing rectangles in image coordinates, so that only rectangles intersecting visible area are
+ * drawn and rectangle under tap is found without testing all of them. Thousands of small rectangles (e.g. word boxes
+ * of OCR) are expected.
+ * <p/>
+ * Grid has about as many cells as there are rectangles, over bounding box of all rectangles. Cells are stored in flat
+ * arrays (cell starts and rectangle indices), rectangles spanning too many cells are kept aside and tested always.
+ * Queries don't allocate.
+ */
+class FramingRectangleIndex {
+
+    private static final int MAX_CELLS_PER_AXIS = 256;
+    //rectangles spanning more cells are not put into grid
+    private static final int MAX_CELLS_PER_RECT = 64;
+
+    private final Rect[] mRects;
+    private int mLeft;
+    private int mTop;
+    private int mCellWidth = 1;
+    private int mCellHeight = 1;
+    private int mColumns = 0;
+    private int mRows = 0;
+    //rectangle indices of cell i are mCellEntries[mCellStarts[i]] .. mCellEntries[mCellStarts[i + 1] - 1], ascending
+    private int[] mCellStarts = new int[1];
+    private int[] mCellEntries = new int[0];
+    private int[] mLargeRects = new int[0];
+    //rectangle already visited by current query, so that rectangle in multiple cells is tested once
+    private final int[] mQueryStamps;
+    private int mQueryStamp = 0;
+    private final int[] mResult;
+
+    FramingRectangleIndex(List<FramingRectangle> rectangles) {
+        int count = rectangles.size();
+        mRects = new Rect[count];
+        mQueryStamps = new int[count];
+        mResult = new int[count];
+        if (count == 0) {
+            return;
+        }
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            Rect rect = rectangles.get(i).getRect();
+            mRects[i] = rect;
+            left = Math.min(left, rect.left);
+            top = Math.min(top, rect.top);
+            right = Math.max(right, rect.right);
+            bottom = Math.max(bottom, rect.bottom);
+        }
+        long width = Math.max(1L, (long) right - left);
+        long height = Math.max(1L, (long) bottom - top);
+        // ~count cells, with aspect ratio of bounding box
+        mColumns = (int) Math.max(1, Math.min(MAX_CELLS_PER_AXIS, Math.round(Math.sqrt(count * (double) width / height))));
+        mRows = (int) Math.max(1, Math.min(MAX_CELLS_PER_AXIS, Math.round((double) count / mColumns)));
+        mLeft = left;
+        mTop = top;
+        mCellWidth = (int) Math.max(1L, (width + mColumns - 1) / mColumns);
+        mCellHeight = (int) Math.max(1L, (height + mRows - 1) / mRows);
+
+        //first pass counts entries of cells, second one fills them
+        int[] cellSizes = new int[mColumns * mRows];
+        int largeRects = 0;
+        for (int i = 0; i < count; i++) {
+            Rect rect = mRects[i];
+            int colFrom = column(rect.left);
+            int colTo = column(rect.right);
+            int rowFrom = row(rect.top);
+            int rowTo = row(rect.bottom);
+            if ((colTo - colFrom + 1) * (rowTo - rowFrom + 1) > MAX_CELLS_PER_RECT) {
+                largeRects++;
+                continue;
+            }
+            for (int row = rowFrom; row <= rowTo; row++) {
+                for (int col = colFrom; col <= colTo; col++) {
+                    cellSizes[row * mColumns + col]++;
+                }
+            }
+        }
+        mCellStarts = new int[cellSizes.length + 1];
+        for (int cell = 0; cell < cellSizes.length; cell++) {
+            mCellStarts[cell + 1] = mCellStarts[cell] + cellSizes[cell];
+            cellSizes[cell] = mCellStarts[cell];
+        }
+        mCellEntries = new int[mCellStarts[cellSizes.length]];
+        mLargeRects = new int[largeRects];
+        largeRects = 0;
+        for (int i = 0; i < count; i++) {
+            Rect rect = mRects[i];
+            int colFrom = column(rect.left);
+            int colTo = column(rect.right);
+            int rowFrom = row(rect.top);
+            int rowTo = row(rect.bottom);
+            if ((colTo - colFrom + 1) * (rowTo - rowFrom + 1) > MAX_CELLS_PER_RECT) {
+                mLargeRects[largeRects++] = i;
+                continue;
+            }
+            for (int row = rowFrom; row <= rowTo; row++) {
+                for (int col = colFrom; col <= colTo; col++) {
+                    mCellEntries[cellSizes[row * mColumns + col]++] = i;
+                }
+            }
+        }
+    }
+
+    private int column(int x) {
+        return Math.max(0, Math.min(mColumns - 1, (int) (((long) x - mLeft) / mCellWidth)));
+    }
+
+    private int row(int y) {
+        return Math.max(0, Math.min(mRows - 1, (int) (((long) y - mTop) / mCellHeight)));
+    }
+
+    /**
+     * Finds rectangles intersecting given area (borders included). Result is valid until next query.
+     *
+     * @return number of rectangles found, their indices are in {@link #getResult()} in no particular order
+     */
+    int query(int left, int top, int right, int bottom) {
+        nextQueryStamp();
+        int found = 0;
+        for (int i = 0; i < mLargeRects.length; i++) {
+            int index = mLargeRects[i];
+            if (intersects(mRects[index], left, top, right, bottom)) {
+                mResult[found++] = index;
+            }
+        }
+        if (mColumns != 0 && right >= mLeft && bottom >= mTop
+                && left <= mLeft + (long) mColumns * mCellWidth && top <= mTop + (long) mRows * mCellHeight) {
+            int colTo = column(right);
+            int rowTo = row(bottom);
+            for (int row = row(top); row <= rowTo; row++) {
+                for (int col = column(left); col <= colTo; col++) {
+                    int cell = row * mColumns + col;
+                    for (int entry = mCellStarts[cell]; entry < mCellStarts[cell + 1]; entry++) {
+                        int index = mCellEntries[entry];
+                        if (mQueryStamps[index] != mQueryStamp) {
+                            mQueryStamps[index] = mQueryStamp;
+                            if (intersects(mRects[index], left, top, right, bottom)) {
+                                mResult[found++] = index;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    int[] getResult() {
+        return mResult;
+    }
+
+    /**
+     * @return index of last (i.e. topmost) rectangle containing given point, or -1
+     */
+    int findAt(double x, double y) {
+        int topmost = -1;
+        for (int i = 0; i < mLargeRects.length; i++) {
+            if (contains(mRects[mLargeRects[i]], x, y)) {
+                topmost = Math.max(topmost, mLargeRects[i]);
+            }
+        }
+        if (mColumns != 0 && x >= mLeft && y >= mTop
+                && x < mLeft + (long) mColumns * mCellWidth && y < mTop + (long) mRows * mCellHeight) {
+            int cell = row((int) Math.floor(y)) * mColumns + column((int) Math.floor(x));
+            //entries of cell are ascending, so first match from the end is the topmost one in cell
+            for (int entry = mCellStarts[cell + 1] - 1; entry >= mCellStarts[cell]; entry--) {
+                int index = mCellEntries[entry];
+                if (index <= topmost) {
+                    break;
+                }
+                if (contains(mRects[index], x, y)) {
+                    return index;
+                }
+            }
+        }
+        return topmost;
+    }
+
+    /**
+     * Only for tests of stamp overflow.
+     */
+    void setQueryStamp(int queryStamp) {
+        mQueryStamp = queryStamp;
+    }
+
+    private void nextQueryStamp() {
+        mQueryStamp++;
+        if (mQueryStamp == 0) {
+            //overflow, stamps of past queries could collide
+            Arrays.fill(mQueryStamps, 0);
+            mQueryStamp = 1;
+        }
+    }
+
+    private static boolean intersects(Rect rect, int left, int top, int right, int bottom) {
+        return rect.left <= right && left <= rect.right && rect.top <= bottom && top <= rect.bottom;
+    }
+
+    private static boolean contains(Rect rect, double x, double y) {
+        return x >= rect.left && x < rect.right && y >= rect.top && y < rect.bottom;
+    }
+
+}